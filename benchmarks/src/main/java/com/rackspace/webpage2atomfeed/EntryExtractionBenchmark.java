@@ -0,0 +1,98 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares copying the page pattern match out before running the entry pattern over it with running the entry
+ * pattern over a region of the page and stopping as soon as entry.max entries are found. getFeed measures the whole
+ * parse as WebPageToAtomFeed does it, building the feed entries as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntryExtractionBenchmark {
+    @Param({"pyrax", "jclouds", Fixtures.SYNTHETIC})
+    public String fixture;
+
+    @Param({"5", "20"})
+    public int entryMax;
+
+    private String pageSource;
+    private Pattern pagePattern;
+    private Pattern entryPattern;
+    private FeedDefinition feedDefinition;
+    private WebPageToAtomFeed webPageToAtomFeed;
+
+    @Setup
+    public void setUp() throws IOException {
+        pageSource = Fixtures.getPageSource(fixture);
+
+        Map<FeedProperty, String> feedProp = Fixtures.getFeedProps(fixture);
+        feedProp.put(FeedProperty.ENTRY_MAX, String.valueOf(entryMax));
+        feedDefinition = FeedDefinition.parse(feedProp);
+        pagePattern = feedDefinition.getPagePattern();
+        entryPattern = feedDefinition.getEntryPattern();
+        webPageToAtomFeed = new WebPageToAtomFeed();
+    }
+
+    @TearDown
+    public void tearDown() {
+        webPageToAtomFeed.close();
+    }
+
+    @Benchmark
+    public Object getFeed() throws IOException {
+        return webPageToAtomFeed.getFeed(feedDefinition, pageSource);
+    }
+
+    @Benchmark
+    public void substring(Blackhole blackhole) {
+        String source = pageSource;
+        Matcher pageMatcher = pagePattern.matcher(source);
+
+        if (pageMatcher.find()) source = pageMatcher.group(1).trim();
+
+        Matcher entryMatcher = entryPattern.matcher(source);
+        int entryCount = 0;
+
+        while (entryMatcher.find() && entryCount < entryMax) {
+            blackhole.consume(entryMatcher.group(1));
+            blackhole.consume(entryMatcher.group(2));
+            entryCount++;
+        }
+    }
+
+    @Benchmark
+    public void region(Blackhole blackhole) {
+        Matcher pageMatcher = pagePattern.matcher(pageSource);
+        int regionStart = 0;
+        int regionEnd = pageSource.length();
+
+        if (pageMatcher.find()) {
+            regionStart = pageMatcher.start(1);
+            regionEnd = pageMatcher.end(1);
+
+            while (regionStart < regionEnd && pageSource.charAt(regionStart) <= ' ') regionStart++;
+            while (regionEnd > regionStart && pageSource.charAt(regionEnd - 1) <= ' ') regionEnd--;
+        }
+
+        Matcher entryMatcher = entryPattern.matcher(pageSource).region(regionStart, regionEnd);
+        int entryCount = 0;
+
+        while (entryCount < entryMax && entryMatcher.find()) {
+            blackhole.consume(entryMatcher.group(1));
+            blackhole.consume(entryMatcher.group(2));
+            entryCount++;
+        }
+    }
+}
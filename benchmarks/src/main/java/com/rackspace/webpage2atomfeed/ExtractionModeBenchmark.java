@@ -0,0 +1,53 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing a page into a feed with the page and entry patterns against a single pass of the HTML tokenizer
+ * with selectors that find the same entries.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractionModeBenchmark {
+    @Param({"pyrax", "jclouds", Fixtures.SYNTHETIC})
+    public String fixture;
+
+    @Param({"pattern", "selector"})
+    public String mode;
+
+    @Param({"5", "20"})
+    public int entryMax;
+
+    private String pageSource;
+    private FeedDefinition feedDefinition;
+    private WebPageToAtomFeed webPageToAtomFeed;
+
+    @Setup
+    public void setUp() throws IOException {
+        pageSource = Fixtures.getPageSource(fixture);
+
+        Map<FeedProperty, String> feedProp = "selector".equals(mode) ? Fixtures.getSelectorFeedProps(fixture)
+                : Fixtures.getFeedProps(fixture);
+        feedProp.put(FeedProperty.ENTRY_MAX, String.valueOf(entryMax));
+        feedDefinition = FeedDefinition.parse(feedProp);
+        webPageToAtomFeed = new WebPageToAtomFeed();
+    }
+
+    @TearDown
+    public void tearDown() {
+        webPageToAtomFeed.close();
+    }
+
+    @Benchmark
+    public Object getFeed() throws IOException {
+        return webPageToAtomFeed.getFeed(feedDefinition, pageSource);
+    }
+}
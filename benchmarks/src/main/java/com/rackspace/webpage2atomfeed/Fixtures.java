@@ -0,0 +1,119 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.rackspace.webpage2atomfeed.FeedProperty.*;
+
+/**
+ * The release notes pages from src/test/resources, plus synthetic pages laid out like the pyrax one but with as many
+ * entries as needed. Set fixtures.dir when not running from the benchmarks directory.
+ */
+final class Fixtures {
+    private static final String FIXTURES_DIR = System.getProperty("fixtures.dir", "../src/test/resources");
+
+    static final String SYNTHETIC = "synthetic";
+    static final int SYNTHETIC_ENTRIES = 5000;
+
+    private Fixtures() {
+    }
+
+    /**
+     * @param title pyrax, jclouds or synthetic
+     * @return The page source with all new lines removed, the same as getWebPageSource returns it.
+     */
+    static String getPageSource(String title) throws IOException {
+        String page = new String(getPageBytes(title), "UTF-8");
+
+        return page.replaceAll("\\r\\n|\\r|\\n", " ");
+    }
+
+    /**
+     * @param title pyrax, jclouds or synthetic
+     * @return The page as it comes over the wire, UTF-8 encoded with its new lines.
+     */
+    static byte[] getPageBytes(String title) throws IOException {
+        if (SYNTHETIC.equals(title)) return getSyntheticPage(SYNTHETIC_ENTRIES).getBytes("UTF-8");
+
+        return Files.readAllBytes(new File(FIXTURES_DIR, title + ".RELEASENOTES.html").toPath());
+    }
+
+    /**
+     * @param entries Number of release notes on the page.
+     * @return A page that the pyrax patterns match, newest release first.
+     */
+    static String getSyntheticPage(int entries) {
+        StringBuilder page = new StringBuilder(entries * 300);
+        page.append("<!DOCTYPE html>\r\n<html>\r\n<head>\r\n<title>Release Notes</title>\r\n</head>\r\n<body>\r\n");
+        page.append("<article class=\"markdown-body entry-content\" itemprop=\"mainContentOfPage\">\r\n");
+        page.append("<h1>Release Notes</h1>\r\n\r\n");
+
+        for (int i = entries; i > 0; i--) {
+            page.append("<h3>\r\n<a name=\"version-").append(i).append("\" class=\"anchor\" href=\"#version-")
+                    .append(i).append("\"><span class=\"octicon octicon-link\"></span></a>Version 1.")
+                    .append(i).append("</h3>\r\n\r\n<ul>\r\n<li>Fixed a bug that broke request ").append(i)
+                    .append(" when the region was not set.</li>\r\n<li>Added support for feature ").append(i)
+                    .append(".</li>\r\n</ul>\r\n\r\n");
+        }
+
+        page.append("</article>\r\n</body>\r\n</html>\r\n");
+
+        return page.toString();
+    }
+
+    /**
+     * @param title pyrax, jclouds or synthetic
+     * @return The properties of a feed with the patterns used for that page.
+     */
+    static Map<FeedProperty, String> getFeedProps(String title) {
+        Map<FeedProperty, String> feedProp = new HashMap<>();
+        feedProp.put(FEED_TITLE, title);
+        feedProp.put(FEED_URL, "http://example.com/" + title + "/releasenotes");
+        feedProp.put(FEED_FILE, title + ".atom");
+        feedProp.put(ENTRY_MAX, "20");
+
+        if ("jclouds".equals(title)) {
+            feedProp.put(PAGE_PATTERN, "<h1>jclouds Release Notes Archive(.*?)</ul>");
+            feedProp.put(ENTRY_PATTERN, "<li><a href=\"(.*?)\">(.*?)</a>.*?</li>");
+            feedProp.put(ENTRY_TITLE_GROUP, "2");
+            feedProp.put(ENTRY_URL_GROUP, "1");
+        }
+        else {
+            feedProp.put(PAGE_PATTERN, "<article (.*?)</article>");
+            feedProp.put(ENTRY_PATTERN, "<h3>.*?href=\"(.*?)\".*?</a>(.*?)</h3>.*?<ul>(.*?)</ul>");
+            feedProp.put(ENTRY_TITLE_GROUP, "2");
+            feedProp.put(ENTRY_URL_GROUP, "1");
+            feedProp.put(ENTRY_CONTENT_GROUP, "3");
+        }
+
+        return feedProp;
+    }
+
+    /**
+     * @param title pyrax, jclouds or synthetic
+     * @return The properties of a feed with selectors that find the same entries as the patterns.
+     */
+    static Map<FeedProperty, String> getSelectorFeedProps(String title) {
+        Map<FeedProperty, String> feedProp = getFeedProps(title);
+        feedProp.remove(PAGE_PATTERN);
+        feedProp.remove(ENTRY_PATTERN);
+
+        if ("jclouds".equals(title)) {
+            feedProp.put(PAGE_SELECTOR, "#column2 > ul");
+            feedProp.put(ENTRY_SELECTOR, "li");
+            feedProp.put(ENTRY_TITLE_SELECTOR, "a");
+            feedProp.put(ENTRY_LINK_SELECTOR, "a[href]");
+        }
+        else {
+            feedProp.put(PAGE_SELECTOR, "article");
+            feedProp.put(ENTRY_SELECTOR, "article > h3");
+            feedProp.put(ENTRY_LINK_SELECTOR, "a");
+            feedProp.put(ENTRY_CONTENT_SELECTOR, "+ ul");
+        }
+
+        return feedProp;
+    }
+}
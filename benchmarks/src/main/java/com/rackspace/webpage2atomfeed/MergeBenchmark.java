@@ -0,0 +1,93 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a web page of up to 20 entries into a feed that already keeps existingEntries entries. oneNewEntry adds a
+ * release on top of the page every call, unchanged finds nothing new and leaves the feed file alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MergeBenchmark {
+    private static final int PAGE_ENTRIES = 20;
+
+    @Param({"10", "1000", "10000"})
+    public int existingEntries;
+
+    private File feedDir;
+    private FeedDefinition feedDefinition;
+    private WebPageToAtomFeed webPageToAtomFeed;
+    private List<FeedEntry> entriesFromWebPage;
+    private int release;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        feedDir = Files.createTempDirectory("merge").toFile();
+
+        Map<FeedProperty, String> feedProp = Fixtures.getFeedProps(Fixtures.SYNTHETIC);
+        feedProp.put(FeedProperty.FEED_FILE, new File(feedDir, "synthetic.atom").getPath());
+        feedDefinition = FeedDefinition.parse(feedProp);
+
+        List<FeedEntry> storedEntries = new ArrayList<>(existingEntries);
+
+        for (int i = 1; i <= existingEntries; i++) storedEntries.add(newFeedEntry(i));
+
+        new EntryStore(new File(feedDefinition.getFile()), existingEntries, 0).append(storedEntries);
+
+        entriesFromWebPage = new ArrayList<>(PAGE_ENTRIES);
+
+        for (int i = existingEntries; i > Math.max(existingEntries - PAGE_ENTRIES, 0); i--) {
+            entriesFromWebPage.add(newFeedEntry(i));
+        }
+
+        release = existingEntries;
+
+        webPageToAtomFeed = new WebPageToAtomFeed();
+        webPageToAtomFeed.setEntryRetention(existingEntries, 0);
+        webPageToAtomFeed.writeFeed(feedDefinition, entriesFromWebPage);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        webPageToAtomFeed.close();
+
+        File[] files = feedDir.listFiles();
+
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+
+        feedDir.delete();
+    }
+
+    @Benchmark
+    public void oneNewEntry() throws IOException {
+        entriesFromWebPage.set(0, newFeedEntry(++release));
+        webPageToAtomFeed.writeFeed(feedDefinition, entriesFromWebPage);
+    }
+
+    @Benchmark
+    public void unchanged() throws IOException {
+        webPageToAtomFeed.writeFeed(feedDefinition, entriesFromWebPage);
+    }
+
+    private static FeedEntry newFeedEntry(int i) {
+        String link = "http://example.com/synthetic/releasenotes#version-" + i;
+        String summary = "<ul> <li>Fixed a bug that broke request " + i + " when the region was not set.</li> "
+                + "<li>Added support for feature " + i + ".</li> </ul>";
+
+        return new FeedEntry(link, "Version 1." + i, link, summary, i * 1000L);
+    }
+}
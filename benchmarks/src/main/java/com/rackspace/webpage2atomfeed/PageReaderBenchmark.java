@@ -0,0 +1,46 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old way of turning a response body into page source (decode the whole body into a String, then
+ * replaceAll the new lines) with the single pass PageReader.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PageReaderBenchmark {
+    @Param({"pyrax", "jclouds", Fixtures.SYNTHETIC})
+    public String fixture;
+
+    private byte[] body;
+    private PageReader pageReader;
+
+    @Setup
+    public void setUp() throws IOException {
+        body = Fixtures.getPageBytes(fixture);
+        pageReader = new PageReader(64 * 1024 * 1024);
+    }
+
+    @Benchmark
+    public String replaceAll() throws IOException {
+        return new String(body, "UTF-8").replaceAll("\\r\\n|\\r|\\n", " ");
+    }
+
+    @Benchmark
+    public String pageReader() throws IOException {
+        return pageReader.read(new ByteArrayInputStream(body), "text/html; charset=UTF-8", body.length);
+    }
+
+    @Benchmark
+    public String pageReaderSniffed() throws IOException {
+        return pageReader.read(new ByteArrayInputStream(body), null, -1);
+    }
+}
@@ -0,0 +1,136 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs generateFeeds over feeds whose pages are replayed from an HTTP archive, so fetching, parsing and writing are
+ * measured together without the network. Each page takes latencyMillis to arrive, or as long as it did when recorded
+ * if that is -1. Every fixture URL is on one host, so fetch.threads.per.host bounds the fetches in flight.
+ * </p>
+ * By default the archive holds the pyrax and jclouds pages, gzipped, each under a URL per feed. To replay real
+ * captured pages instead, run once with http.archive.mode=record and then point pipeline.props at the same
+ * properties file: its feeds and settings are used, and feeds is ignored.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+    private static final String PROPS_FILE = System.getProperty("pipeline.props");
+
+    @Param({"1000", "5000"})
+    public int feeds;
+
+    @Param({"0", "10"})
+    public long latencyMillis;
+
+    private File dir;
+    private List<FeedDefinition> feedDefinitions;
+    private WebPageToAtomFeed webPageToAtomFeed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("pipeline").toFile();
+        webPageToAtomFeed = new WebPageToAtomFeed();
+
+        if (PROPS_FILE == null) {
+            File archiveFile = new File(dir, "http.archive");
+            feedDefinitions = getFeedDefinitions(archiveFile);
+            webPageToAtomFeed.setHttpArchiveReplay(archiveFile, latencyMillis);
+        }
+        else {
+            Properties props = new Properties();
+
+            try (InputStream in = new FileInputStream(PROPS_FILE)) {
+                props.load(in);
+            }
+
+            props.setProperty("http.archive.mode", "replay");
+            props.setProperty("http.archive.latency.ms", String.valueOf(latencyMillis));
+            props.setProperty("state.dir", dir.getPath());
+            webPageToAtomFeed.configure(props);
+            feedDefinitions = new ArrayList<>();
+
+            for (Map<FeedProperty, String> feedProp : webPageToAtomFeed.getFeedProps(props)) {
+                String feedFile = new File(feedProp.get(FeedProperty.FEED_FILE)).getName();
+                feedProp.put(FeedProperty.FEED_FILE, new File(dir, feedFile).getPath());
+                feedDefinitions.add(FeedDefinition.parse(feedProp));
+            }
+        }
+
+        webPageToAtomFeed.setRegionHashFile(null);
+        webPageToAtomFeed.setValidatorCacheFile(null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        webPageToAtomFeed.close();
+
+        File[] files = dir.listFiles();
+
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+
+        dir.delete();
+    }
+
+    @Benchmark
+    public void generateFeeds() throws Exception {
+        webPageToAtomFeed.generateFeeds(feedDefinitions);
+    }
+
+    /**
+     * Record the fixture pages into an archive under a URL per feed.
+     */
+    private List<FeedDefinition> getFeedDefinitions(File archiveFile) throws IOException {
+        HttpArchive archive = HttpArchive.forRecording(archiveFile);
+        List<FeedDefinition> definitions = new ArrayList<>(feeds);
+        List<String> titles = Arrays.asList("pyrax", "jclouds");
+        List<byte[]> bodies = new ArrayList<>();
+
+        for (String title : titles) bodies.add(gzip(Fixtures.getPageBytes(title)));
+
+        for (int i = 0; i < feeds; i++) {
+            Map<FeedProperty, String> feedProp = Fixtures.getFeedProps(titles.get(i % titles.size()));
+            String url = feedProp.get(FeedProperty.FEED_URL) + "?feed=" + i;
+            feedProp.put(FeedProperty.FEED_TITLE, "feed" + i);
+            feedProp.put(FeedProperty.FEED_URL, url);
+            feedProp.put(FeedProperty.FEED_FILE, new File(dir, "feed" + i + ".atom").getPath());
+            definitions.add(FeedDefinition.parse(feedProp));
+
+            List<String[]> headers = Arrays.asList(new String[]{"Content-Type", "text/html; charset=utf-8"},
+                    new String[]{"Content-Encoding", "gzip"});
+            archive.append(new HttpArchive.Response(url, 200, "HTTP/1.1 200 OK", headers,
+                    bodies.get(i % titles.size()), 0));
+        }
+
+        return definitions;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream(body.length / 4 + 64);
+
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(body);
+        }
+
+        return gzipped.toByteArray();
+    }
+}
@@ -0,0 +1,124 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.apache.abdera.Abdera;
+import org.apache.abdera.model.Entry;
+import org.apache.abdera.model.Feed;
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Node;
+import org.w3c.dom.bootstrap.DOMImplementationRegistry;
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSOutput;
+import org.w3c.dom.ls.LSSerializer;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.rackspace.webpage2atomfeed.FeedProperty.*;
+
+/**
+ * Compares the old way of writing a feed (Abdera toString, parse into a DOM, pretty print with LSSerializer into a
+ * String, write with a FileWriter) with the single pass AtomWriter. Run with -prof gc to see the bytes allocated
+ * per write.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int entryCount;
+
+    private FeedDefinition feedDefinition;
+    private List<FeedEntry> entries;
+    private Feed feed;
+    private File feedFile;
+    private AtomWriter atomWriter;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<FeedProperty, String> feedProp = new HashMap<>();
+        feedProp.put(FEED_TITLE, "synthetic");
+        feedProp.put(FEED_DESCRIPTION, "A synthetic feed");
+        feedProp.put(FEED_AUTHOR, "Benchmark");
+        feedProp.put(FEED_URL, "http://example.com/releasenotes");
+        feedProp.put(FEED_URL_HOME, "http://example.com/");
+        feedProp.put(FEED_FILE, "synthetic.atom");
+        feedProp.put(PAGE_PATTERN, "(.*)");
+        feedProp.put(ENTRY_MAX, "20");
+        feedProp.put(ENTRY_PATTERN, "(.*)");
+        feedProp.put(ENTRY_TITLE_GROUP, "1");
+        feedDefinition = FeedDefinition.parse(feedProp);
+
+        entries = new ArrayList<>(entryCount);
+        feed = new Abdera().newFeed();
+        feed.setId(feedDefinition.getId());
+        feed.setTitle(feedDefinition.getTitle());
+        feed.setSubtitle(feedDefinition.getDescription());
+        feed.setUpdated(new Date());
+        feed.addAuthor(feedDefinition.getAuthor());
+        feed.addLink(feedDefinition.getUrl(), "self");
+        feed.addLink(feedDefinition.getHomeUrl());
+
+        for (int i = 0; i < entryCount; i++) {
+            String link = "http://example.com/releasenotes#version-" + i;
+            String summary = "<ul> <li>Fixed bug #" + i + " in the cloud servers client.</li> "
+                    + "<li>Added support for feature " + i + ".</li> </ul>";
+            FeedEntry feedEntry = new FeedEntry(link, "Version 1." + i, link, summary, System.currentTimeMillis());
+            entries.add(feedEntry);
+
+            Entry entry = feed.addEntry();
+            entry.setId(link);
+            entry.setTitle(feedEntry.getTitle());
+            entry.setUpdated(new Date(feedEntry.getUpdated()));
+            entry.addLink(link);
+            entry.setSummaryAsHtml(summary);
+        }
+
+        feedFile = File.createTempFile("synthetic", ".atom");
+        atomWriter = new AtomWriter("0.1");
+    }
+
+    @TearDown
+    public void tearDown() {
+        feedFile.delete();
+    }
+
+    @Benchmark
+    public void prettyPrintXML() throws Exception {
+        try (FileWriter feedWriter = new FileWriter(feedFile)) {
+            feedWriter.write(prettyPrintXML(feed.toString()));
+        }
+    }
+
+    @Benchmark
+    public void atomWriter() throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(feedFile), 64 * 1024)) {
+            atomWriter.write(feedDefinition, entries, new Date(), out);
+        }
+    }
+
+    private static String prettyPrintXML(String xml) throws Exception {
+        InputSource src = new InputSource(new StringReader(xml));
+        Node document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(src).getDocumentElement();
+        DOMImplementationRegistry registry = DOMImplementationRegistry.newInstance();
+        DOMImplementationLS impl = (DOMImplementationLS) registry.getDOMImplementation("LS");
+
+        LSSerializer serializer = impl.createLSSerializer();
+        serializer.getDomConfig().setParameter("format-pretty-print", Boolean.TRUE);
+        serializer.getDomConfig().setParameter("xml-declaration", Boolean.TRUE);
+
+        LSOutput output = impl.createLSOutput();
+        output.setEncoding("UTF-8");
+
+        Writer writer = new StringWriter();
+        output.setCharacterStream(writer);
+        serializer.write(document, output);
+
+        return writer.toString();
+    }
+}
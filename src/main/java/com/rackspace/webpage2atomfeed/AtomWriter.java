@@ -0,0 +1,163 @@
+package com.rackspace.webpage2atomfeed;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Writes an indented, UTF-8 Atom document in a single streaming pass.
+ */
+class AtomWriter {
+    private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+    private static final String HISTORY_NS = "http://purl.org/syndication/history/1.0";
+    private static final String GENERATOR_URI = "https://github.com/rackerlabs/WebPageToAtomFeed";
+    private static final String INDENT = "  ";
+
+    private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+    private final String version;
+
+    AtomWriter(String version) {
+        this.version = version;
+    }
+
+    /**
+     * Write a feed.
+     *
+     * @param feed The feed being written.
+     * @param entries The entries of the feed, in the order they appear.
+     * @param updated When the feed was last updated.
+     * @param out Where to write the document. It is flushed but not closed.
+     */
+    void write(FeedDefinition feed, List<FeedEntry> entries, Date updated, OutputStream out) throws IOException {
+        write(feed, entries, updated, Collections.<String, String>emptyMap(), false, out);
+    }
+
+    /**
+     * Write a feed with paging links (RFC 5005).
+     *
+     * @param feed The feed being written.
+     * @param entries The entries of the feed, in the order they appear.
+     * @param updated When the feed was last updated.
+     * @param relToHref Links to other documents of the feed, such as prev-archive, by their rel.
+     * @param archive True to mark the document as an archive that won't change.
+     * @param out Where to write the document. It is flushed but not closed.
+     */
+    void write(FeedDefinition feed, List<FeedEntry> entries, Date updated, Map<String, String> relToHref,
+               boolean archive, OutputStream out) throws IOException {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        try {
+            XMLStreamWriter xml = outputFactory.createXMLStreamWriter(out, "UTF-8");
+
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("feed");
+            xml.writeDefaultNamespace(ATOM_NS);
+
+            if (archive) xml.writeNamespace("fh", HISTORY_NS);
+
+            writeElement(xml, 1, "id", feed.getId());
+            writeElement(xml, 1, "title", feed.getTitle());
+            writeElement(xml, 1, "subtitle", feed.getDescription());
+
+            indent(xml, 1);
+            xml.writeStartElement("generator");
+            xml.writeAttribute("uri", GENERATOR_URI);
+            xml.writeAttribute("version", version);
+            xml.writeCharacters("WebPageToAtomFeed");
+            xml.writeEndElement();
+
+            writeElement(xml, 1, "updated", dateFormat.format(updated));
+
+            if (feed.getAuthor() != null) {
+                indent(xml, 1);
+                xml.writeStartElement("author");
+                writeElement(xml, 2, "name", feed.getAuthor());
+                indent(xml, 1);
+                xml.writeEndElement();
+            }
+
+            writeLink(xml, 1, feed.getUrl(), "self");
+            writeLink(xml, 1, feed.getHomeUrl(), null);
+
+            for (Map.Entry<String, String> link : relToHref.entrySet()) {
+                writeLink(xml, 1, link.getValue(), link.getKey());
+            }
+
+            if (archive) {
+                indent(xml, 1);
+                xml.writeEmptyElement("fh", "archive", HISTORY_NS);
+            }
+
+            for (FeedEntry entry : entries) {
+                indent(xml, 1);
+                xml.writeStartElement("entry");
+
+                writeElement(xml, 2, "id", entry.getId());
+                writeElement(xml, 2, "title", entry.getTitle());
+                writeElement(xml, 2, "updated", dateFormat.format(new Date(entry.getUpdated())));
+                writeLink(xml, 2, entry.getLink(), null);
+
+                if (entry.getSummary() != null) {
+                    indent(xml, 2);
+                    xml.writeStartElement("summary");
+                    xml.writeAttribute("type", "html");
+                    xml.writeCharacters(entry.getSummary());
+                    xml.writeEndElement();
+                }
+
+                indent(xml, 1);
+                xml.writeEndElement();
+            }
+
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            xml.writeEndDocument();
+            xml.flush();
+            xml.close();
+        }
+        catch (XMLStreamException e) {
+            throw new IOException("Could not write Atom feed " + feed, e);
+        }
+
+        out.flush();
+    }
+
+    private void writeElement(XMLStreamWriter xml, int depth, String name, String text) throws XMLStreamException {
+        if (text == null) return;
+
+        indent(xml, depth);
+        xml.writeStartElement(name);
+        xml.writeCharacters(text);
+        xml.writeEndElement();
+    }
+
+    private void writeLink(XMLStreamWriter xml, int depth, String href, String rel) throws XMLStreamException {
+        if (href == null) return;
+
+        indent(xml, depth);
+        xml.writeEmptyElement("link");
+        xml.writeAttribute("href", href);
+
+        if (rel != null) xml.writeAttribute("rel", rel);
+    }
+
+    private void indent(XMLStreamWriter xml, int depth) throws XMLStreamException {
+        StringBuilder indent = new StringBuilder("\n");
+
+        for (int i = 0; i < depth; i++) indent.append(INDENT);
+
+        xml.writeCharacters(indent.toString());
+    }
+}
@@ -0,0 +1,103 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Stops fetching from hosts that keep failing.
+ * </p>
+ * After circuit.failure.threshold failures in a row a host's circuit opens and requests to it fail straight away. The
+ * circuit stays open for circuit.open.seconds, doubling with every further failure up to circuit.open.max.seconds.
+ * Once that time is up one trial request is let through: success closes the circuit and failure opens it again. The
+ * failure counts are kept in a file so a dead host is skipped across runs.
+ */
+class CircuitBreaker {
+    private static final String FAILURES = ".failures";
+    private static final String OPEN_UNTIL = ".open.until";
+
+    private final StateFile stateFile;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final long maxOpenMillis;
+    private final Set<String> hostsOnTrial = new HashSet<>();
+
+    /**
+     * @param stateFile Where to keep the state of each host.
+     * @param failureThreshold Failures in a row that open a host's circuit.
+     * @param openMillis How long the circuit first stays open.
+     * @param maxOpenMillis The longest the circuit stays open.
+     */
+    CircuitBreaker(StateFile stateFile, int failureThreshold, long openMillis, long maxOpenMillis) {
+        this.stateFile = stateFile;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.maxOpenMillis = maxOpenMillis;
+    }
+
+    /**
+     * @param host Host name.
+     * @return True if a request to the host may go ahead. Every allowed request must be followed by
+     * {@link #recordSuccess(String)}, {@link #recordFailure(String)} or {@link #cancelRequest(String)}.
+     */
+    synchronized boolean allowRequest(String host) {
+        long openUntil = getOpenUntil(host);
+
+        if (openUntil == 0) return true;
+        if (System.currentTimeMillis() < openUntil || hostsOnTrial.contains(host)) return false;
+
+        hostsOnTrial.add(host);
+
+        return true;
+    }
+
+    /**
+     * Give up an allowed request that was never sent, without counting it as a success or a failure.
+     */
+    synchronized void cancelRequest(String host) {
+        hostsOnTrial.remove(host);
+    }
+
+    synchronized void recordSuccess(String host) {
+        hostsOnTrial.remove(host);
+        stateFile.remove(host + FAILURES);
+        stateFile.remove(host + OPEN_UNTIL);
+    }
+
+    synchronized void recordFailure(String host) {
+        hostsOnTrial.remove(host);
+
+        int failures = getFailures(host) + 1;
+        stateFile.put(host + FAILURES, String.valueOf(failures));
+
+        if (failures >= failureThreshold) {
+            int doublings = Math.min(failures - failureThreshold, 30);
+            long openFor = Math.min(openMillis << doublings, maxOpenMillis);
+            stateFile.put(host + OPEN_UNTIL, String.valueOf(System.currentTimeMillis() + openFor));
+        }
+    }
+
+    /**
+     * @param host Host name.
+     * @return The number of failures in a row from the host.
+     */
+    synchronized int getFailures(String host) {
+        String failures = stateFile.get(host + FAILURES);
+
+        return failures == null ? 0 : Integer.valueOf(failures);
+    }
+
+    /**
+     * @param host Host name.
+     * @return When the host's circuit may next let a request through, or 0 if it's closed.
+     */
+    synchronized long getOpenUntil(String host) {
+        String openUntil = stateFile.get(host + OPEN_UNTIL);
+
+        return openUntil == null ? 0 : Long.valueOf(openUntil);
+    }
+
+    synchronized void save() throws IOException {
+        stateFile.save();
+    }
+}
@@ -0,0 +1,17 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.IOException;
+import java.util.Date;
+
+import static java.lang.String.format;
+
+/**
+ * A web page wasn't fetched because its host's {@link CircuitBreaker} is open.
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String host, long openUntil) {
+        super(format("Skipped %s until %s after repeated failures", host, new Date(openUntil)));
+    }
+}
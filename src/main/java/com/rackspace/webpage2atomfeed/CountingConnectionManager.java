@@ -0,0 +1,40 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pooling connection manager that counts how often a kept-alive connection is handed out (a hit) versus a
+ * connection that still has to be opened (a miss).
+ */
+class CountingConnectionManager extends MultiThreadedHttpConnectionManager {
+    private final AtomicLong poolHits = new AtomicLong();
+    private final AtomicLong poolMisses = new AtomicLong();
+
+    @Override
+    public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout)
+            throws ConnectionPoolTimeoutException {
+        HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+
+        if (connection.isOpen()) {
+            poolHits.incrementAndGet();
+        }
+        else {
+            poolMisses.incrementAndGet();
+        }
+
+        return connection;
+    }
+
+    long getPoolHits() {
+        return poolHits.get();
+    }
+
+    long getPoolMisses() {
+        return poolMisses.get();
+    }
+}
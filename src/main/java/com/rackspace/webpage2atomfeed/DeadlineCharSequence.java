@@ -0,0 +1,64 @@
+package com.rackspace.webpage2atomfeed;
+
+/**
+ * A CharSequence that throws once a deadline has passed. java.util.regex can't be interrupted, but it reads its
+ * input through charAt, so a Matcher over this gives up soon after the deadline instead of backtracking for minutes.
+ * </p>
+ * The clock is only read every few thousand characters to keep the cost on the matching loop low.
+ */
+class DeadlineCharSequence implements CharSequence {
+    private static final int CHECK_INTERVAL = 4096;
+
+    private final CharSequence chars;
+    private final long deadlineNanos;
+    private int untilCheck = CHECK_INTERVAL;
+
+    /**
+     * @param chars The characters to match against.
+     * @param deadlineNanos The System.nanoTime() after which reading fails.
+     */
+    DeadlineCharSequence(CharSequence chars, long deadlineNanos) {
+        this.chars = chars;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (--untilCheck == 0) {
+            untilCheck = CHECK_INTERVAL;
+
+            if (System.nanoTime() - deadlineNanos > 0) throw new DeadlineExceededException();
+        }
+
+        return chars.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return chars.length();
+    }
+
+    /**
+     * Matcher uses this for the groups it returns, so the result is a plain sequence without the deadline.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return chars.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return chars.toString();
+    }
+
+    /**
+     * Thrown out of charAt, and so out of the Matcher, once the deadline has passed.
+     */
+    static class DeadlineExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        DeadlineExceededException() {
+            super(null, null, false, false);
+        }
+    }
+}
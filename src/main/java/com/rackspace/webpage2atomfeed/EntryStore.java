@@ -0,0 +1,452 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The entries of one feed, kept next to the feed file so that a run only has to add its new entries instead of
+ * re-parsing the whole Atom document.
+ * </p>
+ * Entry bodies are appended to feed.file.entries. For every entry, feed.file.index gets a small record with its
+ * id, content hash, timestamp and body offset. Both files are only ever appended to, and the bodies are forced to
+ * disk before the records that point at them. An entry whose content changes gets a new record that supersedes the
+ * old one. Entries that fall out of the retention window (max entries and/or max age) are dropped from the index
+ * when it is loaded. Once the dropped records outnumber the live ones the files are compacted, which keeps the
+ * cost of trimming at O(1) per entry. A compaction interrupted by a crash is finished or thrown away on the next
+ * load, so the index always matches the data file.
+ * </p>
+ * Every id ever stored stays in a hash map with its content hash, so deciding whether an entry is new, changed or
+ * already seen is a single lookup. Compaction keeps a body-less record for the most recent ids that fell out of the
+ * retention window so they aren't added again while they're still on the web page.
+ */
+class EntryStore {
+    private static final int MIN_COMPACT_RECORDS = 32;
+    private static final int MAX_SEEN_RECORDS = 10000;
+
+    private final File dataFile;
+    private final File indexFile;
+    private final File tempDataFile;
+    private final File tempIndexFile;
+    private final File committedIndexFile;
+    private final int maxEntries;
+    private final long maxAgeMillis;
+    private final List<IndexRecord> liveRecords = new ArrayList<>();
+    private final Map<String, IndexRecord> idToRecord = new HashMap<>();
+    private int deadRecords;
+
+    /**
+     * Load the index of a feed's entries.
+     *
+     * @param feedFile The Atom file of the feed.
+     * @param maxEntries Keep at most this many entries, or 0 for no limit.
+     * @param maxAgeMillis Keep entries at most this old, or 0 for no limit.
+     */
+    EntryStore(File feedFile, int maxEntries, long maxAgeMillis) throws IOException {
+        this.dataFile = new File(feedFile.getPath() + ".entries");
+        this.indexFile = new File(feedFile.getPath() + ".index");
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+
+        this.tempDataFile = new File(dataFile.getPath() + ".tmp");
+        this.tempIndexFile = new File(indexFile.getPath() + ".tmp");
+        this.committedIndexFile = new File(indexFile.getPath() + ".new");
+
+        recoverCompaction();
+        loadIndex();
+        deadRecords += trim();
+    }
+
+    /**
+     * Finish a compaction that was committed but stopped before both files were replaced, or throw away one that
+     * wasn't committed, so the index never points into the wrong version of the data file.
+     */
+    private void recoverCompaction() throws IOException {
+        if (committedIndexFile.exists()) {
+            if (tempDataFile.exists()) FeedFiles.move(tempDataFile.toPath(), dataFile.toPath());
+
+            FeedFiles.move(committedIndexFile.toPath(), indexFile.toPath());
+        }
+
+        tempDataFile.delete();
+        tempIndexFile.delete();
+    }
+
+    boolean isEmpty() {
+        return liveRecords.isEmpty();
+    }
+
+    int size() {
+        return liveRecords.size();
+    }
+
+    /**
+     * @param id An entry id.
+     * @return True if an entry with this id has ever been stored, even if it has since been dropped.
+     */
+    boolean contains(String id) {
+        return idToRecord.containsKey(id);
+    }
+
+    /**
+     * @param id An entry id.
+     * @return True if an entry with this id has been stored and is still in the retention window.
+     */
+    boolean isLive(String id) {
+        IndexRecord record = idToRecord.get(id);
+
+        return record != null && record.live;
+    }
+
+    /**
+     * @param id An entry id.
+     * @return The content hash of the stored entry, or null if it has never been stored.
+     */
+    Long getContentHash(String id) {
+        IndexRecord record = idToRecord.get(id);
+
+        return record == null ? null : record.hash;
+    }
+
+    /**
+     * @return The id of the newest entry, or null if there are no entries.
+     */
+    String getNewestId() {
+        return liveRecords.isEmpty() ? null : liveRecords.get(liveRecords.size() - 1).id;
+    }
+
+    /**
+     * @return The ids of the entries in the retention window, newest first.
+     */
+    List<String> getIds() {
+        List<String> ids = new ArrayList<>(liveRecords.size());
+
+        for (int i = liveRecords.size() - 1; i >= 0; i--) ids.add(liveRecords.get(i).id);
+
+        return ids;
+    }
+
+    /**
+     * Read the entries in the retention window.
+     *
+     * @return The entries, newest first.
+     */
+    List<FeedEntry> getEntries() throws IOException {
+        return getEntries(liveRecords.size());
+    }
+
+    /**
+     * Read the newest entries in the retention window.
+     *
+     * @param max The most entries to read.
+     * @return The entries, newest first.
+     */
+    List<FeedEntry> getEntries(int max) throws IOException {
+        int count = Math.min(max, liveRecords.size());
+        List<FeedEntry> entries = new ArrayList<>(count);
+
+        if (count == 0) return entries;
+
+        try (RandomAccessFile data = new RandomAccessFile(dataFile, "r")) {
+            for (int i = liveRecords.size() - 1; i >= liveRecords.size() - count; i--) {
+                entries.add(readEntry(data, liveRecords.get(i)));
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Add entries to the store. An entry with the id of a stored entry replaces it.
+     *
+     * @param entries New or changed entries, oldest first.
+     */
+    void append(List<FeedEntry> entries) throws IOException {
+        if (entries.isEmpty()) return;
+
+        long offset = dataFile.length();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        List<IndexRecord> records = new ArrayList<>(entries.size());
+
+        for (FeedEntry entry : entries) {
+            byte[] body = toBytes(entry);
+            data.write(body);
+
+            IndexRecord record = new IndexRecord(entry.getId(), entry.getContentHash(), entry.getUpdated(),
+                    offset, body.length);
+            record.write(index);
+            records.add(record);
+            offset += body.length;
+        }
+
+        writeAndForce(dataFile, data, true);
+        writeAndForce(indexFile, indexBytes, true);
+
+        for (IndexRecord record : records) {
+            IndexRecord superseded = idToRecord.put(record.id, record);
+
+            if (superseded != null && superseded.live) {
+                superseded.live = false;
+                liveRecords.remove(superseded);
+                deadRecords++;
+            }
+
+            record.live = true;
+            liveRecords.add(record);
+        }
+
+        deadRecords += trim();
+
+        if (deadRecords > Math.max(liveRecords.size(), MIN_COMPACT_RECORDS)) compact();
+    }
+
+    /**
+     * Read the index. A run that stopped part way through an append can leave a partial record at the end of the
+     * index, or records whose entry bodies never reached the data file. The index is cut back to the last record
+     * that is whole and has its body.
+     */
+    private void loadIndex() throws IOException {
+        if (!indexFile.exists()) return;
+
+        long dataLength = dataFile.length();
+        long validLength = 0;
+        List<IndexRecord> records = new ArrayList<>();
+
+        try (DataInputStream index = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            while (true) {
+                IndexRecord record;
+
+                try {
+                    record = IndexRecord.read(index);
+                }
+                catch (EOFException e) {
+                    break;
+                }
+
+                if (record.hasBody() && record.offset + record.length > dataLength) break;
+
+                records.add(record);
+                validLength += record.getSize();
+            }
+        }
+
+        for (IndexRecord record : records) idToRecord.put(record.id, record);
+
+        for (IndexRecord record : records) {
+            if (!record.hasBody()) continue;
+
+            if (idToRecord.get(record.id) == record) {
+                record.live = true;
+                liveRecords.add(record);
+            }
+            else {
+                deadRecords++;
+            }
+        }
+
+        if (validLength < indexFile.length()) {
+            try (RandomAccessFile index = new RandomAccessFile(indexFile, "rw")) {
+                index.setLength(validLength);
+            }
+        }
+    }
+
+    private int trim() {
+        int keep = liveRecords.size();
+
+        if (maxEntries > 0) keep = Math.min(keep, maxEntries);
+
+        if (maxAgeMillis > 0) {
+            long oldest = System.currentTimeMillis() - maxAgeMillis;
+            int young = 0;
+
+            for (int i = liveRecords.size() - 1; i >= 0 && liveRecords.get(i).timestamp >= oldest; i--) young++;
+
+            keep = Math.min(keep, young);
+        }
+
+        int drop = liveRecords.size() - keep;
+
+        if (drop > 0) {
+            List<IndexRecord> dropped = liveRecords.subList(0, drop);
+
+            for (IndexRecord record : dropped) record.live = false;
+
+            dropped.clear();
+        }
+
+        return drop;
+    }
+
+    /**
+     * Rewrite the files with only the live entries. The new files are written to temp files and forced to disk, and
+     * renaming the new index to feed.file.index.new commits the compaction before either file is replaced. See
+     * {@link #recoverCompaction()}.
+     */
+    private void compact() throws IOException {
+        List<FeedEntry> entries = getEntries();
+        Collections.reverse(entries);
+
+        List<IndexRecord> seenRecords = new ArrayList<>();
+
+        for (IndexRecord record : idToRecord.values()) {
+            if (!record.live) seenRecords.add(record);
+        }
+
+        Collections.sort(seenRecords, new Comparator<IndexRecord>() {
+            @Override
+            public int compare(IndexRecord record1, IndexRecord record2) {
+                return Long.compare(record2.timestamp, record1.timestamp);
+            }
+        });
+
+        if (seenRecords.size() > MAX_SEEN_RECORDS) {
+            for (IndexRecord record : seenRecords.subList(MAX_SEEN_RECORDS, seenRecords.size())) {
+                idToRecord.remove(record.id);
+            }
+
+            seenRecords.subList(MAX_SEEN_RECORDS, seenRecords.size()).clear();
+        }
+
+        List<IndexRecord> records = new ArrayList<>(entries.size());
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        long offset = 0;
+
+        for (int i = seenRecords.size() - 1; i >= 0; i--) {
+            IndexRecord seen = seenRecords.get(i);
+            new IndexRecord(seen.id, seen.hash, seen.timestamp, -1, -1).write(index);
+        }
+
+        for (int i = 0; i < entries.size(); i++) {
+            byte[] body = toBytes(entries.get(i));
+            data.write(body);
+
+            IndexRecord live = liveRecords.get(i);
+            IndexRecord record = new IndexRecord(live.id, live.hash, live.timestamp, offset, body.length);
+            record.write(index);
+            record.live = true;
+            records.add(record);
+            offset += body.length;
+        }
+
+        writeAndForce(tempDataFile, data, false);
+        writeAndForce(tempIndexFile, indexBytes, false);
+        FeedFiles.move(tempIndexFile.toPath(), committedIndexFile.toPath());
+        FeedFiles.move(tempDataFile.toPath(), dataFile.toPath());
+        FeedFiles.move(committedIndexFile.toPath(), indexFile.toPath());
+
+        liveRecords.clear();
+        liveRecords.addAll(records);
+
+        for (IndexRecord record : records) idToRecord.put(record.id, record);
+
+        deadRecords = 0;
+    }
+
+    /**
+     * Write bytes to a file and force them to disk before returning.
+     */
+    private static void writeAndForce(File file, ByteArrayOutputStream bytes, boolean append) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, append)) {
+            bytes.writeTo(out);
+            out.getChannel().force(true);
+        }
+    }
+
+    private static byte[] toBytes(FeedEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeString(out, entry.getId());
+            writeString(out, entry.getTitle());
+            writeString(out, entry.getLink());
+            writeString(out, entry.getSummary());
+            out.writeLong(entry.getUpdated());
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static FeedEntry readEntry(RandomAccessFile data, IndexRecord record) throws IOException {
+        byte[] body = new byte[record.length];
+        data.seek(record.offset);
+        data.readFully(body);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+
+        return new FeedEntry(readString(in), readString(in), readString(in), readString(in), in.readLong());
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        }
+        else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+
+        if (length == -1) return null;
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Where an entry lives in the data file. Entries that were dropped but are still remembered have no body.
+     */
+    private static class IndexRecord {
+        private final String id;
+        private final long hash;
+        private final long timestamp;
+        private final long offset;
+        private final int length;
+        private boolean live;
+
+        private IndexRecord(String id, long hash, long timestamp, long offset, int length) {
+            this.id = id;
+            this.hash = hash;
+            this.timestamp = timestamp;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private static IndexRecord read(DataInputStream in) throws IOException {
+            int idLength = in.readInt();
+            byte[] id = new byte[idLength];
+            in.readFully(id);
+
+            return new IndexRecord(new String(id, StandardCharsets.UTF_8), in.readLong(), in.readLong(),
+                    in.readLong(), in.readInt());
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(idBytes.length);
+            out.write(idBytes);
+            out.writeLong(hash);
+            out.writeLong(timestamp);
+            out.writeLong(offset);
+            out.writeInt(length);
+        }
+
+        private boolean hasBody() {
+            return length >= 0;
+        }
+
+        private long getSize() {
+            return 4 + id.getBytes(StandardCharsets.UTF_8).length + 8 + 8 + 8 + 4;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The archive documents of a paged feed (RFC 5005). The head feed file keeps the entries that aren't archived yet,
+ * and once there are more than a page of them the oldest roll into numbered archive files next to it, oldest first:
+ * pyrax.atom has pyrax-archive-1.atom, pyrax-archive-2.atom and so on. Each archive links to the one before it and to
+ * the head, and the head links to the newest archive, so an archive never has to be rendered again once it is
+ * written. An archived entry that changes is reopened: it goes back into the head and later into a new archive.
+ * </p>
+ * Which entries went into which archive is kept in feed.file.archived, one line per entry, appended to as archives
+ * are written. A reopened entry gets a line with archive 0.
+ */
+class FeedArchives {
+    private final File feedFile;
+    private final File stateFile;
+    private final Map<String, Integer> idToPage = new HashMap<>();
+    private int pageCount;
+
+    /**
+     * Load the archives of a feed.
+     *
+     * @param feedFile The head Atom file of the feed.
+     */
+    FeedArchives(File feedFile) throws IOException {
+        this.feedFile = feedFile;
+        this.stateFile = new File(feedFile.getPath() + ".archived");
+
+        if (!stateFile.exists()) return;
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile),
+                StandardCharsets.UTF_8))) {
+            String line;
+
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+
+                if (tab == -1) continue;
+
+                int page = Integer.parseInt(line.substring(0, tab));
+
+                if (page == 0) {
+                    idToPage.remove(line.substring(tab + 1));
+                }
+                else {
+                    idToPage.put(line.substring(tab + 1), page);
+                    pageCount = Math.max(pageCount, page);
+                }
+            }
+        }
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @param id An entry id.
+     * @return True if the entry is in an archive.
+     */
+    boolean contains(String id) {
+        return idToPage.containsKey(id);
+    }
+
+    /**
+     * @param page Archive number, from 1.
+     * @return The archive file.
+     */
+    File getPageFile(int page) {
+        String name = feedFile.getName();
+        int dot = name.lastIndexOf('.');
+        String pageName = dot > 0 ? name.substring(0, dot) + "-archive-" + page + name.substring(dot)
+                : name + "-archive-" + page;
+
+        return new File(feedFile.getAbsoluteFile().getParentFile(), pageName);
+    }
+
+    /**
+     * @return The archive files written so far, oldest first.
+     */
+    List<File> getPageFiles() {
+        List<File> pageFiles = new ArrayList<>(pageCount);
+
+        for (int page = 1; page <= pageCount; page++) pageFiles.add(getPageFile(page));
+
+        return pageFiles;
+    }
+
+    /**
+     * @param entries Entries of the feed, newest first.
+     * @return The entries that aren't in an archive yet, oldest first.
+     */
+    List<FeedEntry> getUnarchived(List<FeedEntry> entries) {
+        List<FeedEntry> unarchived = new ArrayList<>();
+
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (!contains(entries.get(i).getId())) unarchived.add(entries.get(i));
+        }
+
+        return unarchived;
+    }
+
+    /**
+     * Put archived entries that have changed back with the unarchived ones.
+     *
+     * @param entries Changed entries, archived or not.
+     */
+    void reopen(List<FeedEntry> entries) throws IOException {
+        List<FeedEntry> archived = new ArrayList<>();
+
+        for (FeedEntry entry : entries) {
+            if (contains(entry.getId())) archived.add(entry);
+        }
+
+        if (!archived.isEmpty()) append(0, archived);
+    }
+
+    /**
+     * Record that the next archive has been written. Call it once the archive file is in place, so a run that stops
+     * in between writes the same archive again.
+     *
+     * @param entries The entries of the archive.
+     * @return The number of the archive.
+     */
+    int add(List<FeedEntry> entries) throws IOException {
+        int page = pageCount + 1;
+        append(page, entries);
+        pageCount = page;
+
+        return page;
+    }
+
+    private void append(int page, List<FeedEntry> entries) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(stateFile, true),
+                StandardCharsets.UTF_8))) {
+            for (FeedEntry entry : entries) out.write(page + "\t" + entry.getId() + "\n");
+        }
+
+        for (FeedEntry entry : entries) {
+            if (page == 0) {
+                idToPage.remove(entry.getId());
+            }
+            else {
+                idToPage.put(entry.getId(), page);
+            }
+        }
+    }
+}
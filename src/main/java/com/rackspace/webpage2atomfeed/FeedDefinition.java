@@ -0,0 +1,295 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.rackspace.webpage2atomfeed.FeedProperty.*;
+import static java.lang.String.format;
+
+/**
+ * Everything needed to turn one web page into an Atom feed, parsed and validated once from the feed properties.
+ * </p>
+ * Instances are immutable and safe to share between threads.
+ */
+public final class FeedDefinition {
+    /**
+     * Group index used when an optional entry group isn't configured.
+     */
+    public static final int NO_GROUP = -1;
+
+    private final String id;
+    private final String title;
+    private final String description;
+    private final String author;
+    private final String url;
+    private final String homeUrl;
+    private final String file;
+    private final Pattern pagePattern;
+    private final int entryMax;
+    private final Pattern entryPattern;
+    private final int entryTitleGroup;
+    private final int entryUrlGroup;
+    private final int entryContentGroup;
+    private final Selector pageSelector;
+    private final Selector entrySelector;
+    private final Selector entryTitleSelector;
+    private final Selector entryLinkSelector;
+    private final Selector entryContentSelector;
+    private final int pollInterval;
+    private final List<String> patternWarnings;
+
+    private FeedDefinition(Map<FeedProperty, String> feedProp) {
+        title = getRequired(feedProp, FEED_TITLE);
+        url = getRequired(feedProp, FEED_URL);
+        file = getRequired(feedProp, FEED_FILE);
+        id = feedProp.get(FEED_ID) == null ? url : feedProp.get(FEED_ID);
+        description = feedProp.get(FEED_DESCRIPTION);
+        author = feedProp.get(FEED_AUTHOR);
+        homeUrl = feedProp.get(FEED_URL_HOME);
+
+        entryMax = getInt(feedProp, ENTRY_MAX, 1, Integer.MAX_VALUE);
+        pollInterval = isBlank(feedProp.get(POLL_INTERVAL)) ? 0 : getInt(feedProp, POLL_INTERVAL, 1, Integer.MAX_VALUE);
+        List<String> warnings = new ArrayList<>();
+
+        if (isBlank(feedProp.get(ENTRY_SELECTOR))) {
+            pagePattern = getPattern(feedProp, PAGE_PATTERN);
+            entryPattern = getPattern(feedProp, ENTRY_PATTERN);
+
+            if (pagePattern.matcher("").groupCount() < 1) {
+                throw new IllegalArgumentException(format("Feed %s: %s must have a capturing group",
+                        title, PAGE_PATTERN));
+            }
+
+            int groupCount = entryPattern.matcher("").groupCount();
+            entryTitleGroup = getInt(feedProp, ENTRY_TITLE_GROUP, 0, groupCount);
+            entryUrlGroup = isBlank(feedProp.get(ENTRY_URL_GROUP)) ? NO_GROUP
+                    : getInt(feedProp, ENTRY_URL_GROUP, 0, groupCount);
+            entryContentGroup = isBlank(feedProp.get(ENTRY_CONTENT_GROUP)) ? NO_GROUP
+                    : getInt(feedProp, ENTRY_CONTENT_GROUP, 0, groupCount);
+            pageSelector = entrySelector = entryTitleSelector = entryLinkSelector = entryContentSelector = null;
+
+            for (String warning : PatternLinter.lint(pagePattern.pattern())) {
+                warnings.add(PAGE_PATTERN + ": " + warning);
+            }
+
+            for (String warning : PatternLinter.lint(entryPattern.pattern())) {
+                warnings.add(ENTRY_PATTERN + ": " + warning);
+            }
+        }
+        else {
+            if (!isBlank(feedProp.get(PAGE_PATTERN)) || !isBlank(feedProp.get(ENTRY_PATTERN))) {
+                throw new IllegalArgumentException(format("Feed %s: set either %s or %s, not both",
+                        title, ENTRY_PATTERN, ENTRY_SELECTOR));
+            }
+
+            pagePattern = entryPattern = null;
+            entryTitleGroup = entryUrlGroup = entryContentGroup = NO_GROUP;
+            pageSelector = getSelector(feedProp, PAGE_SELECTOR, false);
+            entrySelector = getSelector(feedProp, ENTRY_SELECTOR, false);
+            entryTitleSelector = getSelector(feedProp, ENTRY_TITLE_SELECTOR, true);
+            entryLinkSelector = getSelector(feedProp, ENTRY_LINK_SELECTOR, true);
+            entryContentSelector = getSelector(feedProp, ENTRY_CONTENT_SELECTOR, true);
+        }
+
+        patternWarnings = Collections.unmodifiableList(warnings);
+    }
+
+    /**
+     * Parse and validate the properties of one feed.
+     *
+     * @param feedProp A Map of feed properties to values, as returned by getFeedProps.
+     * @return The feed definition.
+     * @throws IllegalArgumentException if a property is missing or invalid.
+     */
+    public static FeedDefinition parse(Map<FeedProperty, String> feedProp) {
+        return new FeedDefinition(feedProp);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getHomeUrl() {
+        return homeUrl;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * @return The page pattern, or null if the feed uses selectors.
+     */
+    public Pattern getPagePattern() {
+        return pagePattern;
+    }
+
+    public int getEntryMax() {
+        return entryMax;
+    }
+
+    /**
+     * @return The entry pattern, or null if the feed uses selectors.
+     */
+    public Pattern getEntryPattern() {
+        return entryPattern;
+    }
+
+    public int getEntryTitleGroup() {
+        return entryTitleGroup;
+    }
+
+    /**
+     * @return The group with the entry link or {@link #NO_GROUP} to link every entry to the feed URL.
+     */
+    public int getEntryUrlGroup() {
+        return entryUrlGroup;
+    }
+
+    /**
+     * @return The group with the entry content or {@link #NO_GROUP} for entries without content.
+     */
+    public int getEntryContentGroup() {
+        return entryContentGroup;
+    }
+
+    /**
+     * @return The selector of the element the entries are in, or null to look for entries in the whole page.
+     */
+    Selector getPageSelector() {
+        return pageSelector;
+    }
+
+    /**
+     * @return The selector of the element of each entry, or null if the feed uses the entry pattern.
+     */
+    Selector getEntrySelector() {
+        return entrySelector;
+    }
+
+    /**
+     * @return The selector of the title of each entry, or null to use the text of the entry element.
+     */
+    Selector getEntryTitleSelector() {
+        return entryTitleSelector;
+    }
+
+    /**
+     * @return The selector of the link of each entry, or null to link every entry to the feed URL.
+     */
+    Selector getEntryLinkSelector() {
+        return entryLinkSelector;
+    }
+
+    /**
+     * @return The selector of the content of each entry, or null for entries without content.
+     */
+    Selector getEntryContentSelector() {
+        return entryContentSelector;
+    }
+
+    /**
+     * @return Seconds between polls of the web page in daemon mode, or 0 to use daemon.poll.interval.
+     */
+    public int getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * @return The risky constructs {@link PatternLinter} found in the page and entry patterns, if any.
+     */
+    public List<String> getPatternWarnings() {
+        return patternWarnings;
+    }
+
+    @Override
+    public String toString() {
+        return title;
+    }
+
+    private String getRequired(Map<FeedProperty, String> feedProp, FeedProperty property) {
+        String value = feedProp.get(property);
+
+        if (isBlank(value)) {
+            throw new IllegalArgumentException(format("Feed %s: %s is required", feedProp.get(FEED_TITLE), property));
+        }
+
+        return value;
+    }
+
+    private Pattern getPattern(Map<FeedProperty, String> feedProp, FeedProperty property) {
+        String regex = getRequired(feedProp, property);
+
+        try {
+            return Pattern.compile(regex);
+        }
+        catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException(format("Feed %s: %s is not a valid regular expression%n%s",
+                    title, property, e.getMessage()), e);
+        }
+    }
+
+    private Selector getSelector(Map<FeedProperty, String> feedProp, FeedProperty property, boolean siblingAllowed) {
+        String value = feedProp.get(property);
+
+        if (isBlank(value)) return null;
+
+        Selector selector;
+
+        try {
+            selector = Selector.parse(value);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(format("Feed %s: %s: %s", title, property, e.getMessage()), e);
+        }
+
+        if (selector.isSibling() && !siblingAllowed) {
+            throw new IllegalArgumentException(format("Feed %s: %s can't start with '+'", title, property));
+        }
+
+        return selector;
+    }
+
+    private int getInt(Map<FeedProperty, String> feedProp, FeedProperty property, int min, int max) {
+        String value = getRequired(feedProp, property);
+        int intValue;
+
+        try {
+            intValue = Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException(format("Feed %s: %s=%s is not a number", title, property, value), e);
+        }
+
+        if (intValue < min || intValue > max) {
+            throw new IllegalArgumentException(format("Feed %s: %s=%s must be between %d and %d",
+                    title, property, value, min, max));
+        }
+
+        return intValue;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,83 @@
+package com.rackspace.webpage2atomfeed;
+
+/**
+ * One entry of a feed. Instances are immutable.
+ */
+public final class FeedEntry {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String id;
+    private final String title;
+    private final String link;
+    private final String summary;
+    private final long updated;
+
+    /**
+     * @param id Entry id.
+     * @param title Entry title.
+     * @param link Entry link.
+     * @param summary Entry summary as HTML, or null.
+     * @param updated When the entry was last updated, in milliseconds since the epoch.
+     */
+    public FeedEntry(String id, String title, String link, String summary, long updated) {
+        this.id = id;
+        this.title = title;
+        this.link = link;
+        this.summary = summary;
+        this.updated = updated;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getLink() {
+        return link;
+    }
+
+    /**
+     * @return The summary as HTML, or null.
+     */
+    public String getSummary() {
+        return summary;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the title, link and summary. Entries with the same content have the same hash no
+     * matter when they were updated.
+     *
+     * @return The content hash.
+     */
+    public long getContentHash() {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, title);
+        hash = hash(hash, link);
+        hash = hash(hash, summary);
+
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+            }
+        }
+
+        return (hash ^ 0xffff) * FNV_PRIME;
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
@@ -0,0 +1,191 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Crash safe file handling for feed files that are being served while they're rewritten.
+ */
+final class FeedFiles {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private FeedFiles() {
+    }
+
+    /**
+     * Something to write to a file.
+     */
+    interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Replace a file without readers ever seeing it half written. The content goes to a temp file in the same
+     * directory, is forced to disk and is then moved over the target in one step.
+     *
+     * @param target The file to replace.
+     * @param content What to write.
+     */
+    static void publish(File target, Content content) throws IOException {
+        Path dir = getDir(target);
+        Path tempFile = createTempFile(dir, target);
+
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, WRITE)) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+                content.writeTo(out);
+                out.flush();
+                channel.force(true);
+            }
+
+            move(tempFile, target.toPath());
+            forceDir(dir);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Create the temp file for a new version of a file. Unlike {@link Files#createTempFile} it isn't private to the
+     * owner: it gets the permissions of the file it replaces, or the umask default for a new file, so whatever serves
+     * the file can still read it after the move.
+     */
+    private static Path createTempFile(Path dir, File target) throws IOException {
+        while (true) {
+            Path tempFile = dir.resolve("." + target.getName() + "." +
+                    Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE) + ".tmp");
+
+            try {
+                Files.createFile(tempFile);
+            }
+            catch (FileAlreadyExistsException e) {
+                continue;
+            }
+
+            if (target.exists()) {
+                try {
+                    Files.setPosixFilePermissions(tempFile, Files.getPosixFilePermissions(target.toPath()));
+                }
+                catch (UnsupportedOperationException e) {
+                    // not a POSIX file system, the new file gets the default permissions
+                }
+            }
+
+            return tempFile;
+        }
+    }
+
+    /**
+     * Move a file over another, atomically where the file system allows it.
+     */
+    static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, ATOMIC_MOVE, REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Take the lock that guards every change to a feed's files, across processes as well as threads.
+     *
+     * @param target The feed file.
+     * @return The lock, to be closed when done, or null if another run holds it.
+     */
+    static Lock tryLock(File target) throws IOException {
+        FileChannel channel = openLockFile(target);
+        FileLock fileLock = null;
+
+        try {
+            fileLock = channel.tryLock();
+        }
+        catch (OverlappingFileLockException e) {
+            // held by another thread of this process
+        }
+        finally {
+            if (fileLock == null) channel.close();
+        }
+
+        return fileLock == null ? null : new Lock(channel, fileLock);
+    }
+
+    /**
+     * Wait for the lock of a file, as taken by {@link #tryLock(File)}. Threads of one process must not wait for the
+     * same lock at once.
+     *
+     * @param target The file.
+     * @return The lock, to be closed when done.
+     */
+    static Lock lock(File target) throws IOException {
+        FileChannel channel = openLockFile(target);
+
+        try {
+            return new Lock(channel, channel.lock());
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static FileChannel openLockFile(File target) throws IOException {
+        return FileChannel.open(getDir(target).resolve(target.getName() + ".lock"), CREATE, WRITE);
+    }
+
+    private static Path getDir(File target) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Could not create directory " + dir);
+
+        return dir.toPath();
+    }
+
+    /**
+     * Makes the rename durable. Not every platform can open a directory, in which case this does nothing.
+     */
+    private static void forceDir(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            // the rename is still atomic, just not yet durable
+        }
+    }
+
+    /**
+     * A held feed lock.
+     */
+    static final class Lock implements Closeable {
+        private final FileChannel channel;
+        private final FileLock fileLock;
+
+        private Lock(FileChannel channel, FileLock fileLock) {
+            this.channel = channel;
+            this.fileLock = fileLock;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                fileLock.release();
+            }
+            finally {
+                channel.close();
+            }
+        }
+    }
+}
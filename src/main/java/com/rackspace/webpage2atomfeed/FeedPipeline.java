@@ -0,0 +1,224 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Moves each feed through fetch, parse and write stages on its own, so a feed is written as soon as its page has
+ * been parsed instead of waiting for the slowest page of the run.
+ * </p>
+ * Fetching and writing are I/O bound and parsing is CPU bound, so each stage has its own pool. Stages are joined by
+ * bounded queues: when parsing or writing falls behind, the stage before it waits rather than holding more pages in
+ * memory. A feed that fails doesn't stop the others.
+ * </p>
+ * With virtual threads every task gets a thread of its own. Fetching is then limited only by the per-host limit, and
+ * parsing and writing by their thread counts.
+ */
+class FeedPipeline {
+    private final WebPageToAtomFeed webPageToAtomFeed;
+    private final Stage fetchStage;
+    private final Stage parseStage;
+    private final Stage writeStage;
+    private final List<Throwable> failures = new ArrayList<>();
+    private CountDownLatch remainingFeeds;
+
+    /**
+     * @param webPageToAtomFeed Does the work of each stage.
+     * @param fetchThreads Number of threads fetching web pages.
+     * @param parseThreads Number of threads parsing web pages.
+     * @param writeThreads Number of threads writing feed files.
+     * @param queueSize Number of feeds that may wait for each stage.
+     */
+    FeedPipeline(WebPageToAtomFeed webPageToAtomFeed, int fetchThreads, int parseThreads, int writeThreads,
+                 int queueSize) {
+        this(webPageToAtomFeed, new Stage(fetchThreads, queueSize), new Stage(parseThreads, queueSize),
+                new Stage(writeThreads, queueSize));
+    }
+
+    private FeedPipeline(WebPageToAtomFeed webPageToAtomFeed, Stage fetchStage, Stage parseStage, Stage writeStage) {
+        this.webPageToAtomFeed = webPageToAtomFeed;
+        this.fetchStage = fetchStage;
+        this.parseStage = parseStage;
+        this.writeStage = writeStage;
+    }
+
+    /**
+     * A pipeline that runs every task on a new virtual thread.
+     *
+     * @param webPageToAtomFeed Does the work of each stage.
+     * @param parseThreads Number of web pages parsed at once.
+     * @param writeThreads Number of feed files written at once.
+     */
+    static FeedPipeline withVirtualThreads(WebPageToAtomFeed webPageToAtomFeed, int parseThreads, int writeThreads) {
+        return new FeedPipeline(webPageToAtomFeed, new Stage(VirtualThreads.newPerTaskExecutor(), Integer.MAX_VALUE),
+                new Stage(VirtualThreads.newPerTaskExecutor(), parseThreads),
+                new Stage(VirtualThreads.newPerTaskExecutor(), writeThreads));
+    }
+
+    /**
+     * Generate the feeds and wait for all of them to finish.
+     *
+     * @param feeds A List of feeds.
+     * @return The failures of the feeds that failed.
+     */
+    List<Throwable> run(List<FeedDefinition> feeds) throws InterruptedException {
+        remainingFeeds = new CountDownLatch(feeds.size());
+
+        try {
+            for (FeedDefinition feed : feeds) fetchStage.submit(new FetchTask(feed));
+
+            remainingFeeds.await();
+        }
+        finally {
+            fetchStage.shutdown();
+            parseStage.shutdown();
+            writeStage.shutdown();
+        }
+
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    private void done(FeedDefinition feed) {
+        webPageToAtomFeed.feedSucceeded(feed);
+        remainingFeeds.countDown();
+    }
+
+    private void skip(FeedDefinition feed) {
+        webPageToAtomFeed.feedSkipped(feed);
+        remainingFeeds.countDown();
+    }
+
+    private void fail(FeedDefinition feed, Throwable t) {
+        webPageToAtomFeed.feedFailed(feed, t);
+
+        synchronized (failures) {
+            failures.add(t);
+        }
+
+        remainingFeeds.countDown();
+    }
+
+    private class FetchTask implements Runnable {
+        private final FeedDefinition feed;
+
+        private FetchTask(FeedDefinition feed) {
+            this.feed = feed;
+        }
+
+        @Override
+        public void run() {
+            try {
+                String pageSource = webPageToAtomFeed.getWebPage(feed);
+
+                if (pageSource == null) {
+                    done(feed);
+                }
+                else {
+                    parseStage.submit(new ParseTask(feed, pageSource));
+                }
+            }
+            catch (Throwable t) {
+                fail(feed, t);
+            }
+        }
+    }
+
+    private class ParseTask implements Runnable {
+        private final FeedDefinition feed;
+        private final String pageSource;
+
+        private ParseTask(FeedDefinition feed, String pageSource) {
+            this.feed = feed;
+            this.pageSource = pageSource;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<FeedEntry> entriesFromWebPage = webPageToAtomFeed.getFeed(feed, pageSource);
+
+                if (entriesFromWebPage == null) {
+                    done(feed);
+                }
+                else {
+                    writeStage.submit(new WriteTask(feed, entriesFromWebPage));
+                }
+            }
+            catch (Throwable t) {
+                fail(feed, t);
+            }
+        }
+    }
+
+    private class WriteTask implements Runnable {
+        private final FeedDefinition feed;
+        private final List<FeedEntry> entriesFromWebPage;
+
+        private WriteTask(FeedDefinition feed, List<FeedEntry> entriesFromWebPage) {
+            this.feed = feed;
+            this.entriesFromWebPage = entriesFromWebPage;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (webPageToAtomFeed.writeFeed(feed, entriesFromWebPage)) {
+                    done(feed);
+                }
+                else {
+                    skip(feed);
+                }
+            }
+            catch (Throwable t) {
+                fail(feed, t);
+            }
+        }
+    }
+
+    /**
+     * An executor with a bounded number of slots for running and waiting tasks. Submitting blocks while they are all
+     * taken.
+     */
+    private static class Stage {
+        private final ExecutorService executor;
+        private final Semaphore slots;
+
+        private Stage(int threads, int queueSize) {
+            this(Executors.newFixedThreadPool(threads), threads + queueSize);
+        }
+
+        private Stage(ExecutorService executor, int slots) {
+            this.executor = executor;
+            this.slots = new Semaphore(slots);
+        }
+
+        private void submit(final Runnable task) throws InterruptedException {
+            slots.acquire();
+
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        }
+                        finally {
+                            slots.release();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                slots.release();
+                throw e;
+            }
+        }
+
+        private void shutdown() {
+            executor.shutdownNow();
+        }
+    }
+}
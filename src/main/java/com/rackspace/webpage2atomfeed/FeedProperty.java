@@ -13,7 +13,13 @@ public enum FeedProperty {
     ENTRY_PATTERN("entry.pattern"),
     ENTRY_TITLE_GROUP("entry.title.group"),
     ENTRY_URL_GROUP("entry.url.group"),
-    ENTRY_CONTENT_GROUP("entry.content.group");
+    ENTRY_CONTENT_GROUP("entry.content.group"),
+    PAGE_SELECTOR("page.selector"),
+    ENTRY_SELECTOR("entry.selector"),
+    ENTRY_TITLE_SELECTOR("entry.title.selector"),
+    ENTRY_LINK_SELECTOR("entry.link.selector"),
+    ENTRY_CONTENT_SELECTOR("entry.content.selector"),
+    POLL_INTERVAL("poll.interval");
     private final String text;
 
     private FeedProperty(final String text) {
@@ -0,0 +1,255 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.lang.String.format;
+
+/**
+ * Keeps one warm process generating feeds, each on its own poll interval.
+ * </p>
+ * First polls are spread across the poll interval and every later poll is moved by a random jitter, so feeds on the
+ * same interval don't all fire at once. A feed that fails backs off exponentially up to daemon.backoff.max.seconds.
+ * The properties file is checked for changes every daemon.reload.check.seconds and added, removed or changed feeds
+ * are rescheduled. Other settings take effect on restart.
+ */
+class FeedScheduler {
+    private final Logger logger = LoggerFactory.getLogger(FeedScheduler.class);
+    private final WebPageToAtomFeed webPageToAtomFeed;
+    private final File propsFile;
+    private final ScheduledExecutorService executor;
+    private final Random random = new Random();
+    private final Map<String, ScheduledFeed> titleToScheduledFeed = new HashMap<>();
+    private final long defaultPollIntervalMillis;
+    private final double jitter;
+    private final long maxBackoffMillis;
+    private final long reloadCheckMillis;
+    private long propsLastModified;
+
+    FeedScheduler(WebPageToAtomFeed webPageToAtomFeed, File propsFile, Properties props) {
+        this.webPageToAtomFeed = webPageToAtomFeed;
+        this.propsFile = propsFile;
+
+        defaultPollIntervalMillis = TimeUnit.SECONDS.toMillis(
+                Long.valueOf(props.getProperty("daemon.poll.interval.seconds", "900")));
+        jitter = Double.valueOf(props.getProperty("daemon.jitter", "0.1"));
+        maxBackoffMillis = TimeUnit.SECONDS.toMillis(
+                Long.valueOf(props.getProperty("daemon.backoff.max.seconds", "21600")));
+        reloadCheckMillis = TimeUnit.SECONDS.toMillis(
+                Long.valueOf(props.getProperty("daemon.reload.check.seconds", "10")));
+        executor = Executors.newScheduledThreadPool(Integer.valueOf(props.getProperty("fetch.threads", "8")));
+    }
+
+    /**
+     * Schedule all of the feeds and block until the process is shut down.
+     */
+    void run() throws InterruptedException {
+        Runtime.getRuntime().addShutdownHook(newShutdownHook());
+
+        logger.info("BEGIN Daemon mode");
+
+        start();
+
+        while (!executor.awaitTermination(1, TimeUnit.DAYS)) {
+            // keep waiting until stop() is called
+        }
+
+        logger.info("END Daemon mode");
+    }
+
+    /**
+     * @return A thread that stops the scheduler when the process is shut down.
+     */
+    Thread newShutdownHook() {
+        return new Thread() {
+            @Override
+            public void run() {
+                FeedScheduler.this.stop();
+            }
+        };
+    }
+
+    /**
+     * Schedule all of the feeds and start watching the properties file.
+     */
+    void start() {
+        reloadIfChanged();
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reloadIfChanged();
+            }
+        }, reloadCheckMillis, reloadCheckMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop scheduling feeds and wait briefly for those in progress.
+     */
+    void stop() {
+        executor.shutdownNow();
+
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return True once the scheduler has stopped and no feed is in progress.
+     */
+    boolean isStopped() {
+        return executor.isTerminated();
+    }
+
+    /**
+     * @return The titles of the feeds that are currently scheduled.
+     */
+    synchronized Set<String> getScheduledTitles() {
+        return new TreeSet<>(titleToScheduledFeed.keySet());
+    }
+
+    /**
+     * Reload the feeds from the properties file if it has changed since it was last loaded. A file with a bad feed
+     * is logged and ignored so the feeds that are already scheduled keep running.
+     */
+    synchronized void reloadIfChanged() {
+        long lastModified = propsFile.lastModified();
+
+        if (lastModified == propsLastModified) return;
+
+        try {
+            Properties props = webPageToAtomFeed.getProps();
+            Map<String, Map<FeedProperty, String>> titleToFeedProp = new LinkedHashMap<>();
+            Map<String, FeedDefinition> titleToFeed = new HashMap<>();
+
+            for (Map<FeedProperty, String> feedProp : webPageToAtomFeed.getFeedProps(props)) {
+                FeedDefinition feed = FeedDefinition.parse(feedProp);
+                titleToFeedProp.put(feed.getTitle(), feedProp);
+                titleToFeed.put(feed.getTitle(), feed);
+            }
+
+            propsLastModified = lastModified;
+            reschedule(titleToFeedProp, titleToFeed);
+        }
+        catch (Exception e) {
+            propsLastModified = lastModified;
+            logger.error(format("Could not reload %s, keeping the current feeds", propsFile), e);
+        }
+    }
+
+    private void reschedule(Map<String, Map<FeedProperty, String>> titleToFeedProp,
+                            Map<String, FeedDefinition> titleToFeed) {
+        Iterator<Map.Entry<String, ScheduledFeed>> scheduledFeeds = titleToScheduledFeed.entrySet().iterator();
+
+        while (scheduledFeeds.hasNext()) {
+            Map.Entry<String, ScheduledFeed> scheduledFeed = scheduledFeeds.next();
+            Map<FeedProperty, String> feedProp = titleToFeedProp.get(scheduledFeed.getKey());
+
+            if (feedProp == null || !feedProp.equals(scheduledFeed.getValue().feedProp)) {
+                scheduledFeed.getValue().cancel();
+                scheduledFeeds.remove();
+                logger.info(format("Unscheduled feed %s", scheduledFeed.getKey()));
+            }
+        }
+
+        for (Map.Entry<String, Map<FeedProperty, String>> feedProp : titleToFeedProp.entrySet()) {
+            if (!titleToScheduledFeed.containsKey(feedProp.getKey())) {
+                FeedDefinition feed = titleToFeed.get(feedProp.getKey());
+                ScheduledFeed scheduledFeed = new ScheduledFeed(feed, feedProp.getValue());
+                titleToScheduledFeed.put(feedProp.getKey(), scheduledFeed);
+
+                scheduledFeed.schedule(getInitialDelayMillis(feed));
+                logger.info(format("Scheduled feed %s every %ds", feed, getPollIntervalMillis(feed) / 1000));
+            }
+        }
+    }
+
+    /**
+     * The delay before the first poll of a feed, anywhere in its poll interval so feeds scheduled together are spread
+     * out.
+     *
+     * @param feed The feed.
+     * @return Delay in milliseconds.
+     */
+    long getInitialDelayMillis(FeedDefinition feed) {
+        return (long) (getPollIntervalMillis(feed) * random.nextDouble());
+    }
+
+    /**
+     * The delay before the next poll of a feed.
+     *
+     * @param feed The feed.
+     * @param consecutiveFailures How many polls in a row have failed.
+     * @return Delay in milliseconds.
+     */
+    long getNextDelayMillis(FeedDefinition feed, int consecutiveFailures) {
+        long pollIntervalMillis = getPollIntervalMillis(feed);
+        long intervalMillis = pollIntervalMillis;
+
+        for (int i = 0; i < consecutiveFailures && intervalMillis < maxBackoffMillis; i++) {
+            intervalMillis *= 2;
+        }
+
+        intervalMillis = Math.max(pollIntervalMillis, Math.min(intervalMillis, maxBackoffMillis));
+
+        double jitterFactor = 1 + jitter * (2 * random.nextDouble() - 1);
+
+        return Math.max(0, (long) (intervalMillis * jitterFactor));
+    }
+
+    private long getPollIntervalMillis(FeedDefinition feed) {
+        return feed.getPollInterval() > 0 ? TimeUnit.SECONDS.toMillis(feed.getPollInterval())
+                : defaultPollIntervalMillis;
+    }
+
+    /**
+     * One feed and the state of its polling.
+     */
+    private class ScheduledFeed implements Runnable {
+        private final FeedDefinition feed;
+        private final Map<FeedProperty, String> feedProp;
+        private int consecutiveFailures;
+        private ScheduledFuture<?> future;
+        private boolean cancelled;
+
+        private ScheduledFeed(FeedDefinition feed, Map<FeedProperty, String> feedProp) {
+            this.feed = feed;
+            this.feedProp = feedProp;
+        }
+
+        @Override
+        public void run() {
+            try {
+                webPageToAtomFeed.generateFeeds(Collections.singletonList(feed));
+                consecutiveFailures = 0;
+            }
+            catch (Exception e) {
+                consecutiveFailures++;
+                logger.warn(format("Feed %s failed %d time(s) in a row", feed, consecutiveFailures), e);
+            }
+
+            schedule(getNextDelayMillis(feed, consecutiveFailures));
+        }
+
+        private void schedule(long delayMillis) {
+            synchronized (FeedScheduler.this) {
+                if (cancelled || executor.isShutdown()) return;
+
+                future = executor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+
+            if (future != null) future.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.rackspace.webpage2atomfeed;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import static java.lang.String.format;
+
+/**
+ * Serves the feeds over HTTP straight from memory, so readers polling a feed don't cost a read of the feed file.
+ * </p>
+ * Each feed is kept as its rendered Atom bytes, gzipped once up front, with a strong ETag and a Last-Modified date.
+ * Requests with a matching If-None-Match or a current If-Modified-Since get a 304. A regenerated feed replaces the old
+ * one in a single step, so a request sees either the old feed or the new one.
+ */
+class FeedServer implements Closeable {
+    private static final String CONTENT_TYPE = "application/atom+xml;charset=UTF-8";
+
+    private final Logger logger = LoggerFactory.getLogger(FeedServer.class);
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, CachedFeed> pathToFeed = new ConcurrentHashMap<>();
+
+    /**
+     * Start serving. Every feed is a 404 until it is published.
+     *
+     * @param port Port to listen on, or 0 for any free port.
+     * @param threads Number of threads handling requests.
+     */
+    FeedServer(int port, int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", new FeedHandler());
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+
+        logger.info(format("Serving feeds on port %d", getPort()));
+    }
+
+    /**
+     * @return The port the server is listening on.
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @param path The path the feed is served at, starting with '/'.
+     * @return True if a feed has been published at the path.
+     */
+    boolean contains(String path) {
+        return pathToFeed.containsKey(path);
+    }
+
+    /**
+     * Serve new bytes for a feed from now on.
+     *
+     * @param path The path to serve the feed at, starting with '/'.
+     * @param atom The rendered Atom feed.
+     */
+    void publish(String path, byte[] atom) throws IOException {
+        pathToFeed.put(path, new CachedFeed(atom, System.currentTimeMillis()));
+    }
+
+    /**
+     * Serve a feed file written before the server started, until the feed is next regenerated.
+     *
+     * @param path The path to serve the feed at, starting with '/'.
+     * @param feedFile The feed file.
+     */
+    void publish(String path, File feedFile) throws IOException {
+        pathToFeed.put(path, new CachedFeed(Files.readAllBytes(feedFile.toPath()), feedFile.lastModified()));
+    }
+
+    /**
+     * @param feedFile A feed file.
+     * @return The path the feed is served at: the name of its file.
+     */
+    static String getPath(String feedFile) {
+        return "/" + new File(feedFile).getName();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return True if the Accept-Encoding header allows gzip.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) continue;
+
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+
+                if (param.startsWith("q=")) {
+                    try {
+                        if (Double.parseDouble(param.substring(2)) == 0) return false;
+                    }
+                    catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return True if the If-None-Match header lists the ETag or is "*". Weak tags are compared by their value.
+     */
+    static boolean matchesETag(String ifNoneMatch, String eTag) {
+        for (String tag : ifNoneMatch.split(",")) {
+            String value = tag.trim();
+
+            if (value.startsWith("W/")) value = value.substring(2);
+
+            if (value.equals("*") || value.equals(eTag)) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * One version of a feed, ready to send.
+     */
+    private static final class CachedFeed {
+        private final byte[] body;
+        private final byte[] gzipBody;
+        private final String eTag;
+        private final String gzipETag;
+        private final long lastModified;
+
+        private CachedFeed(byte[] body, long lastModified) throws IOException {
+            this.body = body;
+            this.gzipBody = gzip(body);
+            String hash = hash(body);
+            this.eTag = "\"" + hash + "\"";
+            this.gzipETag = "\"" + hash + "-gzip\"";
+            this.lastModified = lastModified / 1000 * 1000;
+        }
+
+        private static byte[] gzip(byte[] body) throws IOException {
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream(body.length / 4 + 64);
+
+            try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+                out.write(body);
+            }
+
+            return gzipped.toByteArray();
+        }
+
+        private static String hash(byte[] body) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+                StringBuilder hex = new StringBuilder();
+
+                for (int i = 0; i < 16; i++) hex.append(format("%02x", digest[i]));
+
+                return hex.toString();
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private class FeedHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                respond(exchange);
+            }
+            catch (IOException e) {
+                logger.debug(format("Could not serve %s", exchange.getRequestURI()), e);
+            }
+            finally {
+                exchange.close();
+            }
+        }
+
+        private void respond(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            Headers responseHeaders = exchange.getResponseHeaders();
+
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                responseHeaders.set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            CachedFeed feed = pathToFeed.get(exchange.getRequestURI().getPath());
+
+            if (feed == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            Headers requestHeaders = exchange.getRequestHeaders();
+            boolean gzip = acceptsGzip(requestHeaders.getFirst("Accept-Encoding"));
+            String eTag = gzip ? feed.gzipETag : feed.eTag;
+
+            responseHeaders.set("ETag", eTag);
+            responseHeaders.set("Last-Modified", DateUtil.formatDate(new Date(feed.lastModified)));
+            responseHeaders.set("Cache-Control", "no-cache");
+            responseHeaders.set("Vary", "Accept-Encoding");
+
+            if (isNotModified(requestHeaders, feed)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            byte[] body = gzip ? feed.gzipBody : feed.body;
+            responseHeaders.set("Content-Type", CONTENT_TYPE);
+
+            if (gzip) responseHeaders.set("Content-Encoding", "gzip");
+
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+
+        private boolean isNotModified(Headers requestHeaders, CachedFeed feed) {
+            String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+
+            if (ifNoneMatch != null) {
+                return matchesETag(ifNoneMatch, feed.eTag) || matchesETag(ifNoneMatch, feed.gzipETag);
+            }
+
+            String ifModifiedSince = requestHeaders.getFirst("If-Modified-Since");
+
+            if (ifModifiedSince == null) return false;
+
+            try {
+                return DateUtil.parseDate(ifModifiedSince).getTime() >= feed.lastModified;
+            }
+            catch (DateParseException e) {
+                return false;
+            }
+        }
+    }
+}
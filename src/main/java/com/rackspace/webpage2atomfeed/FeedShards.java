@@ -0,0 +1,303 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Splits the feeds between instances that share a directory, so each feed is fetched and written by only one of
+ * them.
+ * </p>
+ * Every instance touches its own file under workers/ whenever it claims feeds, and the instances whose file is
+ * younger than the lease time are live. Feed ids are placed on a consistent hash ring of the live instances, so an
+ * instance joining or leaving only moves its own share of the feeds. The owner of a feed also holds a lease file for
+ * it under leases/, renewed every run:
+ * <ul>
+ * <li>a feed whose owner stopped running is taken over once the owner's lease has expired</li>
+ * <li>a feed that moved to another instance is handed over when the old owner next runs and gives up the lease</li>
+ * <li>a daemon that is closed gives up its leases straight away</li>
+ * </ul>
+ * A one-shot run keeps its presence and leases when it is closed, until they expire, so the instances that run after
+ * it leave its feeds alone. It has to come back under the same worker id to renew them.
+ * Leases are created with create-new and expired ones are moved aside before they are replaced, so two instances
+ * can't both take the same feed.
+ */
+class FeedShards implements Closeable {
+    private static final int VIRTUAL_NODES = 64;
+    private static final String WORKER_SUFFIX = ".worker";
+    private static final String LEASE_SUFFIX = ".lease";
+
+    private final Logger logger = LoggerFactory.getLogger(FeedShards.class);
+    private final Path workersDir;
+    private final Path leasesDir;
+    private final String workerId;
+    private final long leaseMillis;
+    private final boolean leaveOnClose;
+
+    /**
+     * Join the instances sharing the directory.
+     *
+     * @param dir The shared directory.
+     * @param workerId Name of this instance, unique among those sharing the directory.
+     * @param leaseMillis How long a lease, and the presence of an instance, lasts without being renewed.
+     * @param leaveOnClose True to give up the leases when closed, for an instance that runs as a daemon.
+     */
+    FeedShards(File dir, String workerId, long leaseMillis, boolean leaveOnClose) throws IOException {
+        if (!workerId.matches("[A-Za-z0-9._@-]+")) {
+            throw new IllegalArgumentException(format("shard.worker.id %s may only contain letters, digits and ._@-",
+                    workerId));
+        }
+
+        if (leaseMillis < 1) throw new IllegalArgumentException("shard.lease.seconds must be at least 1");
+
+        this.workersDir = Files.createDirectories(dir.toPath().resolve("workers"));
+        this.leasesDir = Files.createDirectories(dir.toPath().resolve("leases"));
+        this.workerId = workerId;
+        this.leaseMillis = leaseMillis;
+        this.leaveOnClose = leaveOnClose;
+
+        heartbeat();
+    }
+
+    /**
+     * @param daemonMode True for an instance that runs as a daemon.
+     * @return The JVM name, process id and host, for a daemon, or just the host for a one-shot run so the next run
+     * renews its leases. Characters that don't belong in a file name are replaced.
+     */
+    static String getDefaultWorkerId(boolean daemonMode) {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+
+        if (!daemonMode) name = name.substring(name.indexOf('@') + 1);
+
+        return name.replaceAll("[^A-Za-z0-9._@-]", "_");
+    }
+
+    String getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * Renew this instance's presence and the leases of the feeds it owns, and give up the leases of feeds that now
+     * belong to another instance.
+     *
+     * @param feeds A List of feeds.
+     * @return The feeds this instance holds the lease of, in their original order.
+     */
+    synchronized List<FeedDefinition> claim(List<FeedDefinition> feeds) throws IOException {
+        heartbeat();
+
+        SortedMap<Long, String> ring = getRing(getLiveWorkers());
+        List<FeedDefinition> claimed = new ArrayList<>();
+
+        for (FeedDefinition feed : feeds) {
+            Path lease = leasesDir.resolve(toHex(hash(feed.getId())) + LEASE_SUFFIX);
+
+            if (!getOwner(ring, feed.getId()).equals(workerId)) {
+                release(lease);
+            }
+            else if (acquire(lease)) {
+                claimed.add(feed);
+            }
+            else {
+                logger.info(format("Feed %s: still leased by %s, skipped", feed, getHolder(lease)));
+            }
+        }
+
+        return claimed;
+    }
+
+    /**
+     * For a daemon, leave the shared directory and give up every lease, so the other instances take over the feeds
+     * on their next run instead of waiting for the leases to expire. A one-shot run keeps them.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!leaveOnClose) return;
+
+        try (DirectoryStream<Path> leases = Files.newDirectoryStream(leasesDir, "*" + LEASE_SUFFIX)) {
+            for (Path lease : leases) release(lease);
+        }
+
+        Files.deleteIfExists(workersDir.resolve(workerId + WORKER_SUFFIX));
+    }
+
+    /**
+     * @param workers The live instances.
+     * @param feedId A feed id.
+     * @return The instance that owns the feed.
+     */
+    static String getOwner(Collection<String> workers, String feedId) {
+        return getOwner(getRing(workers), feedId);
+    }
+
+    private static String getOwner(SortedMap<Long, String> ring, String feedId) {
+        SortedMap<Long, String> tail = ring.tailMap(hash(feedId));
+
+        return tail.isEmpty() ? ring.get(ring.firstKey()) : tail.get(tail.firstKey());
+    }
+
+    private static SortedMap<Long, String> getRing(Collection<String> workers) {
+        SortedMap<Long, String> ring = new TreeMap<>();
+
+        for (String worker : workers) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) ring.put(hash(worker + "#" + i), worker);
+        }
+
+        return ring;
+    }
+
+    /**
+     * @return The instances whose presence has been renewed within the lease time, this one included.
+     */
+    private List<String> getLiveWorkers() throws IOException {
+        TreeSet<String> workers = new TreeSet<>();
+        workers.add(workerId);
+
+        try (DirectoryStream<Path> workerFiles = Files.newDirectoryStream(workersDir, "*" + WORKER_SUFFIX)) {
+            for (Path workerFile : workerFiles) {
+                String name = workerFile.getFileName().toString();
+
+                if (!isExpired(workerFile)) workers.add(name.substring(0, name.length() - WORKER_SUFFIX.length()));
+            }
+        }
+
+        return new ArrayList<>(workers);
+    }
+
+    private void heartbeat() throws IOException {
+        Path workerFile = workersDir.resolve(workerId + WORKER_SUFFIX);
+
+        if (!Files.exists(workerFile)) Files.createFile(workerFile);
+
+        Files.setLastModifiedTime(workerFile, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    /**
+     * Take or renew a lease.
+     *
+     * @return True if this instance holds the lease.
+     */
+    private boolean acquire(Path lease) throws IOException {
+        if (create(lease)) return true;
+
+        String holder = getHolder(lease);
+
+        if (workerId.equals(holder)) {
+            Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        }
+
+        if (holder != null && !isExpired(lease)) return false;
+        if (holder != null && !breakExpired(lease, holder)) return false;
+
+        return create(lease);
+    }
+
+    private boolean create(Path lease) throws IOException {
+        try {
+            Files.write(lease, workerId.getBytes(StandardCharsets.UTF_8), CREATE_NEW, WRITE);
+            return true;
+        }
+        catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Move an expired lease aside. If another instance renewed or replaced it in the meantime it is put back.
+     *
+     * @return True if the lease is gone.
+     */
+    private boolean breakExpired(Path lease, String holder) throws IOException {
+        Path expired = lease.resolveSibling(lease.getFileName() + "." + workerId);
+
+        try {
+            Files.move(lease, expired, ATOMIC_MOVE);
+        }
+        catch (NoSuchFileException e) {
+            return true;
+        }
+
+        if (isExpired(expired)) {
+            Files.delete(expired);
+            logger.info(format("Took over the expired lease of %s on %s", holder, lease.getFileName()));
+            return true;
+        }
+
+        try {
+            Files.move(expired, lease, ATOMIC_MOVE);
+        }
+        catch (FileAlreadyExistsException e) {
+            Files.delete(expired);
+        }
+
+        return false;
+    }
+
+    private void release(Path lease) throws IOException {
+        if (workerId.equals(getHolder(lease))) Files.deleteIfExists(lease);
+    }
+
+    /**
+     * @return The instance holding the lease, or null if there is no lease.
+     */
+    private static String getHolder(Path lease) throws IOException {
+        try {
+            return new String(Files.readAllBytes(lease), StandardCharsets.UTF_8);
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private boolean isExpired(Path file) throws IOException {
+        try {
+            return System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() > leaseMillis;
+        }
+        catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+
+            for (int i = 0; i < 8; i++) hash = hash << 8 | (digest[i] & 0xff);
+
+            return hash;
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(long hash) {
+        return format("%016x", hash);
+    }
+}
@@ -0,0 +1,28 @@
+package com.rackspace.webpage2atomfeed;
+
+/**
+ * What is known over JMX about one feed since the process started.
+ */
+public interface FeedStatsMBean {
+    long getFetchCount();
+
+    double getFetchSeconds();
+
+    long getFetchBytes();
+
+    long getFetchDecodedBytes();
+
+    long getParseCount();
+
+    double getParseSeconds();
+
+    long getWriteCount();
+
+    double getWriteSeconds();
+
+    long getEntriesAdded();
+
+    long getFailures();
+
+    long getUnchangedRegions();
+}
@@ -0,0 +1,67 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * The outcome of the last attempt to generate each feed, kept in a file that can be read to see which feeds are
+ * failing and why.
+ */
+class FeedStatus {
+    private static final String LAST_ATTEMPT = ".last.attempt";
+    private static final String LAST_SUCCESS = ".last.success";
+    private static final String FAILURES = ".failures";
+    private static final String LAST_ERROR = ".last.error";
+
+    private final StateFile stateFile;
+
+    FeedStatus(StateFile stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    synchronized void recordSuccess(FeedDefinition feed) {
+        String now = now();
+        stateFile.put(feed.getTitle() + LAST_ATTEMPT, now);
+        stateFile.put(feed.getTitle() + LAST_SUCCESS, now);
+        stateFile.remove(feed.getTitle() + FAILURES);
+        stateFile.remove(feed.getTitle() + LAST_ERROR);
+    }
+
+    synchronized void recordFailure(FeedDefinition feed, Throwable t) {
+        stateFile.put(feed.getTitle() + LAST_ATTEMPT, now());
+        stateFile.put(feed.getTitle() + FAILURES, String.valueOf(getFailures(feed) + 1));
+        stateFile.put(feed.getTitle() + LAST_ERROR, String.valueOf(t).split("\\r?\\n", 2)[0]);
+    }
+
+    /**
+     * @param feed A feed.
+     * @return The number of times in a row the feed failed.
+     */
+    synchronized int getFailures(FeedDefinition feed) {
+        String failures = stateFile.get(feed.getTitle() + FAILURES);
+
+        return failures == null ? 0 : Integer.valueOf(failures);
+    }
+
+    /**
+     * @param feed A feed.
+     * @return The first line of the feed's last error, or null if it last succeeded.
+     */
+    synchronized String getLastError(FeedDefinition feed) {
+        return stateFile.get(feed.getTitle() + LAST_ERROR);
+    }
+
+    synchronized void save() throws IOException {
+        stateFile.save();
+    }
+
+    private static String now() {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        return dateFormat.format(new Date());
+    }
+}
@@ -0,0 +1,57 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with fixed buckets. Recording is a few atomic increments, so it can sit on the hot path.
+ */
+class Histogram {
+    /**
+     * Upper bounds of the buckets in seconds. Anything slower lands in the last, unbounded bucket.
+     */
+    static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1e9);
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    void record(long nanos) {
+        int bucket = 0;
+
+        while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) bucket++;
+
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    double getSumSeconds() {
+        return sumNanos.get() / 1e9;
+    }
+
+    /**
+     * @return The number of recordings at or below each bucket's upper bound, followed by the total.
+     */
+    long[] getCumulativeCounts() {
+        long[] cumulative = new long[counts.length()];
+        long total = 0;
+
+        for (int i = 0; i < cumulative.length; i++) {
+            total += counts.get(i);
+            cumulative[i] = total;
+        }
+
+        return cumulative;
+    }
+}
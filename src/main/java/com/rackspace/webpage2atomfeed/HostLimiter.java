@@ -0,0 +1,47 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the number of concurrent requests made to any one host.
+ */
+class HostLimiter {
+    private final int permitsPerHost;
+    private final Map<String, Semaphore> hostToPermits = new HashMap<>();
+
+    HostLimiter(int permitsPerHost) {
+        this.permitsPerHost = permitsPerHost;
+    }
+
+    /**
+     * Block until a request to the host is allowed.
+     *
+     * @param host Host name (case insensitive).
+     */
+    void acquire(String host) throws InterruptedException {
+        getPermits(host).acquire();
+    }
+
+    /**
+     * Give back a permit taken with {@link #acquire(String)}.
+     *
+     * @param host Host name (case insensitive).
+     */
+    void release(String host) {
+        getPermits(host).release();
+    }
+
+    private synchronized Semaphore getPermits(String host) {
+        String key = host == null ? "" : host.toLowerCase();
+        Semaphore permits = hostToPermits.get(key);
+
+        if (permits == null) {
+            permits = new Semaphore(permitsPerHost, true);
+            hostToPermits.put(key, permits);
+        }
+
+        return permits;
+    }
+}
@@ -0,0 +1,14 @@
+package com.rackspace.webpage2atomfeed;
+
+/**
+ * What is known over JMX about the requests made to one host since the process started.
+ */
+public interface HostStatsMBean {
+    long getRequestCount();
+
+    double getRequestSeconds();
+
+    long getRequestBytes();
+
+    long getRequestErrors();
+}
@@ -0,0 +1,356 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits HTML into start tags, end tags and text in a single forward pass, without building a document tree.
+ * </p>
+ * Comments, doctypes and processing instructions are skipped, and the contents of script and style elements come back
+ * as text so markup inside them isn't mistaken for tags. It is lenient in the way browsers are: a stray '<' is text
+ * and an unterminated tag runs to the end of the page.
+ */
+class HtmlTokenizer {
+    /**
+     * Elements that never have an end tag.
+     */
+    static final Set<String> VOID_ELEMENTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "param", "source", "track",
+            "wbr")));
+
+    private static final Set<String> RAW_TEXT_ELEMENTS = new HashSet<>(Arrays.asList("script", "style"));
+
+    enum Token {
+        START_TAG, END_TAG, TEXT, END
+    }
+
+    private final String html;
+    private final int end;
+    private int pos;
+    private int tokenStart;
+    private int tokenEnd;
+    private Tag tag;
+    private String endTagName;
+    private String rawTextElement;
+
+    /**
+     * @param html The page source code.
+     */
+    HtmlTokenizer(String html) {
+        this.html = html;
+        this.end = html.length();
+    }
+
+    /**
+     * @return The next token, or {@link Token#END} once the whole page has been read.
+     */
+    Token next() {
+        tag = null;
+        endTagName = null;
+
+        if (rawTextElement != null) {
+            String element = rawTextElement;
+            rawTextElement = null;
+            int close = indexOfIgnoreCase(html, "</" + element, pos);
+
+            if (close == -1) close = end;
+            if (close > pos) return text(close);
+        }
+
+        while (pos < end) {
+            if (html.charAt(pos) != '<' || pos + 1 >= end) return text(nextTagStart(pos + 1));
+
+            char c = html.charAt(pos + 1);
+
+            if (html.startsWith("<!--", pos)) {
+                pos = skipPast(pos + 4, "-->");
+            }
+            else if (c == '!' || c == '?') {
+                pos = skipPast(pos + 2, ">");
+            }
+            else if (c == '/' && pos + 2 < end && isLetter(html.charAt(pos + 2))) {
+                return endTag();
+            }
+            else if (isLetter(c)) {
+                return startTag();
+            }
+            else {
+                return text(nextTagStart(pos + 1));
+            }
+        }
+
+        tokenStart = tokenEnd = end;
+
+        return Token.END;
+    }
+
+    /**
+     * @return The tag read by the last {@link Token#START_TAG}.
+     */
+    Tag getTag() {
+        return tag;
+    }
+
+    /**
+     * @return The lower case name of the element closed by the last {@link Token#END_TAG}.
+     */
+    String getEndTagName() {
+        return endTagName;
+    }
+
+    /**
+     * @return Where the last token starts in the page.
+     */
+    int getTokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * @return Where the last token ends in the page.
+     */
+    int getTokenEnd() {
+        return tokenEnd;
+    }
+
+    /**
+     * Replace the common named entities and all numeric character references.
+     *
+     * @param text Text or an attribute value as it appears in the page.
+     * @return The text with the entities replaced.
+     */
+    static String decode(String text) {
+        int amp = text.indexOf('&');
+
+        if (amp == -1) return text;
+
+        StringBuilder decoded = new StringBuilder(text.length());
+        int last = 0;
+
+        while (amp != -1) {
+            int semicolon = text.indexOf(';', amp);
+
+            if (semicolon == -1) break;
+
+            if (semicolon - amp > 10) {
+                amp = text.indexOf('&', amp + 1);
+                continue;
+            }
+
+            String entity = text.substring(amp + 1, semicolon);
+            String replacement = getEntity(entity);
+
+            if (replacement != null) {
+                decoded.append(text, last, amp).append(replacement);
+                last = semicolon + 1;
+            }
+
+            amp = text.indexOf('&', replacement == null ? amp + 1 : last);
+        }
+
+        return decoded.append(text, last, text.length()).toString();
+    }
+
+    private static String getEntity(String entity) {
+        switch (entity) {
+            case "amp":
+                return "&";
+            case "lt":
+                return "<";
+            case "gt":
+                return ">";
+            case "quot":
+                return "\"";
+            case "apos":
+                return "'";
+            case "nbsp":
+                return "\u00a0";
+        }
+
+        if (entity.length() < 2 || entity.charAt(0) != '#') return null;
+
+        try {
+            boolean hex = entity.charAt(1) == 'x' || entity.charAt(1) == 'X';
+            int codePoint = hex ? Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1));
+
+            return Character.isValidCodePoint(codePoint) ? new String(Character.toChars(codePoint)) : null;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Token text(int textEnd) {
+        tokenStart = pos;
+        tokenEnd = textEnd;
+        pos = textEnd;
+
+        return Token.TEXT;
+    }
+
+    private Token endTag() {
+        tokenStart = pos;
+        int nameStart = pos + 2;
+        int nameEnd = nameStart;
+
+        while (nameEnd < end && !isTagNameEnd(html.charAt(nameEnd))) nameEnd++;
+
+        endTagName = html.substring(nameStart, nameEnd).toLowerCase();
+        pos = skipPast(nameEnd, ">");
+        tokenEnd = pos;
+
+        return Token.END_TAG;
+    }
+
+    private Token startTag() {
+        tokenStart = pos;
+        int nameStart = pos + 1;
+        int i = nameStart;
+
+        while (i < end && !isTagNameEnd(html.charAt(i))) i++;
+
+        String name = html.substring(nameStart, i).toLowerCase();
+        Map<String, String> attributes = new HashMap<>();
+        boolean selfClosing = false;
+
+        while (i < end) {
+            char c = html.charAt(i);
+
+            if (c == '>') {
+                i++;
+                break;
+            }
+
+            if (c == '/' && i + 1 < end && html.charAt(i + 1) == '>') {
+                selfClosing = true;
+                i += 2;
+                break;
+            }
+
+            if (Character.isWhitespace(c) || c == '/') {
+                i++;
+                continue;
+            }
+
+            int attributeStart = i;
+
+            while (i < end && !isAttributeNameEnd(html.charAt(i))) i++;
+
+            String attribute = html.substring(attributeStart, i).toLowerCase();
+            i = skipWhitespace(i);
+            String value = "";
+
+            if (i < end && html.charAt(i) == '=') {
+                i = skipWhitespace(i + 1);
+
+                if (i < end && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+                    int close = html.indexOf(html.charAt(i), i + 1);
+
+                    if (close == -1) close = end;
+
+                    value = html.substring(i + 1, close);
+                    i = Math.min(close + 1, end);
+                }
+                else {
+                    int valueStart = i;
+
+                    while (i < end && !Character.isWhitespace(html.charAt(i)) && html.charAt(i) != '>') i++;
+
+                    value = html.substring(valueStart, i);
+                }
+            }
+
+            if (!attributes.containsKey(attribute)) attributes.put(attribute, decode(value));
+        }
+
+        pos = i;
+        tokenEnd = i;
+        tag = new Tag(name, attributes, selfClosing || VOID_ELEMENTS.contains(name));
+
+        if (!tag.isSelfClosing() && RAW_TEXT_ELEMENTS.contains(name)) rawTextElement = name;
+
+        return Token.START_TAG;
+    }
+
+    private int nextTagStart(int from) {
+        int next = html.indexOf('<', from);
+
+        return next == -1 ? end : next;
+    }
+
+    private int skipPast(int from, String terminator) {
+        int index = html.indexOf(terminator, from);
+
+        return index == -1 ? end : index + terminator.length();
+    }
+
+    private int skipWhitespace(int from) {
+        int i = from;
+
+        while (i < end && Character.isWhitespace(html.charAt(i))) i++;
+
+        return i;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isTagNameEnd(char c) {
+        return c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+
+    private static boolean isAttributeNameEnd(char c) {
+        return c == '=' || c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+
+    private static int indexOfIgnoreCase(String text, String target, int from) {
+        for (int i = from; i <= text.length() - target.length(); i++) {
+            if (text.regionMatches(true, i, target, 0, target.length())) return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * A start tag with its attributes. Names are lower case and attribute values have their entities replaced.
+     */
+    static final class Tag {
+        private final String name;
+        private final Map<String, String> attributes;
+        private final boolean selfClosing;
+
+        Tag(String name, Map<String, String> attributes, boolean selfClosing) {
+            this.name = name;
+            this.attributes = attributes;
+            this.selfClosing = selfClosing;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @param attribute Lower case attribute name.
+         * @return The attribute value, "" for an attribute without one, or null if the tag doesn't have it.
+         */
+        String getAttribute(String attribute) {
+            return attributes.get(attribute);
+        }
+
+        /**
+         * @return True for void elements and tags ending in "/>", which don't have an end tag.
+         */
+        boolean isSelfClosing() {
+            return selfClosing;
+        }
+
+        @Override
+        public String toString() {
+            return "<" + name + attributes + ">";
+        }
+    }
+}
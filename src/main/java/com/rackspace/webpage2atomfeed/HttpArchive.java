@@ -0,0 +1,315 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.lang.String.format;
+
+/**
+ * A file of recorded HTTP responses, so a run can be repeated offline against exactly the same pages.
+ * </p>
+ * When recording, each response is appended as it was received: status, headers and the body as it came over the
+ * wire, still compressed if it was. Every response is its own gzip member, so the file stays compact and a run that
+ * is cut short leaves the responses recorded so far readable. When replaying, the whole file is loaded up front and
+ * each URL gets the last response recorded for it, after a fixed delay or the time the response originally took.
+ */
+class HttpArchive {
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Replay each response after the time it took when it was recorded.
+     */
+    static final long RECORDED_LATENCY = -1;
+
+    private final File file;
+    private final Map<String, Response> urlToResponse;
+    private final long replayLatencyMillis;
+
+    private HttpArchive(File file, Map<String, Response> urlToResponse, long replayLatencyMillis) {
+        this.file = file;
+        this.urlToResponse = urlToResponse;
+        this.replayLatencyMillis = replayLatencyMillis;
+    }
+
+    /**
+     * @param file The archive to append responses to. It is created if it doesn't exist.
+     * @return An archive that records.
+     */
+    static HttpArchive forRecording(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Could not create directory " + dir);
+
+        return new HttpArchive(file, null, 0);
+    }
+
+    /**
+     * @param file The archive to replay.
+     * @param latencyMillis Delay before each response, or {@link #RECORDED_LATENCY} for the time it originally took.
+     * @return An archive that replays.
+     */
+    static HttpArchive forReplay(File file, long latencyMillis) throws IOException {
+        if (latencyMillis < RECORDED_LATENCY) {
+            throw new IllegalArgumentException("http.archive.latency.ms must be at least -1");
+        }
+
+        Map<String, Response> urlToResponse = new HashMap<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE), BUFFER_SIZE))) {
+            while (true) {
+                Response response = readResponse(in);
+
+                if (response == null) break;
+
+                urlToResponse.put(response.url, response);
+            }
+        }
+
+        return new HttpArchive(file, urlToResponse, latencyMillis);
+    }
+
+    boolean isReplaying() {
+        return urlToResponse != null;
+    }
+
+    /**
+     * @return The number of URLs with a recorded response.
+     */
+    int size() {
+        return urlToResponse == null ? 0 : urlToResponse.size();
+    }
+
+    /**
+     * Wait the replay latency and return the response recorded for the URL.
+     *
+     * @param url The URL requested.
+     * @return The recorded response.
+     * @throws IOException if nothing was recorded for the URL.
+     */
+    Response replay(String url) throws IOException {
+        Response response = urlToResponse.get(url);
+
+        if (response == null) throw new IOException(format("No response for %s in %s", url, file));
+
+        long latencyMillis = replayLatencyMillis == RECORDED_LATENCY ? response.elapsedMillis : replayLatencyMillis;
+
+        try {
+            if (latencyMillis > 0) Thread.sleep(latencyMillis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replaying " + url);
+        }
+
+        return response;
+    }
+
+    /**
+     * Start recording a response whose status and headers have been received.
+     *
+     * @param url The URL requested.
+     * @param statusCode HTTP status code.
+     * @param statusLine HTTP status line.
+     * @param headers Header names and values, in the order received.
+     * @param startNanos When the request was sent, from {@link System#nanoTime()}.
+     * @return The recording, to pass the body through and then {@link Recording#finish()}.
+     */
+    Recording startRecording(String url, int statusCode, String statusLine, List<String[]> headers, long startNanos) {
+        return new Recording(url, statusCode, statusLine, headers, startNanos);
+    }
+
+    /**
+     * Append a response to the archive.
+     */
+    synchronized void append(Response response) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(response.body.length / 4 + 256);
+
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(record))) {
+            out.writeInt(VERSION);
+            out.writeUTF(response.url);
+            out.writeInt(response.statusCode);
+            out.writeUTF(response.statusLine);
+            out.writeLong(response.elapsedMillis);
+            out.writeInt(response.headers.size());
+
+            for (String[] header : response.headers) {
+                out.writeUTF(header[0]);
+                out.writeUTF(header[1]);
+            }
+
+            out.writeInt(response.body.length);
+            out.write(response.body);
+        }
+
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE)) {
+            record.writeTo(out);
+        }
+    }
+
+    /**
+     * @return The next response, or null at the end of the archive. A last record that was cut short, by a run that
+     * stopped while appending it, also ends the archive.
+     */
+    private static Response readResponse(DataInputStream in) throws IOException {
+        try {
+            int version = in.readInt();
+
+            if (version != VERSION) throw new IOException("Unknown HTTP archive version " + version);
+
+            String url = in.readUTF();
+            int statusCode = in.readInt();
+            String statusLine = in.readUTF();
+            long elapsedMillis = in.readLong();
+            int headerCount = in.readInt();
+            List<String[]> headers = new ArrayList<>(headerCount);
+
+            for (int i = 0; i < headerCount; i++) headers.add(new String[]{in.readUTF(), in.readUTF()});
+
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+
+            return new Response(url, statusCode, statusLine, headers, body, elapsedMillis);
+        }
+        catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * One recorded response.
+     */
+    static final class Response {
+        private final String url;
+        private final int statusCode;
+        private final String statusLine;
+        private final List<String[]> headers;
+        private final byte[] body;
+        private final long elapsedMillis;
+
+        /**
+         * @param url The URL requested.
+         * @param statusCode HTTP status code.
+         * @param statusLine HTTP status line.
+         * @param headers Header names and values, in the order received.
+         * @param body The body as it came over the wire.
+         * @param elapsedMillis How long the response took.
+         */
+        Response(String url, int statusCode, String statusLine, List<String[]> headers, byte[] body,
+                 long elapsedMillis) {
+            this.url = url;
+            this.statusCode = statusCode;
+            this.statusLine = statusLine;
+            this.headers = Collections.unmodifiableList(headers);
+            this.body = body;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        String getStatusLine() {
+            return statusLine;
+        }
+
+        /**
+         * @param name Header name (case insensitive).
+         * @return The value of the first header with the name, or null.
+         */
+        String getHeader(String name) {
+            for (String[] header : headers) {
+                if (header[0].equalsIgnoreCase(name)) return header[1];
+            }
+
+            return null;
+        }
+
+        /**
+         * @return The body as it came over the wire.
+         */
+        InputStream getBody() {
+            return new ByteArrayInputStream(body);
+        }
+
+        int getBodyLength() {
+            return body.length;
+        }
+    }
+
+    /**
+     * A response being received. The body is copied as it is read.
+     */
+    final class Recording {
+        private final String url;
+        private final int statusCode;
+        private final String statusLine;
+        private final List<String[]> headers;
+        private final long startNanos;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        private Recording(String url, int statusCode, String statusLine, List<String[]> headers, long startNanos) {
+            this.url = url;
+            this.statusCode = statusCode;
+            this.statusLine = statusLine;
+            this.headers = headers;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * @param in The response body.
+         * @return The body, copied to the recording as it is read.
+         */
+        InputStream wrap(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+
+                    if (b != -1) body.write(b);
+
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+
+                    if (n > 0) body.write(b, off, n);
+
+                    return n;
+                }
+            };
+        }
+
+        /**
+         * Append the response, with the body read so far, to the archive.
+         */
+        void finish() throws IOException {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            append(new Response(url, statusCode, statusLine, headers, body.toByteArray(), elapsedMillis));
+        }
+    }
+}
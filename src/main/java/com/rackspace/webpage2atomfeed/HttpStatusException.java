@@ -0,0 +1,20 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.apache.commons.httpclient.HttpException;
+
+/**
+ * A web page was answered with a status other than 200 OK.
+ */
+public class HttpStatusException extends HttpException {
+    private static final long serialVersionUID = 1L;
+    private final int statusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,306 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+
+/**
+ * Latency histograms and counters for each feed and each host.
+ * </p>
+ * The stats of a feed or host are created the first time they are asked for and, when JMX is on, registered as
+ * com.rackspace.webpage2atomfeed:type=Feed,name=... or type=Host,name=... They can also be written in the Prometheus
+ * text format.
+ */
+class Metrics implements Closeable {
+    private static final String DOMAIN = "com.rackspace.webpage2atomfeed";
+    private static final String PREFIX = "webpage2atomfeed_";
+
+    private final Logger logger = LoggerFactory.getLogger(Metrics.class);
+    private final boolean jmx;
+    private final ConcurrentMap<String, FeedStats> titleToFeedStats = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, HostStats> hostToHostStats = new ConcurrentHashMap<>();
+    private final List<ObjectName> registeredNames = new ArrayList<>();
+
+    /**
+     * @param jmx True to register the stats of each feed and host as MBeans.
+     */
+    Metrics(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    FeedStats getFeedStats(String title) {
+        FeedStats feedStats = titleToFeedStats.get(title);
+
+        if (feedStats == null) {
+            FeedStats newFeedStats = new FeedStats();
+            feedStats = titleToFeedStats.putIfAbsent(title, newFeedStats);
+
+            if (feedStats == null) {
+                feedStats = newFeedStats;
+                register("Feed", title, newFeedStats, FeedStatsMBean.class);
+            }
+        }
+
+        return feedStats;
+    }
+
+    HostStats getHostStats(String host) {
+        String key = host == null ? "" : host.toLowerCase();
+        HostStats hostStats = hostToHostStats.get(key);
+
+        if (hostStats == null) {
+            HostStats newHostStats = new HostStats();
+            hostStats = hostToHostStats.putIfAbsent(key, newHostStats);
+
+            if (hostStats == null) {
+                hostStats = newHostStats;
+                register("Host", key, newHostStats, HostStatsMBean.class);
+            }
+        }
+
+        return hostStats;
+    }
+
+    /**
+     * Write every metric in the Prometheus text exposition format.
+     *
+     * @param out Where to write the metrics. It is flushed but not closed.
+     */
+    void writePrometheus(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        Map<String, FeedStats> feeds = new TreeMap<String, FeedStats>(titleToFeedStats);
+        Map<String, HostStats> hosts = new TreeMap<String, HostStats>(hostToHostStats);
+
+        writeHeader(writer, "feed_fetch_seconds", "histogram", "Time to fetch a feed's web page.");
+        for (Map.Entry<String, FeedStats> feed : feeds.entrySet()) {
+            writeHistogram(writer, "feed_fetch_seconds", "feed", feed.getKey(), feed.getValue().fetch);
+        }
+
+        writeHeader(writer, "feed_parse_seconds", "histogram", "Time to match a feed's patterns against its page.");
+        for (Map.Entry<String, FeedStats> feed : feeds.entrySet()) {
+            writeHistogram(writer, "feed_parse_seconds", "feed", feed.getKey(), feed.getValue().parse);
+        }
+
+        writeHeader(writer, "feed_write_seconds", "histogram", "Time to store a feed's entries and write its file.");
+        for (Map.Entry<String, FeedStats> feed : feeds.entrySet()) {
+            writeHistogram(writer, "feed_write_seconds", "feed", feed.getKey(), feed.getValue().write);
+        }
+
+        writeHeader(writer, "feed_fetch_bytes_total", "counter", "Bytes of web page read over the wire for a feed.");
+        for (Map.Entry<String, FeedStats> feed : feeds.entrySet()) {
+            writeSample(writer, "feed_fetch_bytes_total", "feed", feed.getKey(), feed.getValue().fetchBytes.get());
+        }
+
+        writeHeader(writer, "feed_fetch_decoded_bytes_total", "counter",
+                "Bytes of web page for a feed once decompressed.");
+        for (Map.Entry<String, FeedStats> feed : feeds.entrySet()) {
+            writeSample(writer, "feed_fetch_decoded_bytes_total", "feed", feed.getKey(),
+                    feed.getValue().fetchDecodedBytes.get());
+        }
+
+        writeHeader(writer, "feed_entries_added_total", "counter", "New or changed entries added to a feed.");
+        for (Map.Entry<String, FeedStats> feed : feeds.entrySet()) {
+            writeSample(writer, "feed_entries_added_total", "feed", feed.getKey(), feed.getValue().entriesAdded.get());
+        }
+
+        writeHeader(writer, "feed_failures_total", "counter", "Attempts to generate a feed that failed.");
+        for (Map.Entry<String, FeedStats> feed : feeds.entrySet()) {
+            writeSample(writer, "feed_failures_total", "feed", feed.getKey(), feed.getValue().failures.get());
+        }
+
+        writeHeader(writer, "feed_unchanged_regions_total", "counter",
+                "Pages not parsed because the region the page pattern picks out hadn't changed.");
+        for (Map.Entry<String, FeedStats> feed : feeds.entrySet()) {
+            writeSample(writer, "feed_unchanged_regions_total", "feed", feed.getKey(),
+                    feed.getValue().unchangedRegions.get());
+        }
+
+        writeHeader(writer, "host_request_seconds", "histogram", "Time of requests to a host.");
+        for (Map.Entry<String, HostStats> host : hosts.entrySet()) {
+            writeHistogram(writer, "host_request_seconds", "host", host.getKey(), host.getValue().request);
+        }
+
+        writeHeader(writer, "host_request_bytes_total", "counter", "Bytes of response body read from a host.");
+        for (Map.Entry<String, HostStats> host : hosts.entrySet()) {
+            writeSample(writer, "host_request_bytes_total", "host", host.getKey(), host.getValue().bytes.get());
+        }
+
+        writeHeader(writer, "host_request_errors_total", "counter", "Requests to a host that failed.");
+        for (Map.Entry<String, HostStats> host : hosts.entrySet()) {
+            writeSample(writer, "host_request_errors_total", "host", host.getKey(), host.getValue().errors.get());
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Unregister the MBeans.
+     */
+    @Override
+    public synchronized void close() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        for (ObjectName name : registeredNames) {
+            try {
+                server.unregisterMBean(name);
+            }
+            catch (JMException e) {
+                logger.warn(format("Failed to unregister %s", name), e);
+            }
+        }
+
+        registeredNames.clear();
+    }
+
+    private synchronized <T> void register(String type, String name, T stats, Class<T> mbeanInterface) {
+        if (!jmx) return;
+
+        try {
+            ObjectName objectName = new ObjectName(format("%s:type=%s,name=%s", DOMAIN, type, ObjectName.quote(name)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(stats, mbeanInterface),
+                    objectName);
+            registeredNames.add(objectName);
+        }
+        catch (JMException e) {
+            logger.warn(format("Failed to register JMX stats for %s %s", type, name), e);
+        }
+    }
+
+    private static void writeHeader(Writer writer, String name, String type, String help) throws IOException {
+        writer.write(format("# HELP %s%s %s\n# TYPE %s%s %s\n", PREFIX, name, help, PREFIX, name, type));
+    }
+
+    private static void writeHistogram(Writer writer, String name, String label, String value, Histogram histogram)
+            throws IOException {
+        long[] cumulativeCounts = histogram.getCumulativeCounts();
+        String labels = format("%s=\"%s\"", label, escape(value));
+
+        for (int i = 0; i < cumulativeCounts.length; i++) {
+            String le = i < Histogram.BUCKETS.length ? String.valueOf(Histogram.BUCKETS[i]) : "+Inf";
+            writer.write(format("%s%s_bucket{%s,le=\"%s\"} %d\n", PREFIX, name, labels, le, cumulativeCounts[i]));
+        }
+
+        writer.write(format("%s%s_sum{%s} %s\n", PREFIX, name, labels, histogram.getSumSeconds()));
+        writer.write(format("%s%s_count{%s} %d\n", PREFIX, name, labels, histogram.getCount()));
+    }
+
+    private static void writeSample(Writer writer, String name, String label, String value, long sample)
+            throws IOException {
+        writer.write(format("%s%s{%s=\"%s\"} %d\n", PREFIX, name, label, escape(value), sample));
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * The stats of one feed.
+     */
+    static class FeedStats implements FeedStatsMBean {
+        final Histogram fetch = new Histogram();
+        final Histogram parse = new Histogram();
+        final Histogram write = new Histogram();
+        final AtomicLong fetchBytes = new AtomicLong();
+        final AtomicLong fetchDecodedBytes = new AtomicLong();
+        final AtomicLong entriesAdded = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong unchangedRegions = new AtomicLong();
+
+        @Override
+        public long getFetchCount() {
+            return fetch.getCount();
+        }
+
+        @Override
+        public double getFetchSeconds() {
+            return fetch.getSumSeconds();
+        }
+
+        @Override
+        public long getFetchBytes() {
+            return fetchBytes.get();
+        }
+
+        @Override
+        public long getFetchDecodedBytes() {
+            return fetchDecodedBytes.get();
+        }
+
+        @Override
+        public long getParseCount() {
+            return parse.getCount();
+        }
+
+        @Override
+        public double getParseSeconds() {
+            return parse.getSumSeconds();
+        }
+
+        @Override
+        public long getWriteCount() {
+            return write.getCount();
+        }
+
+        @Override
+        public double getWriteSeconds() {
+            return write.getSumSeconds();
+        }
+
+        @Override
+        public long getEntriesAdded() {
+            return entriesAdded.get();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.get();
+        }
+
+        @Override
+        public long getUnchangedRegions() {
+            return unchangedRegions.get();
+        }
+    }
+
+    /**
+     * The stats of the requests made to one host.
+     */
+    static class HostStats implements HostStatsMBean {
+        final Histogram request = new Histogram();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+
+        @Override
+        public long getRequestCount() {
+            return request.getCount();
+        }
+
+        @Override
+        public double getRequestSeconds() {
+            return request.getSumSeconds();
+        }
+
+        @Override
+        public long getRequestBytes() {
+            return bytes.get();
+        }
+
+        @Override
+        public long getRequestErrors() {
+            return errors.get();
+        }
+    }
+}
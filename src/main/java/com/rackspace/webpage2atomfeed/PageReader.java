@@ -0,0 +1,218 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a web page as it streams in and turns every new line into a single space on the way through.
+ * </p>
+ * The charset comes from the Content-Type header, then from a meta tag near the top of the page, then defaults to
+ * UTF-8. Compressed bodies are inflated by {@link #decode(InputStream, String)} first, and the max body size applies to
+ * the inflated page so a small compressed body can't expand without limit.
+ */
+class PageReader {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int SNIFF_SIZE = 1024;
+    private static final Pattern CHARSET_PATTERN = Pattern.compile("charset\\s*=\\s*[\"']?([\\w.:-]+)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern META_CHARSET_PATTERN = Pattern.compile("<meta[^>]+?charset\\s*=\\s*[\"']?([\\w.:-]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private final long maxBodySize;
+
+    /**
+     * @param maxBodySize The largest body, in bytes, that will be read.
+     */
+    PageReader(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Read a whole page.
+     *
+     * @param body The page body.
+     * @param contentType The Content-Type header or null.
+     * @param contentLength The Content-Length header or -1.
+     * @return The page source code with all new lines replaced by a space.
+     * @throws IOException if the body is bigger than the max body size.
+     */
+    String read(InputStream body, String contentType, long contentLength) throws IOException {
+        InputStream in = new BufferedInputStream(new BoundedInputStream(body, maxBodySize), BUFFER_SIZE);
+        Charset charset = getCharset(contentType, CHARSET_PATTERN);
+
+        if (charset == null) charset = sniffCharset(in);
+        if (charset == null) charset = StandardCharsets.UTF_8;
+
+        int capacity = contentLength > 0 ? (int) Math.min(contentLength, Math.min(maxBodySize, Integer.MAX_VALUE))
+                : BUFFER_SIZE;
+        StringBuilder pageSource = new StringBuilder(capacity);
+        char[] buffer = new char[BUFFER_SIZE];
+        boolean lastWasCarriageReturn = false;
+
+        try (Reader reader = new InputStreamReader(in, charset)) {
+            int count;
+
+            while ((count = reader.read(buffer)) != -1) {
+                for (int i = 0; i < count; i++) {
+                    char c = buffer[i];
+
+                    if (c == '\r') {
+                        pageSource.append(' ');
+                        lastWasCarriageReturn = true;
+                    }
+                    else if (c == '\n') {
+                        if (!lastWasCarriageReturn) pageSource.append(' ');
+                        lastWasCarriageReturn = false;
+                    }
+                    else {
+                        pageSource.append(c);
+                        lastWasCarriageReturn = false;
+                    }
+                }
+            }
+        }
+
+        return pageSource.toString();
+    }
+
+    /**
+     * Undo the Content-Encoding of a response body as it streams in.
+     *
+     * @param body The body as it came over the wire.
+     * @param contentEncoding The Content-Encoding header or null.
+     * @return The decoded body.
+     * @throws IOException if the encoding isn't gzip, deflate or identity.
+     */
+    static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        if (contentEncoding == null) return body;
+
+        String encoding = contentEncoding.trim().toLowerCase();
+
+        switch (encoding) {
+            case "":
+            case "identity":
+                return body;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(body, BUFFER_SIZE);
+            case "deflate":
+                return inflate(body);
+            default:
+                throw new IOException("Unsupported Content-Encoding " + contentEncoding);
+        }
+    }
+
+    /**
+     * Deflate is meant to be zlib wrapped, but some servers send raw deflate data, so look at the first two bytes
+     * for a zlib header.
+     */
+    private static InputStream inflate(InputStream body) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(body, 2);
+        int first = in.read();
+        int second = first == -1 ? -1 : in.read();
+
+        if (second != -1) in.unread(second);
+        if (first != -1) in.unread(first);
+
+        boolean zlib = second != -1 && (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0;
+
+        return new InflaterInputStream(in, new Inflater(!zlib), BUFFER_SIZE);
+    }
+
+    private Charset sniffCharset(InputStream in) throws IOException {
+        byte[] prefix = new byte[SNIFF_SIZE];
+        int length = 0;
+
+        in.mark(SNIFF_SIZE);
+
+        try {
+            int count;
+
+            while (length < SNIFF_SIZE && (count = in.read(prefix, length, SNIFF_SIZE - length)) != -1) {
+                length += count;
+            }
+        }
+        finally {
+            in.reset();
+        }
+
+        return getCharset(new String(prefix, 0, length, StandardCharsets.ISO_8859_1), META_CHARSET_PATTERN);
+    }
+
+    private Charset getCharset(String text, Pattern charsetPattern) {
+        if (text == null) return null;
+
+        Matcher matcher = charsetPattern.matcher(text);
+
+        if (!matcher.find()) return null;
+
+        try {
+            return Charset.forName(matcher.group(1));
+        }
+        catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Fails the read once more than the allowed number of bytes has come through.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long bytesRead;
+        private boolean tooBig;
+
+        private BoundedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if (b != -1) count(1);
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+
+            if (count != -1) count(count);
+
+            return count;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Leaves an oversized body unread. Closing it would read the rest of it.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!tooBig) super.close();
+        }
+
+        private void count(int count) throws IOException {
+            bytesRead += count;
+
+            if (bytesRead > maxBytes) {
+                tooBig = true;
+                throw new IOException(String.format("Web page is bigger than the max body size of %d bytes", maxBytes));
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * Flags regular expressions that are likely to backtrack catastrophically on a large page. It is a heuristic: a
+ * pattern without warnings can still be slow, which is what the match time budget in getFeed is for.
+ * </p>
+ * Three shapes are flagged:
+ * <ul>
+ * <li>a quantified group that contains an unbounded quantifier, such as (a+)+ or (.*?,)*</li>
+ * <li>two unbounded wildcards with nothing literal between them, such as .*?(.*?) or .+.*</li>
+ * <li>a pattern that starts with an unbounded wildcard, which is retried from every position of the page</li>
+ * </ul>
+ * Possessive quantifiers and atomic groups don't backtrack and aren't flagged.
+ */
+final class PatternLinter {
+    private PatternLinter() {
+    }
+
+    /**
+     * @param regex A regular expression that compiles.
+     * @return A description of each risky construct, empty if none was found.
+     */
+    static List<String> lint(String regex) {
+        List<String> warnings = new ArrayList<>();
+        Deque<Group> groups = new ArrayDeque<>();
+        groups.push(new Group(false));
+        boolean afterWildcard = false;
+        boolean seenAtom = false;
+        int i = 0;
+
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            int atomStart = i;
+            boolean wildcard = false;
+            boolean literal = false;
+            Group closedGroup = null;
+
+            if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    i = end == -1 ? regex.length() : end + 2;
+                }
+                else {
+                    wildcard = i + 1 < regex.length() && regex.charAt(i + 1) == 'S';
+                    i += 2;
+                }
+
+                literal = !wildcard;
+            }
+            else if (c == '[') {
+                i = skipClass(regex, i);
+                literal = true;
+            }
+            else if (c == '(') {
+                if (regex.startsWith("(?", i) && isFlags(regex, i)) {
+                    i = regex.indexOf(')', i) + 1;
+                }
+                else {
+                    groups.push(new Group(regex.startsWith("(?>", i)));
+                    i = skipGroupStart(regex, i);
+                }
+
+                continue;
+            }
+            else if (c == ')') {
+                closedGroup = groups.size() > 1 ? groups.pop() : new Group(false);
+                i++;
+            }
+            else if (c == '|') {
+                afterWildcard = false;
+                i++;
+                continue;
+            }
+            else if (c == '^' || c == '$') {
+                if (c == '^' && i == 0) seenAtom = true;
+
+                i++;
+                continue;
+            }
+            else {
+                wildcard = c == '.';
+                literal = !wildcard;
+                i++;
+            }
+
+            int quantifierStart = i;
+            boolean unbounded = false;
+
+            if (i < regex.length()) {
+                char q = regex.charAt(i);
+
+                if (q == '*' || q == '+') {
+                    unbounded = true;
+                    i++;
+                }
+                else if (q == '?') {
+                    i++;
+                }
+                else if (q == '{') {
+                    int end = regex.indexOf('}', i);
+
+                    if (end != -1) {
+                        unbounded = regex.substring(i, end).endsWith(",");
+                        i = end + 1;
+                    }
+                }
+            }
+
+            boolean quantified = i > quantifierStart;
+            boolean possessive = false;
+
+            if (quantified && i < regex.length()) {
+                if (regex.charAt(i) == '+') {
+                    possessive = true;
+                    i++;
+                }
+                else if (regex.charAt(i) == '?') {
+                    i++;
+                }
+            }
+
+            if (closedGroup != null && !closedGroup.atomic && closedGroup.hasUnbounded) {
+                groups.peek().hasUnbounded = true;
+
+                if (unbounded && !possessive) {
+                    warnings.add(format("nested quantifier %s can backtrack catastrophically",
+                            regex.substring(findGroupStart(regex, atomStart), i)));
+                }
+            }
+
+            if (unbounded && !possessive) {
+                groups.peek().hasUnbounded = true;
+
+                if (wildcard) {
+                    String atom = regex.substring(atomStart, i);
+
+                    if (!seenAtom) {
+                        warnings.add(format("leading %s is retried from every position, start with a literal", atom));
+                    }
+                    else if (afterWildcard) {
+                        warnings.add(format("%s at index %d directly follows another wildcard", atom, atomStart));
+                    }
+
+                    afterWildcard = true;
+                }
+            }
+            else if (literal) {
+                afterWildcard = false;
+            }
+
+            seenAtom = true;
+        }
+
+        return warnings;
+    }
+
+    private static boolean isFlags(String regex, int start) {
+        int i = start + 2;
+
+        while (i < regex.length() && (Character.isLetter(regex.charAt(i)) || regex.charAt(i) == '-')) i++;
+
+        return i < regex.length() && regex.charAt(i) == ')';
+    }
+
+    private static int skipGroupStart(String regex, int start) {
+        if (!regex.startsWith("(?", start)) return start + 1;
+
+        if (regex.startsWith("(?<", start) && start + 3 < regex.length() &&
+                regex.charAt(start + 3) != '=' && regex.charAt(start + 3) != '!') {
+            return regex.indexOf('>', start) + 1;
+        }
+
+        int i = start + 2;
+
+        while (i < regex.length() && regex.charAt(i) != ':' && "=!<>".indexOf(regex.charAt(i)) == -1) i++;
+        while (i < regex.length() && "=!<>:".indexOf(regex.charAt(i)) != -1) i++;
+
+        return i;
+    }
+
+    private static int skipClass(String regex, int start) {
+        int i = start + 1;
+
+        if (i < regex.length() && regex.charAt(i) == '^') i++;
+        if (i < regex.length() && regex.charAt(i) == ']') i++;
+
+        int depth = 1;
+
+        while (i < regex.length() && depth > 0) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                i++;
+            }
+            else if (c == '[') {
+                depth++;
+            }
+            else if (c == ']') {
+                depth--;
+            }
+
+            i++;
+        }
+
+        return i;
+    }
+
+    private static int findGroupStart(String regex, int closeIndex) {
+        int depth = 0;
+
+        for (int i = closeIndex; i >= 0; i--) {
+            char c = regex.charAt(i);
+
+            if (i > 0 && regex.charAt(i - 1) == '\\') continue;
+
+            if (c == ')') depth++;
+
+            if (c == '(' && --depth == 0) return i;
+        }
+
+        return 0;
+    }
+
+    private static class Group {
+        private final boolean atomic;
+        private boolean hasUnbounded;
+
+        private Group(boolean atomic) {
+            this.atomic = atomic;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.IOException;
+
+import static java.lang.String.format;
+
+/**
+ * A feed's page and entry patterns took longer to match than regex.timeout.ms allows.
+ */
+public class PatternTimeoutException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public PatternTimeoutException(String title, long timeoutMillis) {
+        super(format("Feed %s: patterns took longer than %d ms to match, skipped", title, timeoutMillis));
+    }
+}
@@ -0,0 +1,102 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers a hash of the part of each feed's page that the page pattern picks out, so a page that only changed
+ * outside that region doesn't have to be parsed and written again.
+ * </p>
+ * A new hash is only kept once its feed has been written: it is pending until {@link #commit(String)}, and dropped by
+ * {@link #discard(String)} if the feed fails.
+ */
+class RegionHashes {
+    private static final String REGION_HASH = ".region.hash";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final StateFile stateFile;
+    private final Map<String, String> pendingHashes = new HashMap<>();
+
+    RegionHashes(StateFile stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the region, of the parts of the feed definition that decide what is made of it, and of
+     * the fields written into the feed file, so changing the feed's patterns, groups, title, subtitle, author, id,
+     * links or archive page size also counts as a change.
+     *
+     * @param feed The feed.
+     * @param archivePageSize Entries in the feed file and in each archive, or 0 for no archives.
+     * @param page The page source.
+     * @param start Start of the region.
+     * @param end End of the region.
+     * @return The hash.
+     */
+    static long hash(FeedDefinition feed, int archivePageSize, CharSequence page, int start, int end) {
+        long hash = FNV_OFFSET_BASIS;
+
+        for (String field : new String[] { feed.getUrl(), feed.getHomeUrl(), feed.getId(), feed.getTitle(),
+                feed.getDescription(), feed.getAuthor(), feed.getEntryPattern().pattern() }) {
+            hash = hash(hash, field);
+        }
+
+        hash = hash(hash, feed.getEntryMax() + "/" + feed.getEntryTitleGroup() + "/" + feed.getEntryUrlGroup() + "/" +
+                feed.getEntryContentGroup() + "/" + archivePageSize);
+
+        return hash(hash, page, start, end);
+    }
+
+    /**
+     * @param title Feed title.
+     * @param hash The hash of the feed's page region.
+     * @return True if the hash is the one kept for the feed's last successful run.
+     */
+    synchronized boolean isUnchanged(String title, long hash) {
+        return Long.toHexString(hash).equals(stateFile.get(title + REGION_HASH));
+    }
+
+    /**
+     * @param title Feed title.
+     * @param hash The hash of the region being parsed, kept once the feed has been written.
+     */
+    synchronized void setPending(String title, long hash) {
+        pendingHashes.put(title, Long.toHexString(hash));
+    }
+
+    synchronized void commit(String title) {
+        String hash = pendingHashes.remove(title);
+
+        if (hash != null) stateFile.put(title + REGION_HASH, hash);
+    }
+
+    synchronized void discard(String title) {
+        pendingHashes.remove(title);
+    }
+
+    synchronized void remove(String title) {
+        stateFile.remove(title + REGION_HASH);
+    }
+
+    synchronized void save() throws IOException {
+        stateFile.save();
+    }
+
+    /**
+     * Hash a field followed by a separator, so that moving text from one field to the next changes the hash. A missing
+     * field hashes differently from an empty one.
+     */
+    private static long hash(long hash, String field) {
+        if (field != null) hash = hash(hash, field, 0, field.length());
+
+        return (hash ^ (field == null ? 1 : 0)) * FNV_PRIME;
+    }
+
+    private static long hash(long hash, CharSequence value, int start, int end) {
+        for (int i = start; i < end; i++) hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+
+        return hash;
+    }
+}
@@ -0,0 +1,35 @@
+package com.rackspace.webpage2atomfeed;
+
+/**
+ * Caps retries at a fraction of all requests, so a run against failing hosts doesn't spend its time retrying.
+ */
+class RetryBudget {
+    private final double ratio;
+    private final int minRetries;
+    private long requests;
+    private long retries;
+
+    /**
+     * @param ratio Retries allowed per request made.
+     * @param minRetries Retries allowed on top of the ratio, so a few requests can still be retried.
+     */
+    RetryBudget(double ratio, int minRetries) {
+        this.ratio = ratio;
+        this.minRetries = minRetries;
+    }
+
+    synchronized void recordRequest() {
+        requests++;
+    }
+
+    /**
+     * @return True if a retry is allowed, in which case it is taken from the budget.
+     */
+    synchronized boolean tryRetry() {
+        if (retries >= minRetries + (long) (ratio * requests)) return false;
+
+        retries++;
+
+        return true;
+    }
+}
@@ -0,0 +1,273 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * The subset of CSS selectors needed to pick entries out of a page: type, universal, #id, .class and [attribute]
+ * selectors with =, ~=, ^=, $= and *= values, joined by descendant (space) and child (&gt;) combinators, and
+ * comma-separated alternatives.
+ * </p>
+ * A selector starting with '+' is relative to an entry's following siblings rather than to the entry itself, for pages
+ * where an entry's heading and body sit next to each other instead of one inside the other.
+ * </p>
+ * Selectors are matched against the stack of open elements while the page is tokenized, so they only look at an
+ * element and its ancestors.
+ */
+final class Selector {
+    private final String source;
+    private final boolean sibling;
+    private final List<List<Compound>> alternatives;
+
+    private Selector(String source, boolean sibling, List<List<Compound>> alternatives) {
+        this.source = source;
+        this.sibling = sibling;
+        this.alternatives = alternatives;
+    }
+
+    /**
+     * @param selector The selector text.
+     * @return The parsed selector.
+     * @throws IllegalArgumentException if the selector is empty or uses syntax that isn't supported.
+     */
+    static Selector parse(String selector) {
+        String text = selector.trim();
+        boolean sibling = text.startsWith("+");
+
+        if (sibling) text = text.substring(1);
+
+        List<List<Compound>> alternatives = new ArrayList<>();
+
+        for (String alternative : text.split(",")) alternatives.add(parseAlternative(selector, alternative));
+
+        return new Selector(selector.trim(), sibling, alternatives);
+    }
+
+    /**
+     * @return True if the selector starts with '+' and applies to the elements after an entry.
+     */
+    boolean isSibling() {
+        return sibling;
+    }
+
+    /**
+     * @param stack The open elements, from the root to the element being matched.
+     * @param from Index of the first element in the stack the selector may look at, so ancestors above it are ignored.
+     * @return True if the last element in the stack matches.
+     */
+    boolean matches(List<HtmlTokenizer.Tag> stack, int from) {
+        for (List<Compound> compounds : alternatives) {
+            if (matches(compounds, compounds.size() - 1, stack, stack.size() - 1, from)) return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private static boolean matches(List<Compound> compounds, int compoundIndex, List<HtmlTokenizer.Tag> stack,
+                                   int stackIndex, int from) {
+        Compound compound = compounds.get(compoundIndex);
+
+        if (stackIndex < from || !compound.matches(stack.get(stackIndex))) return false;
+        if (compoundIndex == 0) return true;
+
+        if (compound.child) return matches(compounds, compoundIndex - 1, stack, stackIndex - 1, from);
+
+        for (int ancestor = stackIndex - 1; ancestor >= from; ancestor--) {
+            if (matches(compounds, compoundIndex - 1, stack, ancestor, from)) return true;
+        }
+
+        return false;
+    }
+
+    private static List<Compound> parseAlternative(String selector, String alternative) {
+        List<Compound> compounds = new ArrayList<>();
+        int i = 0;
+        boolean child = false;
+
+        while (i < alternative.length()) {
+            char c = alternative.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                i++;
+            }
+            else if (c == '>') {
+                if (compounds.isEmpty() || child) throw invalid(selector, "misplaced '>'");
+
+                child = true;
+                i++;
+            }
+            else {
+                Compound compound = new Compound(child);
+                i = compound.parse(selector, alternative, i);
+                compounds.add(compound);
+                child = false;
+            }
+        }
+
+        if (compounds.isEmpty() || child) throw invalid(selector, "a selector is missing");
+
+        return compounds;
+    }
+
+    private static IllegalArgumentException invalid(String selector, String reason) {
+        return new IllegalArgumentException(format("%s is not a supported selector: %s", selector, reason));
+    }
+
+    /**
+     * One element's worth of a selector, such as div.entry[data-id].
+     */
+    private static final class Compound {
+        private final boolean child;
+        private String name;
+        private String id;
+        private final List<String> classes = new ArrayList<>();
+        private final List<String[]> attributes = new ArrayList<>();
+
+        /**
+         * @param child True if the element must be a child of the element matched by the previous compound.
+         */
+        private Compound(boolean child) {
+            this.child = child;
+        }
+
+        private int parse(String selector, String text, int start) {
+            int i = start;
+
+            if (text.charAt(i) == '*') {
+                i++;
+            }
+            else if (isNameChar(text.charAt(i))) {
+                int end = nameEnd(text, i);
+                name = text.substring(i, end).toLowerCase();
+                i = end;
+            }
+
+            while (i < text.length()) {
+                char c = text.charAt(i);
+
+                if (c == '#' || c == '.') {
+                    int end = nameEnd(text, i + 1);
+
+                    if (end == i + 1) throw invalid(selector, format("'%s' without a name", c));
+
+                    if (c == '#') {
+                        id = text.substring(i + 1, end);
+                    }
+                    else {
+                        classes.add(text.substring(i + 1, end));
+                    }
+
+                    i = end;
+                }
+                else if (c == '[') {
+                    int end = text.indexOf(']', i);
+
+                    if (end == -1) throw invalid(selector, "'[' without ']'");
+
+                    attributes.add(parseAttribute(selector, text.substring(i + 1, end)));
+                    i = end + 1;
+                }
+                else if (Character.isWhitespace(c) || c == '>') {
+                    break;
+                }
+                else {
+                    throw invalid(selector, format("unexpected '%s'", c));
+                }
+            }
+
+            if (i == start) throw invalid(selector, format("unexpected '%s'", text.charAt(start)));
+
+            return i;
+        }
+
+        private static String[] parseAttribute(String selector, String text) {
+            int equals = text.indexOf('=');
+
+            if (equals == -1) return new String[]{text.trim().toLowerCase(), null, null};
+
+            String operator = "=";
+            int nameEnd = equals;
+
+            if (equals > 0 && "~^$*".indexOf(text.charAt(equals - 1)) != -1) {
+                operator = text.charAt(equals - 1) + "=";
+                nameEnd = equals - 1;
+            }
+
+            String name = text.substring(0, nameEnd).trim().toLowerCase();
+            String value = text.substring(equals + 1).trim();
+
+            if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'') &&
+                    value.charAt(value.length() - 1) == value.charAt(0)) {
+                value = value.substring(1, value.length() - 1);
+            }
+
+            if (name.isEmpty()) throw invalid(selector, "attribute without a name");
+
+            return new String[]{name, operator, value};
+        }
+
+        private boolean matches(HtmlTokenizer.Tag tag) {
+            if (name != null && !name.equals(tag.getName())) return false;
+            if (id != null && !id.equals(tag.getAttribute("id"))) return false;
+
+            for (String className : classes) {
+                if (!containsWord(tag.getAttribute("class"), className)) return false;
+            }
+
+            for (String[] attribute : attributes) {
+                String value = tag.getAttribute(attribute[0]);
+
+                if (value == null) return false;
+                if (attribute[1] == null) continue;
+
+                switch (attribute[1]) {
+                    case "=":
+                        if (!value.equals(attribute[2])) return false;
+                        break;
+                    case "~=":
+                        if (!containsWord(value, attribute[2])) return false;
+                        break;
+                    case "^=":
+                        if (!value.startsWith(attribute[2])) return false;
+                        break;
+                    case "$=":
+                        if (!value.endsWith(attribute[2])) return false;
+                        break;
+                    default:
+                        if (!value.contains(attribute[2])) return false;
+                }
+            }
+
+            return true;
+        }
+
+        private static boolean containsWord(String words, String word) {
+            if (words == null) return false;
+
+            for (String candidate : words.trim().split("\\s+")) {
+                if (candidate.equals(word)) return true;
+            }
+
+            return false;
+        }
+
+        private static int nameEnd(String text, int start) {
+            int i = start;
+
+            while (i < text.length() && isNameChar(text.charAt(i))) i++;
+
+            return i;
+        }
+
+        private static boolean isNameChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+        }
+    }
+}
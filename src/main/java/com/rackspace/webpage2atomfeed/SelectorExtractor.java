@@ -0,0 +1,306 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Picks entries out of a web page with the page, entry, title, link and content selectors of a feed, in one pass of
+ * an {@link HtmlTokenizer}. Tokenizing stops as soon as entry.max entries have been found or the container element
+ * selected by page.selector ends.
+ * </p>
+ * The title is the text of the element selected by entry.title.selector, or of the entry element if it isn't set. The
+ * link is the href of the first element selected by entry.link.selector that has one, and the content is the HTML of
+ * the element selected by entry.content.selector. Entries without a title, or without a link when entry.link.selector
+ * is set, are skipped.
+ */
+class SelectorExtractor {
+    private static final Set<String> CLOSES_PARAGRAPH = new HashSet<>(Arrays.asList(
+            "address", "article", "aside", "blockquote", "dd", "div", "dl", "dt", "footer", "h1", "h2", "h3", "h4",
+            "h5", "h6", "header", "hr", "li", "ol", "p", "pre", "section", "table", "ul"));
+
+    private final Selector pageSelector;
+    private final Selector entrySelector;
+    private final Selector titleSelector;
+    private final Selector linkSelector;
+    private final Selector contentSelector;
+    private final int entryMax;
+
+    /**
+     * @param feedDefinition A feed definition with an entry selector.
+     */
+    SelectorExtractor(FeedDefinition feedDefinition) {
+        this.pageSelector = feedDefinition.getPageSelector();
+        this.entrySelector = feedDefinition.getEntrySelector();
+        this.titleSelector = feedDefinition.getEntryTitleSelector();
+        this.linkSelector = feedDefinition.getEntryLinkSelector();
+        this.contentSelector = feedDefinition.getEntryContentSelector();
+        this.entryMax = feedDefinition.getEntryMax();
+    }
+
+    /**
+     * @param pageSource The web page source code.
+     * @return Up to entry.max entries, in page order.
+     */
+    List<ExtractedEntry> extract(String pageSource) {
+        return new Extraction(pageSource).run();
+    }
+
+    /**
+     * The title, link and content of one entry. Link and content are null when their selector isn't set.
+     */
+    static final class ExtractedEntry {
+        private final String title;
+        private final String link;
+        private final String content;
+
+        ExtractedEntry(String title, String link, String content) {
+            this.title = title;
+            this.link = link;
+            this.content = content;
+        }
+
+        String getTitle() {
+            return title;
+        }
+
+        String getLink() {
+            return link;
+        }
+
+        String getContent() {
+            return content;
+        }
+    }
+
+    /**
+     * The state of extracting the entries from one page.
+     */
+    private class Extraction {
+        private final String pageSource;
+        private final HtmlTokenizer tokenizer;
+        private final List<HtmlTokenizer.Tag> stack = new ArrayList<>();
+        private final List<ExtractedEntry> entries = new ArrayList<>();
+        private final Field title;
+        private final Field link;
+        private final Field content;
+        private int containerDepth;
+        private boolean done;
+        private int entryDepth = -1;
+        private boolean entryOpen;
+
+        private Extraction(String pageSource) {
+            this.pageSource = pageSource;
+            this.tokenizer = new HtmlTokenizer(pageSource);
+            this.title = new Field(titleSelector);
+            this.link = new Field(linkSelector);
+            this.content = new Field(contentSelector);
+            this.containerDepth = pageSelector == null ? 0 : -1;
+        }
+
+        private List<ExtractedEntry> run() {
+            while (!done) {
+                switch (tokenizer.next()) {
+                    case START_TAG:
+                        startTag(tokenizer.getTag());
+                        break;
+                    case END_TAG:
+                        endTag(tokenizer.getEndTagName());
+                        break;
+                    case TEXT:
+                        title.append(pageSource, tokenizer.getTokenStart(), tokenizer.getTokenEnd());
+                        break;
+                    default:
+                        while (!stack.isEmpty() && !done) close(pageSource.length());
+
+                        finishEntry();
+                        done = true;
+                }
+            }
+
+            return entries;
+        }
+
+        private void startTag(HtmlTokenizer.Tag tag) {
+            closeImpliedElements(tag.getName());
+
+            if (done) return;
+
+            stack.add(tag);
+            int depth = stack.size();
+
+            if (containerDepth == -1 && pageSelector.matches(stack, 0)) containerDepth = depth;
+
+            if (containerDepth != -1 && depth > containerDepth && !entryOpen && entrySelector.matches(stack, 0)) {
+                finishEntry();
+
+                if (done) return;
+
+                entryDepth = depth;
+                entryOpen = true;
+
+                if (titleSelector == null) title.start(depth, tokenizer.getTokenStart());
+            }
+
+            if (entryDepth != -1) {
+                if (entryOpen) {
+                    startFields(tag, depth, false, entryDepth - 1);
+                }
+                else if (depth >= entryDepth) {
+                    startFields(tag, depth, true, entryDepth - 1);
+                }
+            }
+
+            if (tag.isSelfClosing()) close(tokenizer.getTokenEnd());
+        }
+
+        /**
+         * Close the elements whose end tags are commonly left out, such as a list item before the next one.
+         */
+        private void closeImpliedElements(String name) {
+            if (CLOSES_PARAGRAPH.contains(name)) {
+                while (!done && !stack.isEmpty() && isOpen("p")) close(tokenizer.getTokenStart());
+            }
+
+            if (!done && (name.equals("li") && isOpen("li") || name.equals("tr") && isOpen("tr") ||
+                    name.equals("option") && isOpen("option") ||
+                    (name.equals("dt") || name.equals("dd")) && (isOpen("dt") || isOpen("dd")) ||
+                    (name.equals("td") || name.equals("th")) && (isOpen("td") || isOpen("th")))) {
+                close(tokenizer.getTokenStart());
+            }
+        }
+
+        /**
+         * @return True if the innermost open element has this name.
+         */
+        private boolean isOpen(String name) {
+            return !stack.isEmpty() && stack.get(stack.size() - 1).getName().equals(name);
+        }
+
+        private void startFields(HtmlTokenizer.Tag tag, int depth, boolean sibling, int from) {
+            title.startIfMatches(depth, sibling, from);
+            content.startIfMatches(depth, sibling, from);
+
+            if (link.matches(sibling, from) && tag.getAttribute("href") != null) {
+                link.value = tag.getAttribute("href").trim();
+            }
+        }
+
+        private void endTag(String name) {
+            for (int i = stack.size() - 1; i >= 0; i--) {
+                if (stack.get(i).getName().equals(name)) {
+                    while (stack.size() > i && !done) close(tokenizer.getTokenEnd());
+
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Pop the innermost open element.
+         *
+         * @param end Where the element ends in the page.
+         */
+        private void close(int end) {
+            int depth = stack.size();
+
+            title.endIfOpen(depth, end);
+            content.endIfOpen(depth, end);
+            stack.remove(depth - 1);
+
+            if (depth == entryDepth) {
+                entryOpen = false;
+
+                if (!title.waitsForSibling() && !link.waitsForSibling() && !content.waitsForSibling()) finishEntry();
+            }
+            else if (entryDepth != -1 && depth == entryDepth - 1) {
+                finishEntry();
+            }
+
+            if (depth == containerDepth) {
+                finishEntry();
+                done = true;
+            }
+        }
+
+        private void finishEntry() {
+            if (entryDepth == -1) return;
+
+            String entryTitle = title.getText();
+
+            if (!entryTitle.isEmpty() && (linkSelector == null || link.value != null)) {
+                entries.add(new ExtractedEntry(entryTitle, link.value, contentSelector == null ? null : content.value));
+            }
+
+            entryDepth = -1;
+            entryOpen = false;
+            title.reset();
+            link.reset();
+            content.reset();
+
+            if (entries.size() >= entryMax) done = true;
+        }
+
+        /**
+         * Collects the value of one of the entry's fields.
+         */
+        private class Field {
+            private final Selector selector;
+            private int depth = -1;
+            private int start;
+            private StringBuilder text;
+            private String value;
+
+            private Field(Selector selector) {
+                this.selector = selector;
+            }
+
+            private boolean matches(boolean sibling, int from) {
+                return value == null && depth == -1 && selector != null && selector.isSibling() == sibling &&
+                        selector.matches(stack, from);
+            }
+
+            private void startIfMatches(int elementDepth, boolean sibling, int from) {
+                if (matches(sibling, from)) start(elementDepth, tokenizer.getTokenStart());
+            }
+
+            private void start(int elementDepth, int elementStart) {
+                depth = elementDepth;
+                start = elementStart;
+                text = new StringBuilder();
+            }
+
+            private void append(String source, int textStart, int textEnd) {
+                if (depth != -1) text.append(source, textStart, textEnd);
+            }
+
+            private void endIfOpen(int elementDepth, int end) {
+                if (depth != elementDepth) return;
+
+                value = pageSource.substring(start, end).trim();
+                depth = -1;
+            }
+
+            private boolean waitsForSibling() {
+                return selector != null && selector.isSibling() && value == null;
+            }
+
+            /**
+             * @return The text of the element with entities replaced and white space collapsed.
+             */
+            private String getText() {
+                if (text == null) return "";
+
+                return HtmlTokenizer.decode(text.toString()).replaceAll("\\s+", " ").trim();
+            }
+
+            private void reset() {
+                depth = -1;
+                text = null;
+                value = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A small key/value file that keeps state between runs. Changes are held in memory until {@link #save()}. Without a
+ * file the state only lasts as long as the process.
+ * </p>
+ * Runs that overlap may share the file, so saving merges: only the keys changed since the last save are written over
+ * what is on disk, and the keys other runs saved in the meantime are kept.
+ */
+class StateFile {
+    private final File file;
+    private final Properties values = new Properties();
+    private final Map<String, String> changes = new HashMap<>();
+
+    /**
+     * Keep the state in memory only.
+     */
+    StateFile() {
+        this.file = null;
+    }
+
+    StateFile(File file) throws IOException {
+        this.file = file;
+        values.putAll(load(file));
+    }
+
+    synchronized String get(String key) {
+        return values.getProperty(key);
+    }
+
+    synchronized void put(String key, String value) {
+        if (value == null) {
+            values.remove(key);
+        }
+        else {
+            values.setProperty(key, value);
+        }
+
+        changes.put(key, value);
+    }
+
+    synchronized void remove(String key) {
+        values.remove(key);
+        changes.put(key, null);
+    }
+
+    /**
+     * Apply the changes made since the last save to the file, under its lock, and pick up what other runs saved.
+     * The file is replaced in one step so a crash never leaves it half written.
+     */
+    synchronized void save() throws IOException {
+        if (file == null) return;
+
+        synchronized (StateFile.class) {
+            try (FeedFiles.Lock lock = FeedFiles.lock(file)) {
+                final Properties merged = load(file);
+
+                for (Map.Entry<String, String> change : changes.entrySet()) {
+                    if (change.getValue() == null) {
+                        merged.remove(change.getKey());
+                    }
+                    else {
+                        merged.setProperty(change.getKey(), change.getValue());
+                    }
+                }
+
+                FeedFiles.publish(file, new FeedFiles.Content() {
+                    @Override
+                    public void writeTo(OutputStream out) throws IOException {
+                        merged.store(out, null);
+                    }
+                });
+
+                values.clear();
+                values.putAll(merged);
+                changes.clear();
+            }
+        }
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            }
+        }
+
+        return properties;
+    }
+}
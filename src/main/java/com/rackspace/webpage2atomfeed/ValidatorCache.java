@@ -0,0 +1,75 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the ETag and Last-Modified validators of each feed's web page so the next request can be conditional.
+ * </p>
+ * Validators are kept per feed, so feeds sharing a URL each see a change. New validators are only kept once their
+ * feed has been written: they are pending until {@link #commit(String)}, and dropped by {@link #discard(String)} if
+ * the feed fails, so a failed feed fetches its whole page again next time.
+ */
+class ValidatorCache {
+    private static final String ETAG = ".etag";
+    private static final String LAST_MODIFIED = ".last.modified";
+
+    private final StateFile stateFile;
+    private final Map<String, String[]> pendingValidators = new HashMap<>();
+    private boolean changed;
+
+    ValidatorCache(File file) throws IOException {
+        stateFile = new StateFile(file);
+    }
+
+    synchronized String getETag(String title) {
+        return stateFile.get(title + ETAG);
+    }
+
+    synchronized String getLastModified(String title) {
+        return stateFile.get(title + LAST_MODIFIED);
+    }
+
+    /**
+     * @param title Feed title.
+     * @param eTag ETag of the page being parsed, or null.
+     * @param lastModified Last-Modified of the page being parsed, or null.
+     */
+    synchronized void setPending(String title, String eTag, String lastModified) {
+        pendingValidators.put(title, new String[]{eTag, lastModified});
+    }
+
+    synchronized void commit(String title) {
+        String[] validators = pendingValidators.remove(title);
+
+        if (validators == null) return;
+
+        stateFile.put(title + ETAG, validators[0]);
+        stateFile.put(title + LAST_MODIFIED, validators[1]);
+        changed = true;
+    }
+
+    synchronized void discard(String title) {
+        pendingValidators.remove(title);
+    }
+
+    synchronized void remove(String title) {
+        if (getETag(title) == null && getLastModified(title) == null) return;
+
+        stateFile.remove(title + ETAG);
+        stateFile.remove(title + LAST_MODIFIED);
+        changed = true;
+    }
+
+    /**
+     * Write the committed validators to disk, if any changed since the last save.
+     */
+    synchronized void save() throws IOException {
+        if (!changed) return;
+
+        stateFile.save();
+        changed = false;
+    }
+}
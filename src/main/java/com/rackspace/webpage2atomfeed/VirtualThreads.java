@@ -0,0 +1,50 @@
+package com.rackspace.webpage2atomfeed;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates virtual threads on a JVM that has them (Java 21 and later). The code is built for older JVMs too, so the
+ * API is looked up reflectively rather than called directly.
+ */
+final class VirtualThreads {
+    private static final Method NEW_PER_TASK_EXECUTOR = findNewPerTaskExecutor();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return True if the JVM can create virtual threads.
+     */
+    static boolean isSupported() {
+        return NEW_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * @return An executor that starts a new virtual thread for each task.
+     * @throws UnsupportedOperationException if the JVM can't create virtual threads.
+     */
+    static ExecutorService newPerTaskExecutor() {
+        if (NEW_PER_TASK_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+        }
+
+        try {
+            return (ExecutorService) NEW_PER_TASK_EXECUTOR.invoke(null);
+        }
+        catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Could not create a virtual thread executor", e);
+        }
+    }
+
+    private static Method findNewPerTaskExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -9,19 +9,13 @@ import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Node;
-import org.w3c.dom.bootstrap.DOMImplementationRegistry;
-import org.w3c.dom.ls.DOMImplementationLS;
-import org.w3c.dom.ls.LSOutput;
-import org.w3c.dom.ls.LSSerializer;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
+
 import java.io.*;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,38 +31,268 @@ import static org.apache.commons.httpclient.params.HttpMethodParams.RETRY_HANDLE
  * </p>
  * See the <a href="https://github.com/rackerlabs/WebPageToAtomFeed">GitHub repo</a>.
  */
-public class WebPageToAtomFeed {
+public class WebPageToAtomFeed implements Closeable {
     private static final String VERSION = "0.1";
 
     private final Logger logger = LoggerFactory.getLogger(WebPageToAtomFeed.class);
+    private final CountingConnectionManager connectionManager = new CountingConnectionManager();
+    private final HttpClient httpClient = new HttpClient(connectionManager);
     private boolean dryRunMode;
+    private int fetchThreads = 8;
+    private int fetchThreadsPerHost = 2;
+    private boolean virtualThreads = false;
+    private FeedShards feedShards;
+    private int parseThreads = Runtime.getRuntime().availableProcessors();
+    private int writeThreads = 2;
+    private int pipelineQueueSize = parseThreads;
+    private ValidatorCache validatorCache;
+    private HttpArchive httpArchive;
+    private RegionHashes regionHashes;
+    private CircuitBreaker circuitBreaker = new CircuitBreaker(new StateFile(), 3, 300000, 21600000);
+    private FeedStatus feedStatus = new FeedStatus(new StateFile());
+    private RetryBudget retryBudget = new RetryBudget(0.1, 3);
+    private int maxRetries = 3;
+    private boolean compression = true;
+    private long regexTimeoutMillis = 5000;
+    private Metrics metrics = new Metrics(false);
+    private File metricsFile;
+    private int serverPort;
+    private int serverThreads = 4;
+    private FeedServer feedServer;
+    private final AtomWriter atomWriter = new AtomWriter(VERSION);
+    private PageReader pageReader = new PageReader(10 * 1024 * 1024);
+    private HostLimiter hostLimiter = new HostLimiter(fetchThreadsPerHost);
+    private boolean daemonMode;
+    private int storeMaxEntries = 1000;
+    private long storeMaxAgeMillis;
+    private int archivePageSize;
+
+    public WebPageToAtomFeed() {
+        httpClient.getParams().setCookiePolicy(IGNORE_COOKIES);
+        setHttpPoolSize(fetchThreads, fetchThreadsPerHost);
+        setHttpTimeouts(10000, 30000);
+    }
 
     public static void main(String[] args) {
-        WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed();
-        webPageToAtomFeed.generateFeeds();
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.run();
+        }
     }
 
     /**
-     * Generate all of the feeds.
+     * Generate all of the feeds once, or keep generating them on a schedule when daemon.mode is set.
      */
-    private void generateFeeds() {
+    private void run() {
         try {
             Properties props = getProps();
-            setDryRunMode(Boolean.valueOf((props.getProperty("dry.run.mode", "false"))));
+            configure(props);
 
-            if (!dryRunMode) logger.info("BEGIN Generating Feeds");
+            if (daemonMode) {
+                if (serverPort > 0) startServer(serverPort, serverThreads);
 
-            List<Map<FeedProperty, String>> feedProps = getFeedProps(props);
-            Map<String, String> titleToWebPage = getWebPages(feedProps);
-            Map<String, Feed> titleToFeed = getFeeds(feedProps, titleToWebPage);
-            writeFeeds(feedProps, titleToFeed);
+                FeedScheduler scheduler = new FeedScheduler(this, getPropsFile(), props);
+                scheduler.run();
+            }
+            else {
+                if (serverPort > 0) logger.warn("server.port is only used in daemon mode");
+
+                generateAllFeeds(props);
+            }
         }
         catch (Exception e) {
-            e.printStackTrace();
+            logger.error("Stopped generating feeds", e);
+        }
+    }
+
+    private void generateAllFeeds(Properties props) throws Exception {
+        try {
+            if (!dryRunMode) logger.info("BEGIN Generating Feeds");
+
+            generateFeeds(getFeedDefinitions(props));
         }
         finally {
-            if (!dryRunMode) logger.info("END Generating Feeds");
+            if (!dryRunMode) {
+                logger.info(format("HTTP connection pool %d hits, %d misses", getPoolHits(), getPoolMisses()));
+                logger.info("END Generating Feeds");
+            }
+        }
+    }
+
+    /**
+     * Generate the feeds: fetch their web pages, parse them and write them to disk. Each feed goes through a
+     * {@link FeedPipeline}, so a feed is written as soon as its own page is parsed. In dry run mode the feeds are
+     * generated one after another to keep their output apart.
+     * </p>
+     * A feed that fails doesn't stop the others. The outcome of each feed is kept in the status file. When sharding
+     * is on, only the feeds this instance holds the lease of are generated.
+     *
+     * @param feeds A List of feeds.
+     * @throws Exception The first failure, once every feed has been tried.
+     */
+    protected void generateFeeds(List<FeedDefinition> feeds) throws Exception {
+        if (feedShards != null && !dryRunMode) feeds = claimFeeds(feeds);
+
+        List<Throwable> failures = new ArrayList<>();
+        long[] parsedAndSkipped = getParsedAndSkipped(feeds);
+
+        if (feedServer != null && !dryRunMode) serveFeedFiles(feeds);
+
+        if (dryRunMode || feeds.size() <= 1) {
+            for (FeedDefinition feed : feeds) {
+                try {
+                    String pageSource = getWebPage(feed);
+
+                    List<FeedEntry> entriesFromWebPage = pageSource == null ? null : getFeed(feed, pageSource);
+
+                    if (entriesFromWebPage == null || writeFeed(feed, entriesFromWebPage)) {
+                        feedSucceeded(feed);
+                    }
+                    else {
+                        feedSkipped(feed);
+                    }
+                }
+                catch (Exception e) {
+                    feedFailed(feed, e);
+                    failures.add(e);
+                }
+            }
+        }
+        else if (virtualThreads) {
+            failures = FeedPipeline.withVirtualThreads(this, parseThreads, writeThreads).run(feeds);
+        }
+        else {
+            failures = new FeedPipeline(this, Math.min(fetchThreads, feeds.size()), parseThreads, writeThreads,
+                    pipelineQueueSize).run(feeds);
+        }
+
+        if (!dryRunMode) {
+            if (validatorCache != null) validatorCache.save();
+
+            if (regionHashes != null) {
+                regionHashes.save();
+                logRegionsSkipped(feeds, parsedAndSkipped);
+            }
+
+            circuitBreaker.save();
+            feedStatus.save();
+            saveMetrics();
+        }
+
+        if (failures.isEmpty()) return;
+
+        if (!dryRunMode) logger.warn(format("%d of %d feeds failed", failures.size(), feeds.size()));
+
+        Throwable failure = failures.get(0);
+
+        if (failure instanceof Exception) throw (Exception) failure;
+
+        throw (Error) failure;
+    }
+
+    private List<FeedDefinition> claimFeeds(List<FeedDefinition> feeds) throws IOException {
+        List<FeedDefinition> claimed = feedShards.claim(feeds);
+
+        if (feeds.size() > 1) {
+            logger.info(format("Shard %s generating %d of %d feeds", feedShards.getWorkerId(), claimed.size(),
+                    feeds.size()));
+        }
+
+        return claimed;
+    }
+
+    /**
+     * Hand the feed files already on disk to the server, for feeds it doesn't have yet, so they are served before
+     * their pages next change.
+     */
+    private void serveFeedFiles(List<FeedDefinition> feeds) {
+        for (FeedDefinition feed : feeds) {
+            String path = FeedServer.getPath(feed.getFile());
+            File feedFile = new File(feed.getFile());
+
+            if (feedServer.contains(path) || !feedFile.exists()) continue;
+
+            try {
+                feedServer.publish(path, feedFile);
+
+                if (archivePageSize > 0) {
+                    for (File pageFile : new FeedArchives(feedFile).getPageFiles()) {
+                        if (pageFile.exists()) feedServer.publish(FeedServer.getPath(pageFile.getPath()), pageFile);
+                    }
+                }
+            }
+            catch (IOException e) {
+                logger.warn(format("Feed %s: could not load %s to serve it", feed, feedFile.getAbsolutePath()), e);
+            }
+        }
+    }
+
+    /**
+     * @return The number of pages of the feeds parsed so far, and the number skipped because their region hadn't
+     * changed.
+     */
+    private long[] getParsedAndSkipped(List<FeedDefinition> feeds) {
+        long[] parsedAndSkipped = new long[2];
+
+        for (FeedDefinition feed : feeds) {
+            Metrics.FeedStats feedStats = metrics.getFeedStats(feed.getTitle());
+            parsedAndSkipped[0] += feedStats.parse.getCount();
+            parsedAndSkipped[1] += feedStats.unchangedRegions.get();
+        }
+
+        return parsedAndSkipped;
+    }
+
+    private void logRegionsSkipped(List<FeedDefinition> feeds, long[] before) {
+        long[] after = getParsedAndSkipped(feeds);
+        long parsed = after[0] - before[0];
+        long skipped = after[1] - before[1];
+
+        if (parsed + skipped > 0) {
+            logger.info(format("Skipped %d of %d pages with an unchanged region, parsed %d",
+                    skipped, parsed + skipped, parsed));
+        }
+    }
+
+    void feedSucceeded(FeedDefinition feed) {
+        if (validatorCache != null) validatorCache.commit(feed.getTitle());
+        if (regionHashes != null) regionHashes.commit(feed.getTitle());
+
+        feedStatus.recordSuccess(feed);
+    }
+
+    /**
+     * A feed that another run was writing. Its new validators and region hash are dropped so the next run fetches
+     * and writes its page again.
+     */
+    void feedSkipped(FeedDefinition feed) {
+        if (validatorCache != null) validatorCache.discard(feed.getTitle());
+        if (regionHashes != null) regionHashes.discard(feed.getTitle());
+    }
+
+    void feedFailed(FeedDefinition feed, Throwable t) {
+        if (t instanceof CircuitOpenException) {
+            logger.warn(format("Feed %s: %s", feed, t.getMessage()));
+        }
+        else {
+            logger.error(format("Feed %s failed", feed), t);
         }
+
+        if (validatorCache != null) validatorCache.discard(feed.getTitle());
+        if (regionHashes != null) regionHashes.discard(feed.getTitle());
+
+        feedStatus.recordFailure(feed, t);
+        metrics.getFeedStats(feed.getTitle()).failures.incrementAndGet();
+    }
+
+    private void saveMetrics() throws IOException {
+        if (metricsFile == null) return;
+
+        FeedFiles.publish(metricsFile, new FeedFiles.Content() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                metrics.writePrometheus(out);
+            }
+        });
     }
 
     /**
@@ -78,17 +302,96 @@ public class WebPageToAtomFeed {
      * @return Properties for all of the feeds.
      */
     protected Properties getProps() throws IOException {
-        String propsFilename = System.getProperty("props.filename", "src/main/resources/WebPageToAtomFeed.properties");
-        File propsFile = new File(propsFilename);
+        File propsFile = getPropsFile();
 
         if (dryRunMode) System.out.format("Loading property file %s%n", propsFile.getAbsolutePath());
 
         Properties props = new Properties();
-        props.load(new FileInputStream(propsFile));
+
+        try (InputStream propsStream = new FileInputStream(propsFile)) {
+            props.load(propsStream);
+        }
 
         return props;
     }
 
+    /**
+     * @return The file that getProps loads.
+     */
+    protected File getPropsFile() {
+        return new File(System.getProperty("props.filename", "src/main/resources/WebPageToAtomFeed.properties"));
+    }
+
+    /**
+     * Apply the run wide settings (everything that isn't a feed.N property).
+     *
+     * @param props Properties for all the feeds.
+     */
+    protected void configure(Properties props) throws IOException {
+        setDryRunMode(Boolean.valueOf((props.getProperty("dry.run.mode", "false"))));
+        daemonMode = Boolean.valueOf(props.getProperty("daemon.mode", "false"));
+        setFetchThreads(Integer.valueOf(props.getProperty("fetch.threads", "8")));
+        setFetchThreadsPerHost(Integer.valueOf(props.getProperty("fetch.threads.per.host", "2")));
+        setVirtualThreads(Boolean.valueOf(props.getProperty("fetch.virtual.threads", "false")));
+        setRetryBudget(Integer.valueOf(props.getProperty("http.retry.max", "3")),
+                Double.valueOf(props.getProperty("http.retry.budget.ratio", "0.1")),
+                Integer.valueOf(props.getProperty("http.retry.budget.min", "3")));
+        setPipelineThreads(Integer.valueOf(props.getProperty("parse.threads", String.valueOf(parseThreads))),
+                Integer.valueOf(props.getProperty("write.threads", "2")),
+                Integer.valueOf(props.getProperty("pipeline.queue.size", String.valueOf(parseThreads))));
+        int poolMaxTotal = virtualThreads ? Integer.MAX_VALUE : fetchThreads;
+        setHttpPoolSize(Integer.valueOf(props.getProperty("http.pool.max.total", String.valueOf(poolMaxTotal))),
+                Integer.valueOf(props.getProperty("http.pool.max.per.host", String.valueOf(fetchThreadsPerHost))));
+        setHttpTimeouts(Integer.valueOf(props.getProperty("http.connect.timeout.ms", "10000")),
+                Integer.valueOf(props.getProperty("http.read.timeout.ms", "30000")));
+
+        setEntryRetention(Integer.valueOf(props.getProperty("store.max.entries", "1000")),
+                Integer.valueOf(props.getProperty("store.max.age.days", "0")));
+        setArchivePageSize(Integer.valueOf(props.getProperty("archive.page.size", "0")));
+        setMaxBodySize(Long.valueOf(props.getProperty("http.max.body.size", String.valueOf(10 * 1024 * 1024))));
+        setCompression(Boolean.valueOf(props.getProperty("http.compression", "true")));
+        setRegexTimeout(Long.valueOf(props.getProperty("regex.timeout.ms", "5000")));
+        setServer(Integer.valueOf(props.getProperty("server.port", "0")),
+                Integer.valueOf(props.getProperty("server.threads", "4")));
+
+        File stateDir = new File(props.getProperty("state.dir", "src/main/resources"));
+        boolean conditionalGet = Boolean.valueOf(props.getProperty("conditional.get", "true"));
+        setValidatorCacheFile(conditionalGet ? new File(stateDir, "validators.properties") : null);
+        boolean regionHash = Boolean.valueOf(props.getProperty("region.hash", "true"));
+        setRegionHashFile(regionHash ? new File(stateDir, "regions.properties") : null);
+        setCircuitBreaker(new File(stateDir, "circuits.properties"),
+                Integer.valueOf(props.getProperty("circuit.failure.threshold", "3")),
+                Integer.valueOf(props.getProperty("circuit.open.seconds", "300")),
+                Integer.valueOf(props.getProperty("circuit.open.max.seconds", "21600")));
+        setStatusFile(new File(stateDir, "status.properties"));
+
+        String archiveMode = props.getProperty("http.archive.mode", "off");
+        File archiveFile = new File(props.getProperty("http.archive.file",
+                new File(stateDir, "http.archive").getPath()));
+
+        if (archiveMode.equals("record")) {
+            setHttpArchiveRecording(archiveFile);
+        }
+        else if (archiveMode.equals("replay")) {
+            setHttpArchiveReplay(archiveFile, Long.valueOf(props.getProperty("http.archive.latency.ms", "0")));
+        }
+        else if (archiveMode.equals("off")) {
+            setHttpArchiveRecording(null);
+        }
+        else {
+            throw new IllegalArgumentException("http.archive.mode must be off, record or replay, not " + archiveMode);
+        }
+
+        String shardDir = props.getProperty("shard.dir", "");
+        setSharding(shardDir.isEmpty() ? null : new File(shardDir),
+                props.getProperty("shard.worker.id", FeedShards.getDefaultWorkerId(daemonMode)),
+                Integer.valueOf(props.getProperty("shard.lease.seconds", "3600")));
+
+        String metricsFileName = props.getProperty("metrics.file", "");
+        setMetrics(Boolean.valueOf(props.getProperty("metrics.jmx", "true")),
+                metricsFileName.isEmpty() ? null : new File(metricsFileName));
+    }
+
     /**
      * Get the properties for all of the feeds.
      *
@@ -118,252 +421,1134 @@ public class WebPageToAtomFeed {
         return feedProps;
     }
 
+    /**
+     * Parse and validate the properties for all of the feeds. Bad patterns, group numbers or missing properties fail
+     * here, before any web page is fetched.
+     *
+     * @param props Properties for all the feeds.
+     * @return A List of feed definitions.
+     * @throws IllegalArgumentException if any feed is invalid.
+     */
+    protected List<FeedDefinition> getFeedDefinitions(Properties props) {
+        List<FeedDefinition> feeds = new ArrayList<>();
+
+        for (Map<FeedProperty, String> feedProp : getFeedProps(props)) {
+            FeedDefinition feed = FeedDefinition.parse(feedProp);
+
+            for (String warning : feed.getPatternWarnings()) logger.warn(format("Feed %s: %s", feed, warning));
+
+            feeds.add(feed);
+        }
+
+        return feeds;
+    }
+
     private boolean hasTitle(int feedIndex, Properties props) {
         return props.getProperty(format("feed.%s.%s", feedIndex, FEED_TITLE)) != null;
     }
 
     /**
-     * Get the source code of web pages.
+     * Get the source code of web pages. Pages are fetched concurrently by up to fetch.threads threads, or a virtual
+     * thread each, with no more than fetch.threads.per.host of them talking to the same host at once, including
+     * fetches made by other calls.
      *
-     * @param feedProps A List of feeds.
-     * @return A Map of feed titles to web page source code.
+     * @param feeds A List of feeds.
+     * @return A Map of feed titles to web page source code. Pages that haven't changed since the last run are left
+     * out.
      */
-    protected Map<String, String> getWebPages(List<Map<FeedProperty, String>> feedProps)
+    protected Map<String, String> getWebPages(List<FeedDefinition> feeds)
             throws IOException {
-        Map<String, String> titleToPage = new HashMap<>(feedProps.size());
+        Map<String, String> titleToPage = new HashMap<>(feeds.size());
+
+        if (feeds.isEmpty()) return titleToPage;
+
+        if (feeds.size() == 1) {
+            String pageSource = getWebPage(feeds.get(0));
+
+            if (pageSource != null) titleToPage.put(feeds.get(0).getTitle(), pageSource);
+
+            return titleToPage;
+        }
+
+        ExecutorService executor = virtualThreads ? VirtualThreads.newPerTaskExecutor() :
+                Executors.newFixedThreadPool(Math.min(fetchThreads, feeds.size()));
+
+        try {
+            List<Future<String>> pageSources = new ArrayList<>(feeds.size());
+
+            for (final FeedDefinition feed : feeds) {
+                pageSources.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws IOException {
+                        return getWebPage(feed);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < feeds.size(); i++) {
+                String pageSource = getPageSource(pageSources.get(i));
 
-        for (Map<FeedProperty, String> feedProp : feedProps) {
-            String pageSource = getWebPageSource(feedProp.get(FEED_URL));
-            titleToPage.put(feedProp.get(FEED_TITLE), pageSource);
+                if (pageSource != null) titleToPage.put(feeds.get(i).getTitle(), pageSource);
+            }
+        }
+        finally {
+            executor.shutdownNow();
         }
 
         return titleToPage;
     }
 
     /**
-     * Get the source code of a web page.
+     * Get the source code of one feed's web page. When a validator cache is set the request is conditional on the
+     * ETag and Last-Modified validators of the feed's last successful run, and the new validators are kept once
+     * {@link #feedSucceeded} is called for the feed.
      *
-     * @param url URL of the web page to get.
-     * @return The web page source code (with all new lines removed).
+     * @param feed A feed.
+     * @return The web page source code, or null if the page hasn't changed since it was last fetched.
      */
-    protected String getWebPageSource(String url) throws IOException {
-        String pageSource = "";
-
-        HttpClient client = new HttpClient();
-        client.getParams().setCookiePolicy(IGNORE_COOKIES);
-
-        GetMethod getMethod = new GetMethod(url);
-        getMethod.getParams().setParameter(RETRY_HANDLER, new DefaultHttpMethodRetryHandler(3, false));
+    protected String getWebPage(FeedDefinition feed) throws IOException {
+        if (validatorCache != null && !new File(feed.getFile()).exists()) validatorCache.remove(feed.getTitle());
 
-        if (dryRunMode) System.out.format("Loading web page at %s%n", url);
+        Metrics.FeedStats feedStats = metrics.getFeedStats(feed.getTitle());
+        long start = System.nanoTime();
 
         try {
-            int statusCode = client.executeMethod(getMethod);
-            byte[] responseBody = getMethod.getResponseBody();
-            pageSource = new String(responseBody);
+            return new PageFetch(feed, feedStats).call();
+        }
+        finally {
+            feedStats.fetch.record(System.nanoTime() - start);
+        }
+    }
 
-            if (statusCode != HttpStatus.SC_OK) {
-                String message = format("%s%n%s", getMethod.getStatusLine(), pageSource);
-                throw new HttpException(message);
-            }
-        } finally {
-            getMethod.releaseConnection();
+    private String getPageSource(Future<String> pageSource) throws IOException {
+        try {
+            return pageSource.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching web pages");
         }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
 
-        return pageSource.replaceAll("\\r\\n|\\r|\\n", " ");
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+
+            throw new IOException(cause);
+        }
     }
 
     /**
-     * Turn web page source code into Atom feeds.
-     *
-     * @param feedProps A List of feeds.
-     * @param titleToPage A Map of feed titles to web page source code.
-     * @return A Map of feed titles to Feeds
+     * Fetches one web page while holding a connection slot for its host. A host whose circuit is open fails before
+     * waiting for a slot. Only failures of the host count against its circuit, see {@link #isHostFailure}; other
+     * errors, such as a page over http.max.body.size, leave it as it was.
      */
-    protected Map<String, Feed> getFeeds(List<Map<FeedProperty, String>> feedProps, Map<String, String> titleToPage)
-            throws IOException {
-        Map<String, Feed> feeds = new HashMap<>(feedProps.size());
-        Abdera abdera = new Abdera();
+    private class PageFetch implements Callable<String> {
+        private final FeedDefinition feed;
+        private final String url;
+        private final Metrics.FeedStats feedStats;
+
+        private PageFetch(FeedDefinition feed, Metrics.FeedStats feedStats) {
+            this.feed = feed;
+            this.url = feed.getUrl();
+            this.feedStats = feedStats;
+        }
+
+        @Override
+        public String call() throws IOException {
+            String host = new URI(url, true).getHost();
+
+            if (!circuitBreaker.allowRequest(host)) {
+                throw new CircuitOpenException(host, circuitBreaker.getOpenUntil(host));
+            }
+
+            try {
+                hostLimiter.acquire(host);
+            }
+            catch (InterruptedException e) {
+                circuitBreaker.cancelRequest(host);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to fetch " + url);
+            }
+
+            try {
+                String pageSource;
+
+                try {
+                    pageSource = getWebPageSource(url, feed.getTitle(), feedStats);
+                }
+                catch (IOException | RuntimeException | Error e) {
+                    if (isHostFailure(e)) {
+                        circuitBreaker.recordFailure(host);
+                    }
+                    else if (e instanceof HttpStatusException) {
+                        circuitBreaker.recordSuccess(host);
+                    }
+                    else {
+                        circuitBreaker.cancelRequest(host);
+                    }
+
+                    throw e;
+                }
 
-        for (Map<FeedProperty, String> feedProp : feedProps) {
-            Feed feed = abdera.newFeed();
-            feed.setId(feedProp.get(FEED_ID));
-            feed.setTitle(feedProp.get(FEED_TITLE));
-            feed.setSubtitle(feedProp.get(FEED_DESCRIPTION));
-            feed.setGenerator("https://github.com/rackerlabs/WebPageToAtomFeed", VERSION, "WebPageToAtomFeed");
-            feed.setUpdated(new Date());
-            feed.addAuthor(feedProp.get(FEED_AUTHOR));
-            feed.addLink(feedProp.get(FEED_URL), "self");
-            feed.addLink(feedProp.get(FEED_URL_HOME));
+                circuitBreaker.recordSuccess(host);
+                return pageSource;
+            }
+            finally {
+                hostLimiter.release(host);
+            }
+        }
+    }
 
-            if (dryRunMode) System.out.format("Parsing feed for %s%n", feed.getTitle());
+    /**
+     * @return True if a fetch failed because of its host or the network: the host couldn't be reached, didn't answer
+     * in time, broke the connection or answered with a server error. A client error status still means the host is
+     * up.
+     */
+    static boolean isHostFailure(Throwable t) {
+        if (t instanceof HttpStatusException) {
+            return ((HttpStatusException) t).getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+        }
 
-            String pageSource = titleToPage.get(feedProp.get(FEED_TITLE));
+        return t instanceof SocketException || t instanceof SocketTimeoutException ||
+                t instanceof ConnectTimeoutException || t instanceof UnknownHostException ||
+                t instanceof NoHttpResponseException || t instanceof EOFException || t instanceof HttpException;
+    }
 
-            Pattern pagePattern = Pattern.compile(feedProp.get(PAGE_PATTERN));
-            Matcher pageMatcher = pagePattern.matcher(pageSource);
+    /**
+     * Retries requests that failed to go through, as long as their host has been healthy and the retry budget
+     * isn't spent.
+     */
+    private class BudgetedRetryHandler extends DefaultHttpMethodRetryHandler {
+        private BudgetedRetryHandler() {
+            super(maxRetries, false);
+        }
 
-            if (pageMatcher.find()) {
-                if (dryRunMode) System.out.format("Matched page pattern %s%n", pagePattern);
+        @Override
+        public boolean retryMethod(HttpMethod method, IOException exception, int executionCount) {
+            if (!super.retryMethod(method, exception, executionCount)) return false;
 
-                pageSource = pageMatcher.group(1).trim();
+            try {
+                if (circuitBreaker.getFailures(method.getURI().getHost()) > 0) return false;
             }
-            else {
-                if (dryRunMode) System.out.format("NOT Matched page pattern %s%n", pagePattern);
+            catch (URIException e) {
+                return false;
             }
 
-            Pattern entryPattern = Pattern.compile(feedProp.get(ENTRY_PATTERN));
-            Matcher entryMatcher = entryPattern.matcher(pageSource);
-            int maxEntries = Integer.valueOf(feedProp.get(ENTRY_MAX));
+            return retryBudget.tryRetry();
+        }
+    }
+
+    /**
+     * Get the source code of a web page. The body is decoded and has its new lines removed as it streams in.
+     *
+     * @param url URL of the web page to get.
+     * @return The web page source code (with all new lines removed).
+     */
+    protected String getWebPageSource(String url) throws IOException {
+        return getWebPageSource(url, null, null);
+    }
 
-            while (entryMatcher.find() && feed.getEntries().size() < maxEntries) {
-                if (dryRunMode) System.out.format("Matched entry pattern %s%n", entryPattern);
+    /**
+     * @param validatorKey The title of the feed whose validators make the request conditional, or null.
+     */
+    private String getWebPageSource(String url, String validatorKey, Metrics.FeedStats feedStats)
+            throws IOException {
+        Metrics.HostStats hostStats = metrics.getHostStats(new URI(url, true).getHost());
+        CountingInputStream countingBody = null;
+        CountingInputStream decodedBody = null;
+        boolean failed = true;
+        long start = System.nanoTime();
+        String pageSource = "";
+        GetMethod getMethod = null;
+        HttpArchive.Response replayed = null;
+        HttpArchive.Recording recording = null;
 
-                Entry entry = feed.addEntry();
-                entry.setUpdated(new Date());
+        if (dryRunMode) System.out.format("Loading web page at %s%n", url);
 
-                int titleGroup = Integer.valueOf(feedProp.get(ENTRY_TITLE_GROUP));
-                String title = entryMatcher.group(titleGroup).trim();
-                entry.setTitle(title);
+        try {
+            int statusCode;
+            InputStream responseBody;
 
-                if (dryRunMode) System.out.format("  title = %s%n", title);
+            if (httpArchive != null && httpArchive.isReplaying()) {
+                replayed = httpArchive.replay(url);
+                statusCode = replayed.getStatusCode();
+                responseBody = replayed.getBody();
+            }
+            else {
+                getMethod = newGetMethod(url, validatorKey);
+                statusCode = httpClient.executeMethod(getMethod);
+                responseBody = getMethod.getResponseBodyAsStream();
 
-                String link = feedProp.get(FEED_URL);
+                if (httpArchive != null) {
+                    recording = httpArchive.startRecording(url, statusCode, getMethod.getStatusLine().toString(),
+                            getHeaders(getMethod), start);
 
-                if (!"".equals(feedProp.get(ENTRY_URL_GROUP))) {
-                    int linkGroup = Integer.valueOf(feedProp.get(ENTRY_URL_GROUP));
-                    link = entryMatcher.group(linkGroup).trim();
-                    link= getAbsoluteLink(feedProp.get(FEED_URL), link);
+                    if (responseBody != null) responseBody = recording.wrap(responseBody);
                 }
+            }
 
-                entry.setId(link);
-                entry.addLink(link);
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+                if (dryRunMode) System.out.format("Not modified %s%n", url);
+                if (recording != null) recording.finish();
 
-                if (dryRunMode) System.out.format("  link = %s%n", link);
+                failed = false;
+                return null;
+            }
 
-                if (!"".equals(feedProp.get(ENTRY_CONTENT_GROUP))) {
-                    int contentGroup = Integer.valueOf(feedProp.get(ENTRY_CONTENT_GROUP));
-                    String content = entryMatcher.group(contentGroup).trim();
-                    entry.setSummaryAsHtml(content);
+            if (responseBody != null) {
+                countingBody = new CountingInputStream(responseBody);
+                String contentEncoding = getHeaderValue(getMethod, replayed, "Content-Encoding");
+                long contentLength = replayed != null ? replayed.getBodyLength() : getMethod.getResponseContentLength();
 
-                    if (dryRunMode) System.out.format("  content = %s%n", content);
+                try {
+                    decodedBody = new CountingInputStream(PageReader.decode(countingBody, contentEncoding));
+                    pageSource = pageReader.read(decodedBody, getHeaderValue(getMethod, replayed, "Content-Type"),
+                            contentEncoding == null ? contentLength : -1);
+                }
+                catch (IOException e) {
+                    if (getMethod != null) getMethod.abort();
+                    throw e;
                 }
             }
 
-            feeds.put(feedProp.get(FEED_TITLE), feed);
-        }
+            if (recording != null) recording.finish();
 
-        return feeds;
-    }
+            if (statusCode != HttpStatus.SC_OK) {
+                String statusLine = replayed != null ? replayed.getStatusLine() : getMethod.getStatusLine().toString();
+                throw new HttpStatusException(statusCode, format("%s%n%s", statusLine, pageSource));
+            }
 
-    private String getAbsoluteLink(String feedLink, String link) throws URIException {
-        String absoluteLink = link;
+            if (validatorCache != null && validatorKey != null) {
+                validatorCache.setPending(validatorKey, getHeaderValue(getMethod, replayed, "ETag"),
+                        getHeaderValue(getMethod, replayed, "Last-Modified"));
+            }
 
-        if (link.startsWith("#")) {
-            absoluteLink = feedLink + link;
-        } else if (link.startsWith("/")) {
-            URI feedURI = new URI(feedLink, true);
-            absoluteLink = format("%s://%s%s", feedURI.getScheme(), feedURI.getHost(), link);
+            failed = false;
+        } finally {
+            if (getMethod != null) getMethod.releaseConnection();
+
+            long bytes = countingBody == null ? 0 : countingBody.getCount();
+            hostStats.request.record(System.nanoTime() - start);
+            hostStats.bytes.addAndGet(bytes);
+
+            if (failed) hostStats.errors.incrementAndGet();
+
+            if (feedStats != null) {
+                feedStats.fetchBytes.addAndGet(bytes);
+                feedStats.fetchDecodedBytes.addAndGet(decodedBody == null ? 0 : decodedBody.getCount());
+            }
+
+            if (dryRunMode && decodedBody != null) {
+                System.out.format("Read %d bytes over the wire, %d decoded%n", bytes, decodedBody.getCount());
+            }
         }
 
-        return absoluteLink;
+        return pageSource;
     }
 
     /**
-     * Write the feeds to disk.
-     *
-     * @param feedProps A List of feeds.
-     * @param titleToFeed A Map of feed titles to web page source code.
+     * Build the request for a web page. While recording an HTTP archive the request isn't conditional, so the
+     * archive holds whole pages.
      */
-    protected void writeFeeds(List<Map<FeedProperty, String>> feedProps, Map<String, Feed> titleToFeed)
-            throws IOException, TransformerException, ClassNotFoundException, ParserConfigurationException,
-            InstantiationException, SAXException, IllegalAccessException {
-        Abdera abdera = new Abdera();
-        Parser parser = abdera.getParser();
+    private GetMethod newGetMethod(String url, String validatorKey) {
+        GetMethod getMethod = new GetMethod(url);
+        getMethod.getParams().setParameter(RETRY_HANDLER, new BudgetedRetryHandler());
+        retryBudget.recordRequest();
 
-        for (Map<FeedProperty, String> feedProp : feedProps) {
-            File feedFile = new File(feedProp.get(FEED_FILE));
-            Feed feedFromWebPage = titleToFeed.get(feedProp.get(FEED_TITLE));
+        if (compression) getMethod.setRequestHeader("Accept-Encoding", "gzip, deflate");
 
-            if (dryRunMode) {
-                System.out.format("File: %s%n%n", feedFile.getAbsolutePath());
-                System.out.format("%s%n%n", prettyPrintXML(feedFromWebPage.toString()));
-            }
-            else if (!feedFile.exists()) {
-                try (FileWriter feedWriter = new FileWriter(feedFile)) {
-                    feedWriter.write(prettyPrintXML(feedFromWebPage.toString()));
-                }
+        if (validatorCache != null && validatorKey != null && httpArchive == null && !dryRunMode) {
+            String eTag = validatorCache.getETag(validatorKey);
+            String lastModified = validatorCache.getLastModified(validatorKey);
 
-                if (!dryRunMode) {
-                    logger.info(format("Created new Atom file %s (%d new entries)",
-                            feedFile.getAbsolutePath(), feedFromWebPage.getEntries().size()));
-                }
-            }
-            else {
-                Document<Feed> doc = parser.parse(new FileReader(feedFile));
-                Feed feedFromFilesystem = doc.getRoot();
-
-                String firstEntryIdFromWebpage = feedFromWebPage.getEntries().get(0).getId().toString();
-                String firstEntryIdFromFilesystem = feedFromFilesystem.getEntries().get(0).getId().toString();
-
-                if (!firstEntryIdFromFilesystem.equals(firstEntryIdFromWebpage)) {
-                    int newEntryCount = 0;
-
-                    for (int i = 0; i < feedFromWebPage.getEntries().size(); i++) {
-                        Entry entryFromWebpage = feedFromWebPage.getEntries().get(i);
-                        String entryIdFromWebpage = entryFromWebpage.getId().toString();
-
-                        if (!entryIdFromWebpage.equals(firstEntryIdFromFilesystem)) {
-                            feedFromFilesystem.insertEntry(Entry.class.cast(entryFromWebpage.clone()));
-                            newEntryCount++;
-                        }
-                        else {
-                            break;
-                        }
-                    }
+            if (eTag != null) getMethod.setRequestHeader("If-None-Match", eTag);
+            if (lastModified != null) getMethod.setRequestHeader("If-Modified-Since", lastModified);
+        }
 
-                    feedFromFilesystem.setUpdated(new Date());
+        return getMethod;
+    }
 
-                    try (FileWriter feedWriter = new FileWriter(feedFile)) {
-                        feedWriter.write(prettyPrintXML(feedFromFilesystem.toString()));
-                    }
+    private String getHeaderValue(GetMethod getMethod, HttpArchive.Response replayed, String name) {
+        if (replayed != null) return replayed.getHeader(name);
 
-                    if (!dryRunMode) {
-                        logger.info(format("Appended to Atom file %s (%d new entries)",
-                                feedFile.getAbsolutePath(), newEntryCount));
-                    }
-                }
-            }
+        Header header = getMethod.getResponseHeader(name);
+
+        return header == null ? null : header.getValue();
+    }
+
+    private List<String[]> getHeaders(GetMethod getMethod) {
+        List<String[]> headers = new ArrayList<>();
+
+        for (Header header : getMethod.getResponseHeaders()) {
+            headers.add(new String[]{header.getName(), header.getValue()});
         }
+
+        return headers;
     }
 
     /**
-     * Dry run mode will cause nothing to be written to disk and all output sent to stdout.
+     * Turn web page source code into feed entries. The rest of each feed comes from its definition when the feed is
+     * written.
      *
-     * @param dryRunMode Set to true to enable dry run mode.
+     * @param feedDefinitions A List of feeds.
+     * @param titleToPage A Map of feed titles to web page source code. Feeds without a page are skipped.
+     * @return A Map of feed titles to the entries found on their pages
      */
-    public void setDryRunMode(boolean dryRunMode) {
-        this.dryRunMode = dryRunMode;
-    }
+    protected Map<String, List<FeedEntry>> getFeeds(List<FeedDefinition> feedDefinitions,
+                                                    Map<String, String> titleToPage) throws IOException {
+        Map<String, List<FeedEntry>> feeds = new HashMap<>(feedDefinitions.size());
+
+        for (FeedDefinition feedDefinition : feedDefinitions) {
+            String pageSource = titleToPage.get(feedDefinition.getTitle());
 
-    private String prettyPrintXML(String xml) throws TransformerException, ParserConfigurationException,
-            InstantiationException, IllegalAccessException, ClassNotFoundException, IOException, SAXException {
-        InputSource src = new InputSource(new StringReader(xml));
-        Node document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(src).getDocumentElement();
-        DOMImplementationRegistry registry = DOMImplementationRegistry.newInstance();
-        DOMImplementationLS impl = (DOMImplementationLS) registry.getDOMImplementation("LS");
+            List<FeedEntry> entries = pageSource == null ? null : getFeed(feedDefinition, pageSource);
 
-        LSSerializer serializer = impl.createLSSerializer();
-        serializer.getDomConfig().setParameter("format-pretty-print", Boolean.TRUE);
-        serializer.getDomConfig().setParameter("xml-declaration", Boolean.TRUE);
+            if (entries != null) feeds.put(feedDefinition.getTitle(), entries);
+        }
+
+        return feeds;
+    }
 
-        LSOutput output = impl.createLSOutput();
-        output.setEncoding("UTF-8");
+    /**
+     * Parse one feed's web page, with its entry pattern or, when entry.selector is set, with its selectors.
+     *
+     * @param feedDefinition A feed.
+     * @param pageSource The source code of the feed's web page.
+     * @return The entries found on the page in page order, or null if the region the page pattern picks out is the
+     * same as at the feed's last successful run.
+     * @throws PatternTimeoutException if matching the patterns takes longer than regex.timeout.ms.
+     */
+    protected List<FeedEntry> getFeed(FeedDefinition feedDefinition, String pageSource) throws IOException {
+        long start = System.nanoTime();
+        CharSequence input = regexTimeoutMillis > 0
+                ? new DeadlineCharSequence(pageSource, start + TimeUnit.MILLISECONDS.toNanos(regexTimeoutMillis))
+                : pageSource;
 
-        Writer writer = new StringWriter();
-        output.setCharacterStream(writer);
-        serializer.write(document, output);
+        try {
+            return getFeed(feedDefinition, pageSource, input, start);
+        }
+        catch (DeadlineCharSequence.DeadlineExceededException e) {
+            throw new PatternTimeoutException(feedDefinition.getTitle(), regexTimeoutMillis);
+        }
+    }
+
+    private List<FeedEntry> getFeed(FeedDefinition feedDefinition, String pageSource, CharSequence input, long start)
+            throws IOException {
+        if (dryRunMode) System.out.format("Parsing feed for %s%n", feedDefinition.getTitle());
+
+        int[] region = null;
+
+        if (feedDefinition.getEntrySelector() == null) {
+            region = getRegion(feedDefinition, pageSource, input);
+
+            if (isRegionUnchanged(feedDefinition, pageSource, region)) return null;
+        }
+
+        List<FeedEntry> entries = new ArrayList<>();
+        long updated = System.currentTimeMillis();
+
+        if (region == null) {
+            SelectorExtractor extractor = new SelectorExtractor(feedDefinition);
+
+            for (SelectorExtractor.ExtractedEntry extracted : extractor.extract(pageSource)) {
+                if (dryRunMode) System.out.format("Matched entry selector %s%n", feedDefinition.getEntrySelector());
+
+                entries.add(newEntry(feedDefinition, extracted.getTitle(), extracted.getLink(), extracted.getContent(),
+                        updated));
+            }
+        }
+        else {
+            addMatchedEntries(entries, feedDefinition, input, region, updated);
+        }
+
+        metrics.getFeedStats(feedDefinition.getTitle()).parse.record(System.nanoTime() - start);
+
+        return entries;
+    }
+
+    /**
+     * @return The start and end of the page pattern's group with the white space around it trimmed, or the whole
+     * page if the pattern doesn't match.
+     */
+    private int[] getRegion(FeedDefinition feedDefinition, String pageSource, CharSequence input) {
+        Pattern pagePattern = feedDefinition.getPagePattern();
+        Matcher pageMatcher = pagePattern.matcher(input);
+        int regionStart = 0;
+        int regionEnd = pageSource.length();
+
+        if (pageMatcher.find() && pageMatcher.start(1) != -1) {
+            if (dryRunMode) System.out.format("Matched page pattern %s%n", pagePattern);
+
+            regionStart = pageMatcher.start(1);
+            regionEnd = pageMatcher.end(1);
+
+            while (regionStart < regionEnd && pageSource.charAt(regionStart) <= ' ') regionStart++;
+            while (regionEnd > regionStart && pageSource.charAt(regionEnd - 1) <= ' ') regionEnd--;
+        }
+        else {
+            if (dryRunMode) System.out.format("NOT Matched page pattern %s%n", pagePattern);
+        }
+
+        return new int[]{regionStart, regionEnd};
+    }
+
+    /**
+     * Skip the page if its region is the same as at the last successful run and the feed file is still there. The
+     * new hash is kept once the feed is written. Dry runs always parse.
+     */
+    private boolean isRegionUnchanged(FeedDefinition feedDefinition, String pageSource, int[] region) {
+        if (regionHashes == null || dryRunMode) return false;
+
+        String title = feedDefinition.getTitle();
+
+        if (!new File(feedDefinition.getFile()).exists()) regionHashes.remove(title);
+
+        long hash = RegionHashes.hash(feedDefinition, archivePageSize, pageSource, region[0], region[1]);
+
+        if (regionHashes.isUnchanged(title, hash)) {
+            metrics.getFeedStats(title).unchangedRegions.incrementAndGet();
+            logger.info(format("Feed %s: page region unchanged, skipped", title));
+
+            return true;
+        }
+
+        regionHashes.setPending(title, hash);
+
+        return false;
+    }
+
+    private void addMatchedEntries(List<FeedEntry> entries, FeedDefinition feedDefinition, CharSequence input,
+                                   int[] region, long updated) throws IOException {
+        Pattern entryPattern = feedDefinition.getEntryPattern();
+        Matcher entryMatcher = entryPattern.matcher(input).region(region[0], region[1]);
+        int maxEntries = feedDefinition.getEntryMax();
+        int entryCount = 0;
+
+        while (entryCount < maxEntries && entryMatcher.find()) {
+            entryCount++;
+
+            if (dryRunMode) System.out.format("Matched entry pattern %s%n", entryPattern);
+
+            String title = entryMatcher.group(feedDefinition.getEntryTitleGroup()).trim();
+            String link = feedDefinition.getEntryUrlGroup() == FeedDefinition.NO_GROUP ? null
+                    : entryMatcher.group(feedDefinition.getEntryUrlGroup()).trim();
+            String content = feedDefinition.getEntryContentGroup() == FeedDefinition.NO_GROUP ? null
+                    : entryMatcher.group(feedDefinition.getEntryContentGroup()).trim();
+
+            entries.add(newEntry(feedDefinition, title, link, content, updated));
+        }
+    }
+
+    /**
+     * @param link The entry link as found on the page, or null to link the entry to the feed URL.
+     * @param content The entry content, or null for none.
+     * @param updated When the page was parsed.
+     */
+    private FeedEntry newEntry(FeedDefinition feedDefinition, String title, String link, String content, long updated)
+            throws URIException {
+        if (dryRunMode) System.out.format("  title = %s%n", title);
+
+        String absoluteLink = link == null ? feedDefinition.getUrl() : getAbsoluteLink(feedDefinition.getUrl(), link);
+
+        if (dryRunMode) System.out.format("  link = %s%n", absoluteLink);
+
+        if (dryRunMode && content != null) System.out.format("  content = %s%n", content);
+
+        return new FeedEntry(absoluteLink, title, absoluteLink, content, updated);
+    }
+
+    private String getAbsoluteLink(String feedLink, String link) throws URIException {
+        String absoluteLink = link;
+
+        if (link.startsWith("#")) {
+            absoluteLink = feedLink + link;
+        } else if (link.startsWith("/")) {
+            URI feedURI = new URI(feedLink, true);
+            absoluteLink = format("%s://%s%s", feedURI.getScheme(), feedURI.getHost(), link);
+        }
+
+        return absoluteLink;
+    }
+
+    /**
+     * Write the feeds to disk. The entries of each feed are kept in an {@link EntryStore} next to the feed file, so
+     * only the new entries from the web page are added before the Atom file is rendered from the store. A feed file
+     * written before the store existed is read once to seed it.
+     * </p>
+     * The Atom file is replaced atomically, so readers see either the old or the new feed. A lock file stops
+     * overlapping runs from changing the same feed at once; the later run skips it and fetches its page again next
+     * time. When archive.page.size is set the Atom file only keeps the newest entries and older ones go into
+     * {@link FeedArchives}.
+     *
+     * @param feeds A List of feeds.
+     * @param titleToFeed A Map of feed titles to the entries found on their web pages.
+     */
+    protected void writeFeeds(List<FeedDefinition> feeds, Map<String, List<FeedEntry>> titleToFeed)
+            throws IOException {
+        for (FeedDefinition feed : feeds) {
+            List<FeedEntry> entriesFromWebPage = titleToFeed.get(feed.getTitle());
+
+            if (entriesFromWebPage != null) writeFeed(feed, entriesFromWebPage);
+        }
+    }
+
+    /**
+     * Write one feed to disk, as described in {@link #writeFeeds}.
+     *
+     * @param feed A feed.
+     * @param entriesFromWebPage The entries parsed from its web page, in page order.
+     * @return False if the feed was skipped because another run is writing it.
+     */
+    protected boolean writeFeed(FeedDefinition feed, List<FeedEntry> entriesFromWebPage) throws IOException {
+        Metrics.FeedStats feedStats = metrics.getFeedStats(feed.getTitle());
+        long start = System.nanoTime();
+
+        try {
+            return writeFeed(feed, entriesFromWebPage, feedStats);
+        }
+        finally {
+            feedStats.write.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean writeFeed(FeedDefinition feed, List<FeedEntry> entriesFromWebPage, Metrics.FeedStats feedStats)
+            throws IOException {
+        File feedFile = new File(feed.getFile());
+
+        if (dryRunMode) {
+            System.out.format("File: %s%n%n", feedFile.getAbsolutePath());
+            atomWriter.write(feed, entriesFromWebPage, new Date(), System.out);
+            System.out.format("%n%n");
+            return true;
+        }
+
+        try (FeedFiles.Lock lock = FeedFiles.tryLock(feedFile)) {
+            if (lock == null) {
+                logger.warn(format("Skipped Atom file %s, another run is writing it", feedFile.getAbsolutePath()));
+                return false;
+            }
+
+            updateFeedFile(feed, entriesFromWebPage, feedFile, feedStats);
+            return true;
+        }
+    }
+
+    private void updateFeedFile(FeedDefinition feed, List<FeedEntry> entriesFromWebPage, File feedFile,
+                                Metrics.FeedStats feedStats) throws IOException {
+        EntryStore entryStore = new EntryStore(feedFile, storeMaxEntries, storeMaxAgeMillis);
+        boolean created = !feedFile.exists();
+
+        if (!created && entryStore.isEmpty()) {
+            List<FeedEntry> entriesFromFilesystem = getFeedEntries(new Abdera().getParser(), feedFile);
+            Collections.reverse(entriesFromFilesystem);
+            entryStore.append(entriesFromFilesystem);
+        }
+
+        List<FeedEntry> changedEntries = getChangedEntries(entriesFromWebPage, entryStore);
+
+        if (!created && changedEntries.isEmpty()) return;
+
+        int updatedEntries = 0;
+
+        for (FeedEntry entry : changedEntries) {
+            if (entryStore.contains(entry.getId())) updatedEntries++;
+        }
+
+        Collections.reverse(changedEntries);
+        entryStore.append(changedEntries);
+        feedStats.entriesAdded.addAndGet(changedEntries.size());
+
+        Map<String, String> relToHref = new LinkedHashMap<>();
+        List<FeedEntry> headEntries = archivePageSize > 0
+                ? rollArchives(feed, feedFile, entryStore, changedEntries, relToHref) : entryStore.getEntries();
+
+        publish(feed, feedFile, headEntries, new Date(), relToHref, false);
+
+        if (created) {
+            logger.info(format("Created new Atom file %s (%d new entries)",
+                    feedFile.getAbsolutePath(), changedEntries.size()));
+        }
+        else {
+            logger.info(format("Appended to Atom file %s (%d new entries, %d updated entries)",
+                    feedFile.getAbsolutePath(), changedEntries.size() - updatedEntries, updatedEntries));
+        }
+    }
+
+    /**
+     * Move the entries that no longer fit in the head feed into new archives. See {@link FeedArchives}.
+     *
+     * @param changedEntries The entries just added or updated, which reopen any that were archived.
+     * @param relToHref Gets the head feed's link to the newest archive.
+     * @return The entries of the head feed, the unarchived ones, newest first.
+     */
+    private List<FeedEntry> rollArchives(FeedDefinition feed, File feedFile, EntryStore entryStore,
+                                         List<FeedEntry> changedEntries, Map<String, String> relToHref)
+            throws IOException {
+        FeedArchives archives = new FeedArchives(feedFile);
+        archives.reopen(changedEntries);
+
+        List<String> ids = entryStore.getIds();
+        int window = 0;
+
+        for (int i = 0; i < ids.size(); i++) {
+            if (!archives.contains(ids.get(i))) window = i + 1;
+        }
+
+        List<FeedEntry> unarchived = archives.getUnarchived(entryStore.getEntries(window));
+
+        while (unarchived.size() > archivePageSize) {
+            List<FeedEntry> pageEntries = new ArrayList<>(unarchived.subList(0, archivePageSize));
+            Collections.reverse(pageEntries);
+            int page = archives.getPageCount() + 1;
+            long updated = 0;
+
+            for (FeedEntry entry : pageEntries) updated = Math.max(updated, entry.getUpdated());
+
+            Map<String, String> archiveRelToHref = new LinkedHashMap<>();
+            archiveRelToHref.put("current", feedFile.getName());
+
+            if (page > 1) archiveRelToHref.put("prev-archive", archives.getPageFile(page - 1).getName());
+
+            publish(feed, archives.getPageFile(page), pageEntries, new Date(updated), archiveRelToHref, true);
+            archives.add(pageEntries);
+            unarchived = unarchived.subList(archivePageSize, unarchived.size());
+
+            logger.info(format("Archived %d entries to %s", pageEntries.size(),
+                    archives.getPageFile(page).getAbsolutePath()));
+        }
+
+        if (archives.getPageCount() > 0) {
+            relToHref.put("prev-archive", archives.getPageFile(archives.getPageCount()).getName());
+        }
+
+        List<FeedEntry> headEntries = new ArrayList<>(unarchived);
+        Collections.reverse(headEntries);
+
+        return headEntries;
+    }
+
+    /**
+     * Render a feed document, replace its file and hand it to the server if there is one.
+     */
+    private void publish(final FeedDefinition feed, File file, final List<FeedEntry> entries, final Date updated,
+                         final Map<String, String> relToHref, final boolean archive) throws IOException {
+        if (feedServer == null) {
+            FeedFiles.publish(file, new FeedFiles.Content() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    atomWriter.write(feed, entries, updated, relToHref, archive, out);
+                }
+            });
+        }
+        else {
+            ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+            atomWriter.write(feed, entries, updated, relToHref, archive, rendered);
+            final byte[] atom = rendered.toByteArray();
+
+            FeedFiles.publish(file, new FeedFiles.Content() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    out.write(atom);
+                }
+            });
+            feedServer.publish(FeedServer.getPath(file.getPath()), atom);
+        }
+    }
+
+    /**
+     * The entries from the web page that aren't in the store yet, or that are in the retention window with
+     * different content. Entries that have already dropped out of the store are left out.
+     */
+    private List<FeedEntry> getChangedEntries(List<FeedEntry> entriesFromWebPage, EntryStore entryStore) {
+        List<FeedEntry> changedEntries = new ArrayList<>();
+        Set<String> pageIds = new HashSet<>();
+
+        for (FeedEntry entry : entriesFromWebPage) {
+            if (!pageIds.add(entry.getId())) continue;
+
+            if (!entryStore.contains(entry.getId()) ||
+                    (entryStore.isLive(entry.getId()) &&
+                            entryStore.getContentHash(entry.getId()) != entry.getContentHash())) {
+                changedEntries.add(entry);
+            }
+        }
+
+        return changedEntries;
+    }
+
+    /**
+     * Read the entries of a feed file written before the entry store existed. This is the only place Abdera is used.
+     */
+    private List<FeedEntry> getFeedEntries(Parser parser, File feedFile) throws IOException {
+        List<FeedEntry> feedEntries = new ArrayList<>();
+
+        try (Reader feedReader = new InputStreamReader(new FileInputStream(feedFile), "UTF-8")) {
+            Document<Feed> doc = parser.parse(feedReader);
+
+            for (Entry entry : doc.getRoot().getEntries()) {
+                if (entry.getId() != null) feedEntries.add(toFeedEntry(entry));
+            }
+        }
+
+        return feedEntries;
+    }
+
+    private FeedEntry toFeedEntry(Entry entry) {
+        String link = entry.getLinks().isEmpty() ? null : entry.getLinks().get(0).getHref().toString();
+        long updated = entry.getUpdated() == null ? System.currentTimeMillis() : entry.getUpdated().getTime();
+
+        return new FeedEntry(entry.getId().toString(), entry.getTitle(), link, entry.getSummary(), updated);
+    }
+
+    /**
+     * Retry requests that fail to go through, within a budget shared by all requests.
+     *
+     * @param maxRetries Retries of any one request.
+     * @param ratio Retries allowed per request made.
+     * @param minRetries Retries allowed on top of the ratio.
+     */
+    public void setRetryBudget(int maxRetries, double ratio, int minRetries) {
+        if (maxRetries < 0) throw new IllegalArgumentException("http.retry.max must be at least 0");
+
+        this.maxRetries = maxRetries;
+        this.retryBudget = new RetryBudget(ratio, minRetries);
+    }
+
+    /**
+     * Stop fetching from hosts that keep failing. See {@link CircuitBreaker}.
+     *
+     * @param stateFile File to keep the state of each host in between runs, or null to keep it in memory.
+     * @param failureThreshold Failures in a row that open a host's circuit.
+     * @param openSeconds How long the circuit first stays open.
+     * @param maxOpenSeconds The longest the circuit stays open.
+     */
+    public void setCircuitBreaker(File stateFile, int failureThreshold, int openSeconds, int maxOpenSeconds)
+            throws IOException {
+        if (failureThreshold < 1) throw new IllegalArgumentException("circuit.failure.threshold must be at least 1");
+
+        circuitBreaker = new CircuitBreaker(stateFile == null ? new StateFile() : new StateFile(stateFile),
+                failureThreshold, TimeUnit.SECONDS.toMillis(openSeconds), TimeUnit.SECONDS.toMillis(maxOpenSeconds));
+    }
+
+    /**
+     * Keep the outcome of the last attempt at each feed in a file.
+     *
+     * @param statusFile File to keep the status in, or null to keep it in memory.
+     */
+    public void setStatusFile(File statusFile) throws IOException {
+        feedStatus = new FeedStatus(statusFile == null ? new StateFile() : new StateFile(statusFile));
+    }
+
+    /**
+     * Give up on a feed whose page and entry patterns take longer than this to match, rather than letting a pattern
+     * that backtracks badly hold a thread for minutes.
+     *
+     * @param regexTimeoutMillis Time allowed for matching each feed's page, or 0 for no limit.
+     */
+    public void setRegexTimeout(long regexTimeoutMillis) {
+        if (regexTimeoutMillis < 0) throw new IllegalArgumentException("regex.timeout.ms must be at least 0");
+
+        this.regexTimeoutMillis = regexTimeoutMillis;
+    }
+
+    /**
+     * Serve the feeds over HTTP from memory while running in daemon mode. See {@link FeedServer}.
+     *
+     * @param serverPort Port to serve the feeds on, or 0 to not serve them.
+     * @param serverThreads Number of threads handling requests.
+     */
+    public void setServer(int serverPort, int serverThreads) {
+        if (serverPort < 0 || serverThreads < 1) {
+            throw new IllegalArgumentException("server.port must be at least 0 and server.threads at least 1");
+        }
+
+        this.serverPort = serverPort;
+        this.serverThreads = serverThreads;
+    }
+
+    /**
+     * Start serving the feeds at /name-of-feed-file. A feed is served from the file it was last written to until
+     * it is next regenerated.
+     *
+     * @param port Port to listen on, or 0 for any free port.
+     * @param threads Number of threads handling requests.
+     * @return The port the server listens on.
+     */
+    protected int startServer(int port, int threads) throws IOException {
+        if (feedServer != null) feedServer.close();
+
+        feedServer = new FeedServer(port, threads);
+
+        return feedServer.getPort();
+    }
+
+    /**
+     * Where to expose the latency histograms and counters of each feed and host. See {@link Metrics}.
+     *
+     * @param jmx True to register them as MBeans.
+     * @param metricsFile File to write them to in the Prometheus text format after each run, or null for none.
+     */
+    public void setMetrics(boolean jmx, File metricsFile) {
+        metrics.close();
+        metrics = new Metrics(jmx);
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * Size the stages that feeds go through after their web page is fetched.
+     *
+     * @param parseThreads Number of threads matching entry patterns and building feeds.
+     * @param writeThreads Number of threads writing feed files.
+     * @param queueSize Number of feeds that may wait for each stage before the previous stage stops taking more.
+     */
+    public void setPipelineThreads(int parseThreads, int writeThreads, int queueSize) {
+        if (parseThreads < 1) throw new IllegalArgumentException("parse.threads must be at least 1");
+        if (writeThreads < 1) throw new IllegalArgumentException("write.threads must be at least 1");
+        if (queueSize < 0) throw new IllegalArgumentException("pipeline.queue.size must be at least 0");
+
+        this.parseThreads = parseThreads;
+        this.writeThreads = writeThreads;
+        this.pipelineQueueSize = queueSize;
+    }
+
+    /**
+     * The retention window of the entries kept for each feed. Older entries are dropped from the feed.
+     *
+     * @param maxEntries Keep at most this many entries per feed, or 0 for no limit.
+     * @param maxAgeDays Keep entries at most this many days old, or 0 for no limit.
+     */
+    public void setEntryRetention(int maxEntries, int maxAgeDays) {
+        this.storeMaxEntries = maxEntries;
+        this.storeMaxAgeMillis = TimeUnit.DAYS.toMillis(maxAgeDays);
+    }
+
+    /**
+     * Page each feed (RFC 5005): the feed file keeps only the entries that aren't archived yet, and once there are
+     * more than a page of them the oldest roll into archive files next to it that are written once and never change.
+     * See {@link FeedArchives}. Entries dropped from the store before they are archived are lost, so
+     * store.max.entries has to leave room for at least two pages and store.max.age.days can't be used. Call it after
+     * {@link #setEntryRetention}.
+     *
+     * @param archivePageSize Entries in the feed file and in each archive, or 0 to keep every entry in the feed file.
+     */
+    public void setArchivePageSize(int archivePageSize) {
+        if (archivePageSize < 0) throw new IllegalArgumentException("archive.page.size must be at least 0");
+
+        if (archivePageSize > 0 && storeMaxEntries > 0 && storeMaxEntries < 2 * archivePageSize) {
+            throw new IllegalArgumentException("store.max.entries must be at least twice archive.page.size");
+        }
+
+        if (archivePageSize > 0 && storeMaxAgeMillis > 0) {
+            throw new IllegalArgumentException("store.max.age.days must be 0 when archive.page.size is set");
+        }
+
+        this.archivePageSize = archivePageSize;
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Ask for gzip or deflate compressed pages. They are inflated as they stream in, and http.max.body.size limits
+     * the inflated size.
+     *
+     * @param compression True to send Accept-Encoding: gzip, deflate.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Web pages bigger than this fail to load rather than being read into memory.
+     *
+     * @param maxBodySize Maximum web page size in bytes.
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        if (maxBodySize < 1) throw new IllegalArgumentException("http.max.body.size must be at least 1");
+
+        pageReader = new PageReader(maxBodySize);
+    }
+
+    /**
+     * Keep the ETag and Last-Modified validators of each web page in a file so that unchanged pages can be skipped.
+     *
+     * @param validatorCacheFile File to keep the validators in, or null to always fetch the whole page.
+     */
+    public void setValidatorCacheFile(File validatorCacheFile) throws IOException {
+        validatorCache = validatorCacheFile == null ? null : new ValidatorCache(validatorCacheFile);
+    }
+
+    /**
+     * Append every response, its status, headers and body as received, to an HTTP archive that
+     * {@link #setHttpArchiveReplay} can serve later. See {@link HttpArchive}. Requests aren't conditional while
+     * recording, so the archive holds whole pages.
+     *
+     * @param archiveFile File to append the responses to, or null to stop recording and replaying.
+     */
+    public void setHttpArchiveRecording(File archiveFile) throws IOException {
+        httpArchive = archiveFile == null ? null : HttpArchive.forRecording(archiveFile);
+    }
+
+    /**
+     * Serve every web page from an HTTP archive instead of the network, for offline and repeatable runs. A page
+     * missing from the archive fails to load.
+     *
+     * @param archiveFile File recorded by {@link #setHttpArchiveRecording}, or null to fetch from the network.
+     * @param latencyMillis Delay before each response, or -1 to take as long as the response did when recorded.
+     */
+    public void setHttpArchiveReplay(File archiveFile, long latencyMillis) throws IOException {
+        httpArchive = archiveFile == null ? null : HttpArchive.forReplay(archiveFile, latencyMillis);
+
+        if (httpArchive != null) logger.info(format("Replaying %d pages from %s", httpArchive.size(), archiveFile));
+    }
+
+    /**
+     * Skip parsing and writing feeds whose page region hasn't changed since they were last written. See
+     * {@link RegionHashes}.
+     *
+     * @param regionHashFile File to keep the region hashes in, or null to parse every page.
+     */
+    public void setRegionHashFile(File regionHashFile) throws IOException {
+        regionHashes = regionHashFile == null ? null : new RegionHashes(new StateFile(regionHashFile));
+    }
+
+    /**
+     * Split the feeds between the instances sharing a directory, so each feed is generated by one of them. See
+     * {@link FeedShards}. The feed files must be on storage every instance can reach, and each instance needs a
+     * state.dir of its own. In daemon mode the leases are given up when this is closed, while a one-shot run keeps
+     * them until they expire and so must use the same worker id every time.
+     *
+     * @param shardDir Directory shared by the instances, or null to generate every feed.
+     * @param workerId Name of this instance, unique among those sharing the directory.
+     * @param leaseSeconds How long the feeds of an instance that stopped running stay with it. Must be longer than
+     *                     the time between runs.
+     */
+    public void setSharding(File shardDir, String workerId, int leaseSeconds) throws IOException {
+        if (feedShards != null) feedShards.close();
+
+        feedShards = shardDir == null ? null : new FeedShards(shardDir, workerId, leaseSeconds * 1000L, daemonMode);
+    }
+
+    /**
+     * Number of requests that reused a kept-alive connection from the shared pool.
+     *
+     * @return Pool hits since this instance was created.
+     */
+    public long getPoolHits() {
+        return connectionManager.getPoolHits();
+    }
+
+    /**
+     * Number of requests that had to open a new connection.
+     *
+     * @return Pool misses since this instance was created.
+     */
+    public long getPoolMisses() {
+        return connectionManager.getPoolMisses();
+    }
+
+    /**
+     * Close all of the pooled HTTP connections.
+     */
+    @Override
+    public void close() {
+        if (feedServer != null) feedServer.close();
+
+        if (feedShards != null) {
+            try {
+                feedShards.close();
+            }
+            catch (IOException e) {
+                logger.warn(format("Could not give up the leases of shard %s", feedShards.getWorkerId()), e);
+            }
+        }
+
+        connectionManager.shutdown();
+        metrics.close();
+    }
+
+    /**
+     * Dry run mode will cause nothing to be written to disk and all output sent to stdout.
+     *
+     * @param dryRunMode Set to true to enable dry run mode.
+     */
+    public void setDryRunMode(boolean dryRunMode) {
+        this.dryRunMode = dryRunMode;
+    }
+
+    /**
+     * Size the shared HTTP connection pool. Idle connections are kept alive and reused by later requests.
+     *
+     * @param maxTotal Maximum number of pooled connections.
+     * @param maxPerHost Maximum number of pooled connections to any one host.
+     */
+    public void setHttpPoolSize(int maxTotal, int maxPerHost) {
+        connectionManager.getParams().setMaxTotalConnections(maxTotal);
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(maxPerHost);
+    }
+
+    /**
+     * Timeouts for the shared HTTP client. Zero means wait forever.
+     *
+     * @param connectTimeoutMillis Time to wait for a connection to open or for a free connection in the pool.
+     * @param readTimeoutMillis Time to wait for data on an open connection.
+     */
+    public void setHttpTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        connectionManager.getParams().setConnectionTimeout(connectTimeoutMillis);
+        connectionManager.getParams().setSoTimeout(readTimeoutMillis);
+        httpClient.getParams().setConnectionManagerTimeout(connectTimeoutMillis);
+    }
+
+    /**
+     * The maximum number of web pages that are fetched at the same time.
+     *
+     * @param fetchThreads Number of fetch threads, must be at least 1.
+     */
+    public void setFetchThreads(int fetchThreads) {
+        if (fetchThreads < 1) throw new IllegalArgumentException("fetch.threads must be at least 1");
+
+        this.fetchThreads = fetchThreads;
+    }
+
+    /**
+     * The maximum number of web pages that are fetched from the same host at the same time.
+     *
+     * @param fetchThreadsPerHost Number of fetch threads per host, must be at least 1.
+     */
+    public void setFetchThreadsPerHost(int fetchThreadsPerHost) {
+        if (fetchThreadsPerHost < 1) throw new IllegalArgumentException("fetch.threads.per.host must be at least 1");
+
+        this.fetchThreadsPerHost = fetchThreadsPerHost;
+        this.hostLimiter = new HostLimiter(fetchThreadsPerHost);
+    }
+
+    HostLimiter getHostLimiter() {
+        return hostLimiter;
+    }
+
+    /**
+     * Fetch, parse and write feeds on virtual threads instead of fixed pools, so fetch.threads no longer applies and
+     * only fetch.threads.per.host limits how many pages are fetched at once. Needs Java 21 or later, and is left off
+     * with a warning on older JVMs.
+     * </p>
+     * The HTTP connection pool waits for a free connection while holding a lock, which ties up the carrier thread
+     * of a virtual thread, so keep http.pool.max.total from being the limit that fetches wait on.
+     *
+     * @param virtualThreads True to use virtual threads.
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        if (virtualThreads && !VirtualThreads.isSupported()) {
+            logger.warn(format("fetch.virtual.threads needs Java 21 or later, this is Java %s",
+                    System.getProperty("java.version")));
+        }
+
+        this.virtualThreads = virtualThreads && VirtualThreads.isSupported();
+    }
 
-        return writer.toString();
+    boolean isVirtualThreads() {
+        return virtualThreads;
     }
 }
@@ -0,0 +1,140 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.apache.commons.httpclient.NoHttpResponseException;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test(groups = "unit")
+public class TestCircuitBreaker {
+    public void testOpensAfterThreshold() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(new StateFile(), 2, 60000, 600000);
+
+        assertTrue(circuitBreaker.allowRequest("example.com"));
+        circuitBreaker.recordFailure("example.com");
+        assertTrue(circuitBreaker.allowRequest("example.com"));
+        circuitBreaker.recordFailure("example.com");
+
+        assertFalse(circuitBreaker.allowRequest("example.com"));
+        assertTrue(circuitBreaker.allowRequest("example.org"));
+    }
+
+    public void testTrialRequest() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(new StateFile(), 1, 50, 600000);
+        circuitBreaker.recordFailure("example.com");
+
+        Thread.sleep(100);
+
+        assertTrue(circuitBreaker.allowRequest("example.com"));
+        assertFalse(circuitBreaker.allowRequest("example.com"), "second trial allowed");
+
+        circuitBreaker.recordSuccess("example.com");
+
+        assertEquals(circuitBreaker.getFailures("example.com"), 0);
+        assertTrue(circuitBreaker.allowRequest("example.com"));
+    }
+
+    public void testCancelledTrialRequest() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(new StateFile(), 1, 50, 600000);
+        circuitBreaker.recordFailure("example.com");
+
+        Thread.sleep(100);
+
+        assertTrue(circuitBreaker.allowRequest("example.com"));
+        circuitBreaker.cancelRequest("example.com");
+
+        assertEquals(circuitBreaker.getFailures("example.com"), 1);
+        assertTrue(circuitBreaker.allowRequest("example.com"), "trial not allowed again");
+    }
+
+    public void testHostFailures() {
+        assertTrue(WebPageToAtomFeed.isHostFailure(new ConnectException("Connection refused")));
+        assertTrue(WebPageToAtomFeed.isHostFailure(new SocketTimeoutException("Read timed out")));
+        assertTrue(WebPageToAtomFeed.isHostFailure(new NoHttpResponseException()));
+        assertTrue(WebPageToAtomFeed.isHostFailure(new HttpStatusException(503, "Service Unavailable")));
+
+        assertFalse(WebPageToAtomFeed.isHostFailure(new HttpStatusException(404, "Not Found")));
+        assertFalse(WebPageToAtomFeed.isHostFailure(new IOException("Unsupported Content-Encoding br")));
+        assertFalse(WebPageToAtomFeed.isHostFailure(new InterruptedIOException("Interrupted")));
+        assertFalse(WebPageToAtomFeed.isHostFailure(new IllegalStateException()));
+    }
+
+    public void testBackoffDoubles() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(new StateFile(), 1, 60000, 200000);
+
+        assertEquals(getOpenMillis(circuitBreaker), 60000, 1000);
+        assertEquals(getOpenMillis(circuitBreaker), 120000, 1000);
+        assertEquals(getOpenMillis(circuitBreaker), 200000, 1000);
+    }
+
+    public void testStateKeptBetweenRuns() throws IOException {
+        File file = File.createTempFile("circuits", ".properties");
+        file.delete();
+
+        try {
+            CircuitBreaker circuitBreaker = new CircuitBreaker(new StateFile(file), 1, 60000, 600000);
+            circuitBreaker.recordFailure("example.com");
+            circuitBreaker.save();
+
+            assertFalse(new CircuitBreaker(new StateFile(file), 1, 60000, 600000).allowRequest("example.com"));
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    public void testStateFilesMerged() throws IOException {
+        File file = File.createTempFile("circuits", ".properties");
+        file.delete();
+
+        try {
+            StateFile first = new StateFile(file);
+            StateFile second = new StateFile(file);
+            first.put("a.example.com.failures", "1");
+            second.put("b.example.com.failures", "2");
+            first.save();
+            second.save();
+
+            assertEquals(second.get("a.example.com.failures"), "1");
+
+            first.remove("a.example.com.failures");
+            first.save();
+
+            StateFile reloaded = new StateFile(file);
+
+            assertEquals(reloaded.get("a.example.com.failures"), null);
+            assertEquals(reloaded.get("b.example.com.failures"), "2", "second run's save was lost");
+        }
+        finally {
+            file.delete();
+            new File(file.getPath() + ".lock").delete();
+        }
+    }
+
+    public void testRetryBudget() {
+        RetryBudget retryBudget = new RetryBudget(0.5, 1);
+
+        assertTrue(retryBudget.tryRetry());
+        assertFalse(retryBudget.tryRetry());
+
+        retryBudget.recordRequest();
+        retryBudget.recordRequest();
+
+        assertTrue(retryBudget.tryRetry());
+        assertFalse(retryBudget.tryRetry());
+    }
+
+    private long getOpenMillis(CircuitBreaker circuitBreaker) {
+        circuitBreaker.recordFailure("example.com");
+
+        return circuitBreaker.getOpenUntil("example.com") - System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,246 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test(groups = "unit", singleThreaded = true)
+public class TestEntryStore {
+    private File feedFile;
+
+    @BeforeMethod
+    public void createFeedFile() throws IOException {
+        feedFile = File.createTempFile("store", ".atom");
+        feedFile.delete();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteFeedFile() {
+        new File(feedFile.getPath() + ".entries").delete();
+        new File(feedFile.getPath() + ".index").delete();
+        new File(feedFile.getPath() + ".entries.tmp").delete();
+        new File(feedFile.getPath() + ".index.tmp").delete();
+        new File(feedFile.getPath() + ".index.new").delete();
+    }
+
+    public void testEmptyStore() throws IOException {
+        EntryStore entryStore = new EntryStore(feedFile, 0, 0);
+
+        assertTrue(entryStore.isEmpty());
+        assertNull(entryStore.getNewestId());
+        assertTrue(entryStore.getEntries().isEmpty());
+    }
+
+    public void testAppendAndReload() throws IOException {
+        EntryStore entryStore = new EntryStore(feedFile, 0, 0);
+        entryStore.append(Arrays.asList(newEntry(1), newEntry(2)));
+        entryStore.append(Arrays.asList(newEntry(3)));
+
+        EntryStore reloaded = new EntryStore(feedFile, 0, 0);
+        List<FeedEntry> entries = reloaded.getEntries();
+
+        assertEquals(reloaded.getNewestId(), "id3");
+        assertEquals(entries.size(), 3);
+        assertEquals(entries.get(0).getId(), "id3");
+        assertEquals(entries.get(0).getTitle(), "title3");
+        assertEquals(entries.get(0).getLink(), "http://example.com/3");
+        assertEquals(entries.get(0).getSummary(), "<p>summary 3</p>");
+        assertEquals(entries.get(0).getUpdated(), 3000);
+        assertEquals(entries.get(2).getId(), "id1");
+        assertNull(new EntryStore(feedFile, 0, 0).getEntries().get(1).getSummary());
+    }
+
+    public void testMaxEntries() throws IOException {
+        EntryStore entryStore = new EntryStore(feedFile, 2, 0);
+        entryStore.append(Arrays.asList(newEntry(1), newEntry(2), newEntry(3)));
+
+        assertEquals(entryStore.size(), 2);
+        assertEquals(new EntryStore(feedFile, 2, 0).getEntries().get(1).getId(), "id2");
+    }
+
+    public void testMaxAge() throws IOException {
+        long now = System.currentTimeMillis();
+        EntryStore entryStore = new EntryStore(feedFile, 0, TimeUnit.DAYS.toMillis(1));
+        entryStore.append(Arrays.asList(new FeedEntry("old", "old", null, null, now - TimeUnit.DAYS.toMillis(2)),
+                new FeedEntry("new", "new", null, null, now)));
+
+        assertEquals(entryStore.size(), 1);
+        assertEquals(entryStore.getNewestId(), "new");
+    }
+
+    public void testCompaction() throws IOException {
+        EntryStore entryStore = new EntryStore(feedFile, 10, 0);
+        File dataFile = new File(feedFile.getPath() + ".entries");
+
+        entryStore.append(Arrays.asList(newEntry(10)));
+        long entrySize = dataFile.length();
+
+        for (int i = 11; i < 100; i++) {
+            entryStore.append(Arrays.asList(newEntry(i)));
+        }
+
+        assertTrue(dataFile.length() < 50 * entrySize, "data file not compacted");
+        assertEquals(new EntryStore(feedFile, 10, 0).getEntries().size(), 10);
+        assertEquals(new EntryStore(feedFile, 10, 0).getEntries().get(9).getId(), "id90");
+    }
+
+    public void testTruncatedIndex() throws IOException {
+        EntryStore entryStore = new EntryStore(feedFile, 0, 0);
+        entryStore.append(Arrays.asList(newEntry(1), newEntry(2)));
+
+        File indexFile = new File(feedFile.getPath() + ".index");
+
+        try (RandomAccessFile index = new RandomAccessFile(indexFile, "rw")) {
+            index.setLength(index.length() - 3);
+        }
+
+        EntryStore reloaded = new EntryStore(feedFile, 0, 0);
+
+        assertEquals(reloaded.getNewestId(), "id1");
+
+        reloaded.append(Arrays.asList(newEntry(3)));
+
+        List<String> ids = new ArrayList<>();
+
+        for (FeedEntry entry : new EntryStore(feedFile, 0, 0).getEntries()) ids.add(entry.getId());
+
+        assertEquals(ids, Arrays.asList("id3", "id1"));
+    }
+
+    public void testIndexPastDataDropped() throws IOException {
+        EntryStore entryStore = new EntryStore(feedFile, 0, 0);
+        entryStore.append(Arrays.asList(newEntry(1)));
+        entryStore.append(Arrays.asList(newEntry(2)));
+
+        File dataFile = new File(feedFile.getPath() + ".entries");
+
+        try (RandomAccessFile data = new RandomAccessFile(dataFile, "rw")) {
+            data.setLength(data.length() - 3);
+        }
+
+        EntryStore reloaded = new EntryStore(feedFile, 0, 0);
+
+        assertEquals(reloaded.getNewestId(), "id1");
+        assertFalse(reloaded.contains("id2"));
+
+        reloaded.append(Arrays.asList(newEntry(3)));
+
+        List<String> ids = new ArrayList<>();
+
+        for (FeedEntry entry : new EntryStore(feedFile, 0, 0).getEntries()) ids.add(entry.getId());
+
+        assertEquals(ids, Arrays.asList("id3", "id1"));
+    }
+
+    public void testCommittedCompactionFinished() throws IOException {
+        new EntryStore(feedFile, 0, 0).append(Arrays.asList(newEntry(4), newEntry(5)));
+        stageCompaction(new File(feedFile.getPath() + ".entries.tmp"));
+
+        assertEquals(getIds(new EntryStore(feedFile, 0, 0)), Arrays.asList("id3", "id2", "id1"));
+        assertFalse(new File(feedFile.getPath() + ".entries.tmp").exists());
+        assertFalse(new File(feedFile.getPath() + ".index.new").exists());
+    }
+
+    public void testCommittedCompactionFinishedAfterDataMoved() throws IOException {
+        new EntryStore(feedFile, 0, 0).append(Arrays.asList(newEntry(4), newEntry(5)));
+        stageCompaction(new File(feedFile.getPath() + ".entries"));
+
+        assertEquals(getIds(new EntryStore(feedFile, 0, 0)), Arrays.asList("id3", "id2", "id1"));
+        assertFalse(new File(feedFile.getPath() + ".index.new").exists());
+    }
+
+    public void testUncommittedCompactionDiscarded() throws IOException {
+        new EntryStore(feedFile, 0, 0).append(Arrays.asList(newEntry(4), newEntry(5)));
+
+        File tempDataFile = new File(feedFile.getPath() + ".entries.tmp");
+        File tempIndexFile = new File(feedFile.getPath() + ".index.tmp");
+        Files.write(tempDataFile.toPath(), new byte[]{1, 2, 3});
+        Files.write(tempIndexFile.toPath(), new byte[]{4, 5, 6});
+
+        assertEquals(getIds(new EntryStore(feedFile, 0, 0)), Arrays.asList("id5", "id4"));
+        assertFalse(tempDataFile.exists());
+        assertFalse(tempIndexFile.exists());
+    }
+
+    public void testUpdateSupersedes() throws IOException {
+        EntryStore entryStore = new EntryStore(feedFile, 0, 0);
+        entryStore.append(Arrays.asList(newEntry(1), newEntry(2)));
+
+        FeedEntry changed = new FeedEntry("id1", "changed", "http://example.com/1", null, 5000L);
+        entryStore.append(Arrays.asList(changed));
+
+        EntryStore reloaded = new EntryStore(feedFile, 0, 0);
+        List<FeedEntry> entries = reloaded.getEntries();
+
+        assertEquals(entries.size(), 2);
+        assertEquals(entries.get(0).getTitle(), "changed");
+        assertEquals(entries.get(1).getId(), "id2");
+        assertEquals(reloaded.getContentHash("id1").longValue(), changed.getContentHash());
+    }
+
+    public void testDroppedIdsRemembered() throws IOException {
+        EntryStore entryStore = new EntryStore(feedFile, 2, 0);
+
+        for (int i = 1; i < 100; i++) {
+            entryStore.append(Arrays.asList(newEntry(i)));
+        }
+
+        EntryStore reloaded = new EntryStore(feedFile, 2, 0);
+
+        assertTrue(reloaded.contains("id1"));
+        assertFalse(reloaded.isLive("id1"));
+        assertTrue(reloaded.isLive("id99"));
+        assertFalse(reloaded.contains("id100"));
+        assertEquals(reloaded.size(), 2);
+    }
+
+    /**
+     * Leave the files of a compaction to id1..id3 as a crash after its commit would: the new index at
+     * feed.file.index.new and the new data at dataFile.
+     */
+    private void stageCompaction(File dataFile) throws IOException {
+        File otherFile = File.createTempFile("compacted", ".atom");
+        File otherData = new File(otherFile.getPath() + ".entries");
+        File otherIndex = new File(otherFile.getPath() + ".index");
+
+        try {
+            new EntryStore(otherFile, 0, 0).append(Arrays.asList(newEntry(1), newEntry(2), newEntry(3)));
+            Files.copy(otherData.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(otherIndex.toPath(), new File(feedFile.getPath() + ".index.new").toPath());
+        }
+        finally {
+            otherData.delete();
+            otherIndex.delete();
+            otherFile.delete();
+        }
+    }
+
+    private static List<String> getIds(EntryStore entryStore) throws IOException {
+        List<String> ids = new ArrayList<>();
+
+        for (FeedEntry entry : entryStore.getEntries()) ids.add(entry.getId());
+
+        return ids;
+    }
+
+    private FeedEntry newEntry(int i) {
+        String summary = i % 2 == 0 ? null : "<p>summary " + i + "</p>";
+
+        return new FeedEntry("id" + i, "title" + i, "http://example.com/" + i, summary, i * 1000L);
+    }
+}
@@ -0,0 +1,73 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Properties;
+
+import static org.testng.Assert.assertEquals;
+
+@Test(groups = "unit")
+public class TestFeedDefinition {
+    public void testPyraxFeedDefinition() {
+        WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed();
+        List<FeedDefinition> feeds = webPageToAtomFeed.getFeedDefinitions(TestGetFeedProps.getPyraxFeedProps());
+        FeedDefinition pyrax = feeds.get(0);
+
+        assertEquals(feeds.size(), 1);
+        assertEquals(pyrax.getTitle(), "pyrax");
+        assertEquals(pyrax.getId(), "https://github.com/everett-toews/test/blob/master/README.md");
+        assertEquals(pyrax.getPagePattern().pattern(), "<article (.*?)</article>");
+        assertEquals(pyrax.getEntryMax(), 20);
+        assertEquals(pyrax.getEntryTitleGroup(), 2);
+        assertEquals(pyrax.getEntryUrlGroup(), 1);
+        assertEquals(pyrax.getEntryContentGroup(), 3);
+    }
+
+    public void testBlankContentGroup() {
+        Properties props = new Properties();
+        props.putAll(TestGetFeedProps.getPyraxFeedProps());
+        props.put("feed.0.entry.content.group", "");
+
+        FeedDefinition pyrax = new WebPageToAtomFeed().getFeedDefinitions(props).get(0);
+
+        assertEquals(pyrax.getEntryContentGroup(), FeedDefinition.NO_GROUP);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBadEntryPattern() {
+        getFeedDefinition("feed.0.entry.pattern", "<h3>(.*?</h3>");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPagePatternWithoutGroup() {
+        getFeedDefinition("feed.0.page.pattern", "<article .*?</article>");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testGroupOutOfRange() {
+        getFeedDefinition("feed.0.entry.title.group", "4");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBadEntryMax() {
+        getFeedDefinition("feed.0.entry.max", "twenty");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMissingUrl() {
+        Properties props = new Properties();
+        props.putAll(TestGetFeedProps.getPyraxFeedProps());
+        props.remove("feed.0.url");
+
+        new WebPageToAtomFeed().getFeedDefinitions(props);
+    }
+
+    private FeedDefinition getFeedDefinition(String key, String value) {
+        Properties props = new Properties();
+        props.putAll(TestGetFeedProps.getPyraxFeedProps());
+        props.put(key, value);
+
+        return new WebPageToAtomFeed().getFeedDefinitions(props).get(0);
+    }
+}
@@ -0,0 +1,108 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.testng.SkipException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import static org.testng.Assert.*;
+
+@Test(groups = "unit", singleThreaded = true)
+public class TestFeedFiles {
+    private File dir;
+    private File feedFile;
+
+    @BeforeMethod
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("feeds").toFile();
+        feedFile = new File(dir, "feed.atom");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteDir() {
+        for (File file : dir.listFiles()) file.delete();
+
+        dir.delete();
+    }
+
+    public void testPublish() throws IOException {
+        FeedFiles.publish(feedFile, getContent("old"));
+        FeedFiles.publish(feedFile, getContent("new"));
+
+        assertEquals(new String(Files.readAllBytes(feedFile.toPath()), "UTF-8"), "new");
+        assertEquals(dir.list().length, 1);
+    }
+
+    public void testPublishKeepsPermissions() throws IOException {
+        File probe = new File(dir, "probe");
+        Files.createFile(probe.toPath());
+
+        Set<PosixFilePermission> defaultPermissions;
+
+        try {
+            defaultPermissions = Files.getPosixFilePermissions(probe.toPath());
+        }
+        catch (UnsupportedOperationException e) {
+            throw new SkipException("Not a POSIX file system");
+        }
+
+        FeedFiles.publish(feedFile, getContent("new"));
+
+        assertEquals(Files.getPosixFilePermissions(feedFile.toPath()), defaultPermissions);
+
+        Set<PosixFilePermission> groupWritable = PosixFilePermissions.fromString("rw-rw-r--");
+        Files.setPosixFilePermissions(feedFile.toPath(), groupWritable);
+        FeedFiles.publish(feedFile, getContent("newer"));
+
+        assertEquals(Files.getPosixFilePermissions(feedFile.toPath()), groupWritable);
+    }
+
+    public void testFailedPublishKeepsOldFile() throws IOException {
+        FeedFiles.publish(feedFile, getContent("old"));
+
+        try {
+            FeedFiles.publish(feedFile, new FeedFiles.Content() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    out.write("half a fe".getBytes("UTF-8"));
+                    throw new IOException("crash");
+                }
+            });
+            fail("publish should have failed");
+        }
+        catch (IOException e) {
+            assertEquals(e.getMessage(), "crash");
+        }
+
+        assertEquals(new String(Files.readAllBytes(feedFile.toPath()), "UTF-8"), "old");
+        assertEquals(dir.list().length, 1);
+    }
+
+    public void testLock() throws IOException {
+        try (FeedFiles.Lock lock = FeedFiles.tryLock(feedFile)) {
+            assertNotNull(lock);
+            assertNull(FeedFiles.tryLock(feedFile));
+        }
+
+        try (FeedFiles.Lock lock = FeedFiles.tryLock(feedFile)) {
+            assertNotNull(lock);
+        }
+    }
+
+    private FeedFiles.Content getContent(final String text) {
+        return new FeedFiles.Content() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(text.getBytes("UTF-8"));
+            }
+        };
+    }
+}
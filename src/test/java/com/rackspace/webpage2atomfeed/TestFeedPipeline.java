@@ -0,0 +1,258 @@
+package com.rackspace.webpage2atomfeed;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.httpclient.HttpException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test(groups = "unit")
+public class TestFeedPipeline {
+    private static final long SLOW_MILLIS = 1500;
+    private static final AtomicInteger ERROR_REQUESTS = new AtomicInteger();
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new PageHandler());
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    public void testFastFeedWrittenBeforeSlowFetchCompletes() throws Exception {
+        final List<FeedDefinition> feeds = getStubFeeds("slow", "fast");
+        File fastFile = new File(feeds.get(1).getFile());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try (final WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setValidatorCacheFile(null);
+
+            long start = System.nanoTime();
+            Future<Void> run = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    webPageToAtomFeed.generateFeeds(feeds);
+                    return null;
+                }
+            });
+
+            while (!fastFile.exists() && !run.isDone()) Thread.sleep(10);
+
+            long fastMillis = (System.nanoTime() - start) / 1000000;
+
+            assertFalse(run.isDone(), "slow feed finished first");
+            assertTrue(fastMillis < SLOW_MILLIS, "fast feed took " + fastMillis + "ms");
+
+            run.get();
+
+            assertTrue(new File(feeds.get(0).getFile()).exists());
+        }
+        finally {
+            executor.shutdownNow();
+            deleteFeedFiles(feeds);
+        }
+    }
+
+    public void testFailedFeedDoesNotStopOthers() throws Exception {
+        List<FeedDefinition> feeds = getStubFeeds("fast", "missing", "other");
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setValidatorCacheFile(null);
+            webPageToAtomFeed.generateFeeds(feeds);
+            fail("missing page did not fail");
+        }
+        catch (HttpException e) {
+            assertTrue(new File(feeds.get(0).getFile()).exists());
+            assertFalse(new File(feeds.get(1).getFile()).exists());
+            assertTrue(new File(feeds.get(2).getFile()).exists());
+        }
+        finally {
+            deleteFeedFiles(feeds);
+        }
+    }
+
+    public void testSmallQueues() throws Exception {
+        List<FeedDefinition> feeds = getStubFeeds("feed0", "feed1", "feed2", "feed3", "feed4", "feed5");
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setValidatorCacheFile(null);
+            webPageToAtomFeed.setPipelineThreads(1, 1, 0);
+            webPageToAtomFeed.generateFeeds(feeds);
+
+            for (FeedDefinition feed : feeds) assertTrue(new File(feed.getFile()).exists(), feed.getTitle());
+        }
+        finally {
+            deleteFeedFiles(feeds);
+        }
+    }
+
+    public void testCircuitOpensForFailingHost() throws Exception {
+        List<FeedDefinition> feeds = getHostStubFeeds("127.0.0.1", "error");
+        feeds.addAll(getStubFeeds("fast"));
+        File statusFile = File.createTempFile("status", ".properties");
+        int errorRequests = ERROR_REQUESTS.get();
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setValidatorCacheFile(null);
+            webPageToAtomFeed.setCircuitBreaker(null, 2, 300, 3600);
+            webPageToAtomFeed.setStatusFile(statusFile);
+
+            for (int run = 0; run < 3; run++) {
+                try {
+                    webPageToAtomFeed.generateFeeds(feeds);
+                    fail("error page did not fail");
+                }
+                catch (IOException e) {
+                    assertEquals(e instanceof CircuitOpenException, run == 2, e.toString());
+                }
+
+                assertTrue(new File(feeds.get(1).getFile()).exists());
+            }
+
+            assertEquals(ERROR_REQUESTS.get() - errorRequests, 2);
+
+            Properties status = new Properties();
+
+            try (InputStream in = new FileInputStream(statusFile)) {
+                status.load(in);
+            }
+
+            assertEquals(status.getProperty("error.failures"), "3");
+            assertTrue(status.getProperty("error.last.error").startsWith(CircuitOpenException.class.getName()));
+            assertNotNull(status.getProperty("fast.last.success"));
+            assertNull(status.getProperty("fast.failures"));
+        }
+        finally {
+            statusFile.delete();
+            deleteFeedFiles(feeds);
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testOpenCircuitDoesNotWaitForHost() throws Exception {
+        List<FeedDefinition> feeds = getHostStubFeeds("127.0.0.1", "error");
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setValidatorCacheFile(null);
+            webPageToAtomFeed.setCircuitBreaker(null, 1, 300, 3600);
+            webPageToAtomFeed.setFetchThreadsPerHost(1);
+
+            try {
+                webPageToAtomFeed.generateFeeds(feeds);
+                fail("error page did not fail");
+            }
+            catch (IOException e) {
+                assertFalse(e instanceof CircuitOpenException, e.toString());
+            }
+
+            HostLimiter hostLimiter = webPageToAtomFeed.getHostLimiter();
+            hostLimiter.acquire("127.0.0.1");
+
+            try {
+                webPageToAtomFeed.generateFeeds(feeds);
+                fail("open circuit did not fail");
+            }
+            catch (CircuitOpenException e) {
+                // failed without waiting for the host's only slot
+            }
+            finally {
+                hostLimiter.release("127.0.0.1");
+            }
+        }
+        finally {
+            deleteFeedFiles(feeds);
+        }
+    }
+
+    private List<FeedDefinition> getStubFeeds(String... paths) throws IOException {
+        return getHostStubFeeds("localhost", paths);
+    }
+
+    private List<FeedDefinition> getHostStubFeeds(String host, String... paths) throws IOException {
+        List<FeedDefinition> feeds = new ArrayList<>();
+
+        for (String path : Arrays.asList(paths)) {
+            File feedFile = File.createTempFile(path, ".atom");
+            feedFile.delete();
+
+            String url = format("http://%s:%d/%s", host, server.getAddress().getPort(), path);
+            feeds.add(TestGetWebPages.getStubFeed(path, url, feedFile.getPath()));
+        }
+
+        return feeds;
+    }
+
+    private void deleteFeedFiles(List<FeedDefinition> feeds) {
+        for (FeedDefinition feed : feeds) {
+            new File(feed.getFile()).delete();
+            new File(feed.getFile() + ".entries").delete();
+            new File(feed.getFile() + ".index").delete();
+            new File(feed.getFile() + ".lock").delete();
+        }
+    }
+
+    private static class PageHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+
+            if (path.equals("/error")) {
+                ERROR_REQUESTS.incrementAndGet();
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+                return;
+            }
+
+            if (path.equals("/missing")) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+
+            if (path.equals("/slow")) {
+                try {
+                    Thread.sleep(SLOW_MILLIS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            byte[] body = ("<html><body>" + path + "</body></html>").getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
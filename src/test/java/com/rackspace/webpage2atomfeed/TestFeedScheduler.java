@@ -0,0 +1,158 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@Test(groups = "unit", singleThreaded = true)
+public class TestFeedScheduler {
+    private File propsFile;
+    private String oldPropsFilename;
+
+    @BeforeMethod
+    public void setPropsFile() throws IOException {
+        propsFile = File.createTempFile("WebPageToAtomFeed", ".properties");
+        oldPropsFilename = System.getProperty("props.filename");
+        System.setProperty("props.filename", propsFile.getPath());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void resetPropsFile() {
+        if (oldPropsFilename == null) {
+            System.clearProperty("props.filename");
+        }
+        else {
+            System.setProperty("props.filename", oldPropsFilename);
+        }
+
+        propsFile.delete();
+    }
+
+    public void testPollInterval() {
+        FeedScheduler scheduler = newScheduler(getSchedulerProps("0"));
+
+        assertEquals(scheduler.getNextDelayMillis(getFeed(""), 0), 60000);
+        assertEquals(scheduler.getNextDelayMillis(getFeed("5"), 0), 5000);
+    }
+
+    public void testJitter() {
+        FeedScheduler scheduler = newScheduler(getSchedulerProps("0.1"));
+
+        for (int i = 0; i < 100; i++) {
+            long delayMillis = scheduler.getNextDelayMillis(getFeed(""), 0);
+
+            assertTrue(delayMillis >= 54000 && delayMillis <= 66000, "delay was " + delayMillis);
+        }
+    }
+
+    public void testInitialDelaySpreadAcrossInterval() {
+        FeedScheduler scheduler = newScheduler(getSchedulerProps("0.1"));
+        long maxDelayMillis = 0;
+
+        for (int i = 0; i < 100; i++) {
+            long delayMillis = scheduler.getInitialDelayMillis(getFeed(""));
+
+            assertTrue(delayMillis >= 0 && delayMillis < 60000, "delay was " + delayMillis);
+            maxDelayMillis = Math.max(maxDelayMillis, delayMillis);
+        }
+
+        assertTrue(maxDelayMillis > 30000, "first polls only reached " + maxDelayMillis + "ms");
+    }
+
+    public void testBackoff() {
+        FeedScheduler scheduler = newScheduler(getSchedulerProps("0"));
+
+        assertEquals(scheduler.getNextDelayMillis(getFeed(""), 1), 120000);
+        assertEquals(scheduler.getNextDelayMillis(getFeed(""), 2), 240000);
+        assertEquals(scheduler.getNextDelayMillis(getFeed(""), 3), 300000);
+        assertEquals(scheduler.getNextDelayMillis(getFeed(""), 100), 300000);
+    }
+
+    public void testReload() throws IOException {
+        Properties props = getSchedulerProps("0");
+        props.putAll(TestGetFeedProps.getPyraxFeedProps());
+        props.put("feed.0.url", "http://localhost:1/pyrax");
+        writeProps(props);
+
+        FeedScheduler scheduler = newScheduler(props);
+
+        try {
+            scheduler.reloadIfChanged();
+
+            assertEquals(scheduler.getScheduledTitles(), Collections.singleton("pyrax"));
+
+            for (String name : TestGetFeedProps.getJcloudsFeedProps().stringPropertyNames()) {
+                props.put(name, TestGetFeedProps.getJcloudsFeedProps().getProperty(name));
+            }
+
+            props.put("feed.1.url", "http://localhost:1/jclouds");
+            writeProps(props);
+            propsFile.setLastModified(propsFile.lastModified() + 2000);
+            scheduler.reloadIfChanged();
+
+            assertEquals(scheduler.getScheduledTitles(), new TreeSet<>(Arrays.asList("jclouds", "pyrax")));
+
+            props.put("feed.1.entry.pattern", "(broken");
+            writeProps(props);
+            propsFile.setLastModified(propsFile.lastModified() + 4000);
+            scheduler.reloadIfChanged();
+
+            assertEquals(scheduler.getScheduledTitles(), new TreeSet<>(Arrays.asList("jclouds", "pyrax")));
+        }
+        finally {
+            scheduler.stop();
+        }
+    }
+
+    public void testShutdownHookStops() throws InterruptedException {
+        FeedScheduler scheduler = newScheduler(getSchedulerProps("0"));
+        scheduler.start();
+
+        Thread shutdownHook = scheduler.newShutdownHook();
+        shutdownHook.start();
+        shutdownHook.join(10000);
+
+        assertTrue(scheduler.isStopped(), "scheduler still running after the shutdown hook");
+    }
+
+    private FeedScheduler newScheduler(Properties props) {
+        return new FeedScheduler(new WebPageToAtomFeed(), propsFile, props);
+    }
+
+    private Properties getSchedulerProps(String jitter) {
+        Properties props = new Properties();
+        props.put("daemon.poll.interval.seconds", "60");
+        props.put("daemon.jitter", jitter);
+        props.put("daemon.backoff.max.seconds", "300");
+        props.put("daemon.reload.check.seconds", "3600");
+        props.put("fetch.threads", "1");
+
+        return props;
+    }
+
+    private FeedDefinition getFeed(String pollInterval) {
+        Properties props = new Properties();
+        props.putAll(TestGetFeedProps.getPyraxFeedProps());
+        props.put("feed.0.poll.interval", pollInterval);
+
+        return new WebPageToAtomFeed().getFeedDefinitions(props).get(0);
+    }
+
+    private void writeProps(Properties props) throws IOException {
+        try (OutputStream out = new FileOutputStream(propsFile)) {
+            props.store(out, null);
+        }
+    }
+}
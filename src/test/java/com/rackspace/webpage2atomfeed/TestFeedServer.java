@@ -0,0 +1,147 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test(groups = "unit")
+public class TestFeedServer {
+    private FeedServer feedServer;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        feedServer = new FeedServer(0, 2);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        feedServer.close();
+    }
+
+    public void testServesPublishedFeed() throws IOException {
+        byte[] atom = "<feed>plain</feed>".getBytes("UTF-8");
+        feedServer.publish("/plain.atom", atom);
+
+        HttpURLConnection connection = open("/plain.atom");
+
+        assertEquals(connection.getResponseCode(), 200);
+        assertEquals(connection.getContentType(), "application/atom+xml;charset=UTF-8");
+        assertNull(connection.getHeaderField("Content-Encoding"));
+        assertEquals(read(connection.getInputStream()), atom);
+    }
+
+    public void testGzipAndNotModified() throws IOException {
+        byte[] atom = "<feed>gzip</feed>".getBytes("UTF-8");
+        feedServer.publish("/gzip.atom", atom);
+
+        HttpURLConnection connection = open("/gzip.atom");
+        connection.setRequestProperty("Accept-Encoding", "deflate, gzip");
+        String eTag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+
+        assertEquals(connection.getResponseCode(), 200);
+        assertEquals(connection.getHeaderField("Content-Encoding"), "gzip");
+        assertEquals(read(new GZIPInputStream(connection.getInputStream())), atom);
+
+        connection = open("/gzip.atom");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        connection.setRequestProperty("If-None-Match", eTag);
+
+        assertEquals(connection.getResponseCode(), 304);
+
+        connection = open("/gzip.atom");
+        connection.setRequestProperty("If-Modified-Since", lastModified);
+
+        assertEquals(connection.getResponseCode(), 304);
+
+        feedServer.publish("/gzip.atom", "<feed>changed</feed>".getBytes("UTF-8"));
+        connection = open("/gzip.atom");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        connection.setRequestProperty("If-None-Match", eTag);
+
+        assertEquals(connection.getResponseCode(), 200);
+        assertNotEquals(connection.getHeaderField("ETag"), eTag);
+    }
+
+    public void testUnknownFeedAndMethod() throws IOException {
+        feedServer.publish("/method.atom", "<feed/>".getBytes("UTF-8"));
+
+        assertEquals(open("/missing.atom").getResponseCode(), 404);
+
+        HttpURLConnection connection = open("/method.atom");
+        connection.setRequestMethod("POST");
+
+        assertEquals(connection.getResponseCode(), 405);
+    }
+
+    public void testAcceptsGzip() {
+        assertTrue(FeedServer.acceptsGzip("gzip"));
+        assertTrue(FeedServer.acceptsGzip("br, GZIP;q=0.5"));
+        assertTrue(FeedServer.acceptsGzip("*"));
+        assertFalse(FeedServer.acceptsGzip("gzip;q=0"));
+        assertFalse(FeedServer.acceptsGzip("deflate"));
+        assertFalse(FeedServer.acceptsGzip(null));
+    }
+
+    public void testGeneratedFeedServed() throws Exception {
+        Properties props = TestGetFeedProps.getPyraxFeedProps();
+        File atomFile = File.createTempFile("served", ".atom");
+        atomFile.delete();
+        props.put("feed.0.file", atomFile.getPath());
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            int port = webPageToAtomFeed.startServer(0, 1);
+            List<FeedDefinition> feeds = webPageToAtomFeed.getFeedDefinitions(props);
+            webPageToAtomFeed.writeFeeds(feeds,
+                    webPageToAtomFeed.getFeeds(feeds, TestGetFeeds.getTitleToPage("pyrax")));
+
+            HttpURLConnection connection = (HttpURLConnection) new URL(
+                    "http://localhost:" + port + "/" + atomFile.getName()).openConnection();
+
+            assertEquals(connection.getResponseCode(), 200);
+            assertEquals(read(connection.getInputStream()), Files.readAllBytes(atomFile.toPath()));
+        }
+        finally {
+            atomFile.delete();
+            new File(atomFile.getPath() + ".entries").delete();
+            new File(atomFile.getPath() + ".index").delete();
+            new File(atomFile.getPath() + ".lock").delete();
+        }
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + feedServer.getPort() + path).openConnection();
+    }
+
+    private byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+
+        try {
+            while ((count = in.read(buffer)) != -1) bytes.write(buffer, 0, count);
+        }
+        finally {
+            in.close();
+        }
+
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,183 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@Test(groups = "unit")
+public class TestFeedShards {
+    private static final int FEED_COUNT = 300;
+    private static final long LEASE_MILLIS = 60000;
+
+    private File dir;
+    private List<FeedDefinition> feeds;
+
+    @BeforeMethod
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("shards").toFile();
+        feeds = new ArrayList<>();
+
+        for (int i = 0; i < FEED_COUNT; i++) {
+            feeds.add(TestGetWebPages.getStubFeed("feed" + i, "http://example.com/feed" + i, "feed" + i + ".atom"));
+        }
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteDir() {
+        delete(dir);
+    }
+
+    public void testFeedsSplitBetweenWorkers() throws IOException {
+        List<FeedShards> shards = getShards("a", "b", "c");
+        List<List<FeedDefinition>> claimed = claimTwice(shards);
+
+        assertPartition(claimed);
+
+        for (List<FeedDefinition> shard : claimed) {
+            assertTrue(shard.size() > FEED_COUNT / 6 && shard.size() < FEED_COUNT / 2, "shard of " + shard.size());
+        }
+    }
+
+    public void testFirstWorkerHandsOverFeeds() throws IOException {
+        FeedShards a = new FeedShards(dir, "a", LEASE_MILLIS, true);
+
+        assertEquals(a.claim(feeds).size(), FEED_COUNT);
+
+        FeedShards b = new FeedShards(dir, "b", LEASE_MILLIS, true);
+
+        assertTrue(b.claim(feeds).isEmpty(), "b took feeds still leased by a");
+        assertPartition(Arrays.asList(a.claim(feeds), b.claim(feeds)));
+    }
+
+    public void testDeadWorkerFeedsTakenOver() throws IOException {
+        List<FeedShards> shards = getShards("a", "b", "c");
+        claimTwice(shards);
+
+        expire("c");
+
+        assertPartition(claimTwice(shards.subList(0, 2)));
+    }
+
+    public void testClosedWorkerFeedsTakenOver() throws IOException {
+        List<FeedShards> shards = getShards("a", "b", "c");
+        claimTwice(shards);
+
+        shards.get(2).close();
+
+        assertPartition(Arrays.asList(shards.get(0).claim(feeds), shards.get(1).claim(feeds)));
+    }
+
+    public void testOneShotRunsSplitFeeds() throws IOException {
+        List<List<FeedDefinition>> claimed = new ArrayList<>();
+
+        for (int run = 0; run < 2; run++) {
+            claimed.clear();
+
+            for (String workerId : Arrays.asList("a", "b")) {
+                try (FeedShards shards = new FeedShards(dir, workerId, LEASE_MILLIS, false)) {
+                    claimed.add(shards.claim(feeds));
+                }
+            }
+        }
+
+        assertPartition(claimed);
+
+        for (List<FeedDefinition> shard : claimed) {
+            assertTrue(shard.size() > FEED_COUNT / 4 && shard.size() < 3 * FEED_COUNT / 4, "shard of " + shard.size());
+        }
+    }
+
+    public void testJoiningWorkerOnlyTakesItsShare() {
+        List<String> workers = Arrays.asList("a", "b", "c");
+        List<String> moreWorkers = Arrays.asList("a", "b", "c", "d");
+        int moved = 0;
+
+        for (FeedDefinition feed : feeds) {
+            String owner = FeedShards.getOwner(workers, feed.getId());
+            String newOwner = FeedShards.getOwner(moreWorkers, feed.getId());
+
+            if (!owner.equals(newOwner)) {
+                assertEquals(newOwner, "d", feed + " moved between old workers");
+                moved++;
+            }
+        }
+
+        assertTrue(moved > FEED_COUNT / 8 && moved < FEED_COUNT / 2, moved + " feeds moved");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBadWorkerId() throws IOException {
+        new FeedShards(dir, "a/b", LEASE_MILLIS, true);
+    }
+
+    private List<FeedShards> getShards(String... workerIds) throws IOException {
+        List<FeedShards> shards = new ArrayList<>();
+
+        for (String workerId : workerIds) shards.add(new FeedShards(dir, workerId, LEASE_MILLIS, true));
+
+        return shards;
+    }
+
+    /**
+     * The first round settles who is live and gives up leases of feeds owned by others, the second takes them.
+     */
+    private List<List<FeedDefinition>> claimTwice(List<FeedShards> shards) throws IOException {
+        for (FeedShards shard : shards) shard.claim(feeds);
+
+        List<List<FeedDefinition>> claimed = new ArrayList<>();
+
+        for (FeedShards shard : shards) claimed.add(shard.claim(feeds));
+
+        return claimed;
+    }
+
+    private void assertPartition(List<List<FeedDefinition>> claimed) {
+        Set<String> titles = new HashSet<>();
+        int count = 0;
+
+        for (List<FeedDefinition> shard : claimed) {
+            for (FeedDefinition feed : shard) titles.add(feed.getTitle());
+
+            count += shard.size();
+        }
+
+        assertEquals(titles.size(), FEED_COUNT);
+        assertEquals(count, FEED_COUNT, "feeds claimed more than once");
+    }
+
+    /**
+     * Make a worker look like it stopped running a lease time ago.
+     */
+    private void expire(String workerId) throws IOException {
+        long expired = System.currentTimeMillis() - 2 * LEASE_MILLIS;
+        new File(dir, "workers/" + workerId + ".worker").setLastModified(expired);
+
+        for (File lease : new File(dir, "leases").listFiles()) {
+            String holder = new String(Files.readAllBytes(lease.toPath()), "UTF-8");
+
+            if (holder.equals(workerId)) lease.setLastModified(expired);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+
+        file.delete();
+    }
+}
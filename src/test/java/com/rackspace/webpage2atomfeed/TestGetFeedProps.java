@@ -27,7 +27,7 @@ public class TestGetFeedProps {
         List<Map<FeedProperty, String>> feedProps = webPageToAtomFeed.getFeedProps(getPyraxFeedProps());
 
         assertEquals(feedProps.size(), 1);
-        assertEquals(feedProps.get(0).size(), 13);
+        assertEquals(feedProps.get(0).size(), 19);
         assertEquals(feedProps.get(0).get(FEED_TITLE), "pyrax");
         assertEquals(feedProps.get(0).get(FEED_AUTHOR), "The Rackspace DRG");
         assertEquals(feedProps.get(0).get(ENTRY_MAX), "20");
@@ -38,7 +38,7 @@ public class TestGetFeedProps {
         List<Map<FeedProperty, String>> feedProps = webPageToAtomFeed.getFeedProps(getTwoFeedProps());
 
         assertEquals(feedProps.size(), 2);
-        assertEquals(feedProps.get(1).size(), 13);
+        assertEquals(feedProps.get(1).size(), 19);
         assertEquals(feedProps.get(1).get(FEED_TITLE), "jclouds");
         assertEquals(feedProps.get(1).get(FEED_AUTHOR), "The Rackspace DRG");
         assertEquals(feedProps.get(1).get(ENTRY_MAX), "20");
@@ -1,6 +1,5 @@
 package com.rackspace.webpage2atomfeed;
 
-import org.apache.abdera.model.Feed;
 import org.testng.annotations.Test;
 import org.testng.collections.Maps;
 import org.testng.reporters.Files;
@@ -9,42 +8,167 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
-import static com.rackspace.webpage2atomfeed.FeedProperty.ENTRY_MAX;
-import static com.rackspace.webpage2atomfeed.FeedProperty.FEED_TITLE;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 @Test(groups = "unit")
 public class TestGetFeeds {
     public void testGetPyraxFeed() throws IOException {
         WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed();
-        List<Map<FeedProperty, String>> pyraxProps = webPageToAtomFeed.getFeedProps(TestGetFeedProps.getPyraxFeedProps());
-        Map<String, String> titleToPage = getTitleToPage(pyraxProps.get(0).get(FEED_TITLE));
-        Map<String, Feed> titleToFeed = webPageToAtomFeed.getFeeds(pyraxProps, titleToPage);
-        Feed pyraxFeed = titleToFeed.get("pyrax");
-
-        assertEquals(pyraxFeed.getTitle(), "pyrax");
-        assertEquals(pyraxFeed.getSubtitle(), "The Rackspace Python SDK");
-        assertEquals(pyraxFeed.getAuthor().getName(), "The Rackspace DRG");
-        assertEquals(pyraxFeed.getLinks().get(0).getHref().toString(), "https://github.com/everett-toews/test/blob/master/README.md");
-        assertEquals(pyraxFeed.getLinks().get(1).getHref().toString(), "http://developer.rackspace.com/");
-
-        assertEquals(pyraxFeed.getEntries().size(), Integer.valueOf(pyraxProps.get(0).get(ENTRY_MAX)).intValue());
-
-        assertEquals(pyraxFeed.getEntries().get(2).getId().toString(), "https://github.com/everett-toews/test/blob/master/README.md#20130605---version-145");
-        assertEquals(pyraxFeed.getEntries().get(2).getTitle(), "2013.06.05 - Version 1.4.5");
-        assertEquals(pyraxFeed.getEntries().get(2).getSummary(), "<ul> <li>Fixed a bug that prevented region from being properly set. Issue #86.</li> </ul>");
-        assertEquals(pyraxFeed.getEntries().get(2).getLinks().get(0).getHref().toString(), "https://github.com/everett-toews/test/blob/master/README.md#20130605---version-145");
-
-        assertEquals(pyraxFeed.getEntries().get(9).getId().toString(), "https://github.com/everett-toews/test/blob/master/README.md#20130429---version-138");
-        assertEquals(pyraxFeed.getEntries().get(9).getTitle(), "2013.04.29 - Version 1.3.8");
-        assertEquals(pyraxFeed.getEntries().get(9).getSummary(), "<ul> <li>Fixed a bug that prevented the Cloud Servers code from running properly in the UK.</li> </ul>");
-        assertEquals(pyraxFeed.getEntries().get(9).getLinks().get(0).getHref().toString(), "https://github.com/everett-toews/test/blob/master/README.md#20130429---version-138");
-
-        assertEquals(pyraxFeed.getEntries().get(19).getId().toString(), "https://github.com/everett-toews/test/blob/master/README.md#20130215---version-127");
-        assertEquals(pyraxFeed.getEntries().get(19).getTitle(), "2013.02.15 - Version 1.2.7");
-        assertEquals(pyraxFeed.getEntries().get(19).getSummary(), "<ul> <li>Code formatting cleanup. No logical changes or additional functionality included.</li> <li>Added httplib2 requirement, now that novaclient no longer installs it. Taken from pull request #18 from Dustin Farris.</li> <li>Merge pull request #13 from adregner/container-ints: container stats should be integers</li> <li>Modified the upload_file() process to not return an object reference when not needed. GitHub issue #11.</li> </ul>");
-        assertEquals(pyraxFeed.getEntries().get(19).getLinks().get(0).getHref().toString(), "https://github.com/everett-toews/test/blob/master/README.md#20130215---version-127");
+        List<FeedDefinition> pyraxFeeds = webPageToAtomFeed.getFeedDefinitions(TestGetFeedProps.getPyraxFeedProps());
+        Map<String, String> titleToPage = getTitleToPage(pyraxFeeds.get(0).getTitle());
+        Map<String, List<FeedEntry>> titleToFeed = webPageToAtomFeed.getFeeds(pyraxFeeds, titleToPage);
+        List<FeedEntry> pyraxFeed = titleToFeed.get("pyrax");
+
+        assertEquals(pyraxFeeds.get(0).getTitle(), "pyrax");
+        assertEquals(pyraxFeeds.get(0).getDescription(), "The Rackspace Python SDK");
+        assertEquals(pyraxFeeds.get(0).getAuthor(), "The Rackspace DRG");
+        assertEquals(pyraxFeeds.get(0).getUrl(), "https://github.com/everett-toews/test/blob/master/README.md");
+        assertEquals(pyraxFeeds.get(0).getHomeUrl(), "http://developer.rackspace.com/");
+
+        assertEquals(pyraxFeed.size(), pyraxFeeds.get(0).getEntryMax());
+
+        assertEquals(pyraxFeed.get(2).getId(), "https://github.com/everett-toews/test/blob/master/README.md#20130605---version-145");
+        assertEquals(pyraxFeed.get(2).getTitle(), "2013.06.05 - Version 1.4.5");
+        assertEquals(pyraxFeed.get(2).getSummary(), "<ul> <li>Fixed a bug that prevented region from being properly set. Issue #86.</li> </ul>");
+        assertEquals(pyraxFeed.get(2).getLink(), "https://github.com/everett-toews/test/blob/master/README.md#20130605---version-145");
+
+        assertEquals(pyraxFeed.get(9).getId(), "https://github.com/everett-toews/test/blob/master/README.md#20130429---version-138");
+        assertEquals(pyraxFeed.get(9).getTitle(), "2013.04.29 - Version 1.3.8");
+        assertEquals(pyraxFeed.get(9).getSummary(), "<ul> <li>Fixed a bug that prevented the Cloud Servers code from running properly in the UK.</li> </ul>");
+        assertEquals(pyraxFeed.get(9).getLink(), "https://github.com/everett-toews/test/blob/master/README.md#20130429---version-138");
+
+        assertEquals(pyraxFeed.get(19).getId(), "https://github.com/everett-toews/test/blob/master/README.md#20130215---version-127");
+        assertEquals(pyraxFeed.get(19).getTitle(), "2013.02.15 - Version 1.2.7");
+        assertEquals(pyraxFeed.get(19).getSummary(), "<ul> <li>Code formatting cleanup. No logical changes or additional functionality included.</li> <li>Added httplib2 requirement, now that novaclient no longer installs it. Taken from pull request #18 from Dustin Farris.</li> <li>Merge pull request #13 from adregner/container-ints: container stats should be integers</li> <li>Modified the upload_file() process to not return an object reference when not needed. GitHub issue #11.</li> </ul>");
+        assertEquals(pyraxFeed.get(19).getLink(), "https://github.com/everett-toews/test/blob/master/README.md#20130215---version-127");
+    }
+
+    public void testGetJcloudsFeed() throws IOException {
+        WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed();
+        List<FeedDefinition> jcloudsFeeds = webPageToAtomFeed.getFeedDefinitions(getJcloudsFeedProps("2"));
+        Map<String, String> titleToPage = getTitleToPage(jcloudsFeeds.get(0).getTitle());
+        List<FeedEntry> jcloudsFeed = webPageToAtomFeed.getFeeds(jcloudsFeeds, titleToPage).get("jclouds");
+
+        assertEquals(jcloudsFeed.size(), 2);
+
+        assertEquals(jcloudsFeed.get(0).getId(), "http://jclouds.incubator.apache.org/documentation/releasenotes/1.6.1");
+        assertEquals(jcloudsFeed.get(0).getTitle(), "1.6.1");
+        assertEquals(jcloudsFeed.get(1).getTitle(), "1.6.0");
+    }
+
+    public void testUnchangedPageSkipped() throws IOException {
+        WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed();
+        List<FeedDefinition> pyraxFeeds = webPageToAtomFeed.getFeedDefinitions(TestGetFeedProps.getPyraxFeedProps());
+        Map<String, List<FeedEntry>> titleToFeed = webPageToAtomFeed.getFeeds(pyraxFeeds, Maps.<String, String>newHashMap());
+
+        assertTrue(titleToFeed.isEmpty());
+    }
+
+    public void testUnchangedRegionSkipped() throws IOException {
+        Properties props = TestGetFeedProps.getPyraxFeedProps();
+        File atomFile = File.createTempFile("region", ".atom");
+        File regionFile = File.createTempFile("regions", ".properties");
+        atomFile.delete();
+        props.put("feed.0.file", atomFile.getPath());
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setRegionHashFile(regionFile);
+            FeedDefinition pyrax = webPageToAtomFeed.getFeedDefinitions(props).get(0);
+            String page = getTitleToPage("pyrax").get("pyrax");
+
+            webPageToAtomFeed.writeFeed(pyrax, webPageToAtomFeed.getFeed(pyrax, page));
+            webPageToAtomFeed.feedSucceeded(pyrax);
+
+            String adChanged = page.replace("</article>", "</article><div>ad 2</div>");
+            assertNull(webPageToAtomFeed.getFeed(pyrax, adChanged));
+
+            String regionChanged = page.replace("Version 1.4.7", "Version 1.4.8");
+            assertNotNull(webPageToAtomFeed.getFeed(pyrax, regionChanged));
+            webPageToAtomFeed.feedFailed(pyrax, new IOException("write failed"));
+            assertNotNull(webPageToAtomFeed.getFeed(pyrax, regionChanged));
+
+            atomFile.delete();
+            assertNotNull(webPageToAtomFeed.getFeed(pyrax, page));
+        }
+        finally {
+            atomFile.delete();
+            regionFile.delete();
+            new File(atomFile.getPath() + ".entries").delete();
+            new File(atomFile.getPath() + ".index").delete();
+            new File(atomFile.getPath() + ".lock").delete();
+        }
+    }
+
+    public void testRenderedFieldsChangeRegionHash() throws IOException {
+        Properties props = TestGetFeedProps.getPyraxFeedProps();
+        File atomFile = File.createTempFile("region", ".atom");
+        File regionFile = File.createTempFile("regions", ".properties");
+        atomFile.delete();
+        props.put("feed.0.file", atomFile.getPath());
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setRegionHashFile(regionFile);
+            FeedDefinition pyrax = webPageToAtomFeed.getFeedDefinitions(props).get(0);
+            String page = getTitleToPage("pyrax").get("pyrax");
+
+            webPageToAtomFeed.writeFeed(pyrax, webPageToAtomFeed.getFeed(pyrax, page));
+            webPageToAtomFeed.feedSucceeded(pyrax);
+            assertNull(webPageToAtomFeed.getFeed(pyrax, page));
+
+            props.put("feed.0.description", "The Rackspace Python SDK, renamed");
+            FeedDefinition described = webPageToAtomFeed.getFeedDefinitions(props).get(0);
+            assertNotNull(webPageToAtomFeed.getFeed(described, page));
+            webPageToAtomFeed.writeFeed(described, webPageToAtomFeed.getFeed(described, page));
+            webPageToAtomFeed.feedSucceeded(described);
+            assertNull(webPageToAtomFeed.getFeed(described, page));
+
+            webPageToAtomFeed.setArchivePageSize(10);
+            assertNotNull(webPageToAtomFeed.getFeed(described, page));
+        }
+        finally {
+            atomFile.delete();
+            regionFile.delete();
+            new File(atomFile.getPath() + ".entries").delete();
+            new File(atomFile.getPath() + ".index").delete();
+            new File(atomFile.getPath() + ".lock").delete();
+        }
+    }
+
+    @Test(expectedExceptions = PatternTimeoutException.class)
+    public void testSlowPatternTimesOut() throws IOException {
+        Properties props = new Properties();
+        props.putAll(TestGetFeedProps.getPyraxFeedProps());
+        props.put("feed.0.page.pattern", "<article (.*?)</article>");
+        props.put("feed.0.entry.pattern", "<h3>(.*?)(.*?)(.*?)x");
+
+        StringBuilder page = new StringBuilder("<article <h3>");
+        for (int i = 0; i < 2000; i++) page.append('a');
+        page.append("</h3></article>");
+
+        WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed();
+        webPageToAtomFeed.setRegexTimeout(100);
+        List<FeedDefinition> feeds = webPageToAtomFeed.getFeedDefinitions(props);
+        Map<String, String> titleToPage = Maps.newHashMap();
+        titleToPage.put("pyrax", page.toString());
+
+        webPageToAtomFeed.getFeeds(feeds, titleToPage);
+    }
+
+    private Properties getJcloudsFeedProps(String entryMax) {
+        Properties props = new Properties();
+
+        for (String name : TestGetFeedProps.getJcloudsFeedProps().stringPropertyNames()) {
+            props.put(name.replace("feed.1.", "feed.0."), TestGetFeedProps.getJcloudsFeedProps().getProperty(name));
+        }
+
+        props.put("feed.0.entry.max", entryMax);
+
+        return props;
     }
 
     public static Map<String, String> getTitleToPage(String title) throws IOException {
@@ -0,0 +1,602 @@
+package com.rackspace.webpage2atomfeed;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import static com.rackspace.webpage2atomfeed.FeedProperty.*;
+import static java.lang.String.format;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test(groups = "unit")
+public class TestGetWebPages {
+    private static final int FEED_COUNT = 8;
+    private static final long LATENCY_MILLIS = 200;
+    private static final int VIRTUAL_FEED_COUNT = 400;
+    private static final int POOLED_FETCH_THREADS = 20;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final VersionedPageHandler versionedPageHandler = new VersionedPageHandler();
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new SlowPageHandler());
+        server.createContext("/conditional", new ConditionalPageHandler());
+        server.createContext("/compressed", new CompressedPageHandler());
+        server.createContext("/versioned", versionedPageHandler);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    public void testPagesByTitle() throws IOException {
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            Map<String, String> titleToPage = webPageToAtomFeed.getWebPages(getStubFeeds("localhost", FEED_COUNT));
+
+            assertEquals(titleToPage.size(), FEED_COUNT);
+
+            for (int i = 0; i < FEED_COUNT; i++) {
+                assertEquals(titleToPage.get("feed" + i), "<html> <body>/feed" + i + "</body> </html>");
+            }
+        }
+    }
+
+    public void testFetchTimeScalesWithParallelism() throws IOException {
+        long sequentialMillis = timeGetWebPages(1, FEED_COUNT, getStubFeeds("localhost", FEED_COUNT));
+        long parallelMillis = timeGetWebPages(FEED_COUNT, FEED_COUNT, getStubFeeds("localhost", FEED_COUNT));
+
+        assertTrue(sequentialMillis >= FEED_COUNT * LATENCY_MILLIS, "sequential took " + sequentialMillis + "ms");
+        assertTrue(parallelMillis < 3 * LATENCY_MILLIS, "parallel took " + parallelMillis + "ms");
+    }
+
+    public void testFetchThreadsPerHost() throws IOException {
+        List<FeedDefinition> feeds = getStubFeeds("localhost", FEED_COUNT / 2);
+        feeds.addAll(getStubFeeds("127.0.0.1", FEED_COUNT / 2));
+
+        long perHostMillis = timeGetWebPages(FEED_COUNT, 1, feeds);
+
+        assertTrue(perHostMillis >= (FEED_COUNT / 2) * LATENCY_MILLIS, "per host took " + perHostMillis + "ms");
+        assertTrue(perHostMillis < FEED_COUNT * LATENCY_MILLIS, "per host took " + perHostMillis + "ms");
+    }
+
+    public void testConnectionsReused() throws IOException {
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setFetchThreads(1);
+            webPageToAtomFeed.getWebPages(getStubFeeds("localhost", FEED_COUNT));
+
+            assertEquals(webPageToAtomFeed.getPoolMisses(), 1);
+            assertEquals(webPageToAtomFeed.getPoolHits(), FEED_COUNT - 1);
+        }
+    }
+
+    @Test(expectedExceptions = SocketTimeoutException.class)
+    public void testReadTimeout() throws IOException {
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setHttpTimeouts(1000, (int) LATENCY_MILLIS / 4);
+            webPageToAtomFeed.getWebPages(getStubFeeds("localhost", 1));
+        }
+    }
+
+    public void testOversizedPageKeepsCircuitClosed() throws IOException {
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setCircuitBreaker(null, 1, 300, 3600);
+            webPageToAtomFeed.setMaxBodySize(1);
+
+            for (int i = 0; i < 2; i++) {
+                try {
+                    webPageToAtomFeed.getWebPages(getStubFeeds("localhost", 1));
+                    fail("oversized page did not fail");
+                }
+                catch (IOException e) {
+                    assertFalse(e instanceof CircuitOpenException, e.toString());
+                }
+            }
+        }
+    }
+
+    public void testConditionalGet() throws IOException {
+        File validatorCacheFile = File.createTempFile("validators", ".properties");
+        File feedFile = File.createTempFile("conditional", ".atom");
+        validatorCacheFile.delete();
+        feedFile.deleteOnExit();
+
+        String url = format("http://localhost:%d/conditional", server.getAddress().getPort());
+        List<FeedDefinition> feeds = Collections.singletonList(getStubFeed("conditional", url, feedFile.getPath()));
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setValidatorCacheFile(validatorCacheFile);
+
+            assertEquals(webPageToAtomFeed.getWebPages(feeds).get("conditional"), "unchanged");
+            assertEquals(webPageToAtomFeed.getWebPages(feeds).get("conditional"), "unchanged",
+                    "validators kept before the feed was written");
+
+            webPageToAtomFeed.feedSucceeded(feeds.get(0));
+
+            assertTrue(webPageToAtomFeed.getWebPages(feeds).isEmpty());
+
+            feedFile.delete();
+
+            assertEquals(webPageToAtomFeed.getWebPages(feeds).get("conditional"), "unchanged");
+        }
+        finally {
+            validatorCacheFile.delete();
+        }
+    }
+
+    public void testFailedFeedDiscardsValidators() throws IOException {
+        File validatorCacheFile = File.createTempFile("validators", ".properties");
+        File feedFile = File.createTempFile("conditional", ".atom");
+        validatorCacheFile.delete();
+        feedFile.deleteOnExit();
+
+        String url = format("http://localhost:%d/conditional", server.getAddress().getPort());
+        FeedDefinition feed = getStubFeed("conditional", url, feedFile.getPath());
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setValidatorCacheFile(validatorCacheFile);
+
+            assertEquals(webPageToAtomFeed.getWebPage(feed), "unchanged");
+
+            webPageToAtomFeed.feedFailed(feed, new IOException("Could not write the feed"));
+
+            assertEquals(webPageToAtomFeed.getWebPage(feed), "unchanged");
+        }
+        finally {
+            validatorCacheFile.delete();
+        }
+    }
+
+    public void testFailedFeedValidatorsNotSaved() throws Exception {
+        File validatorCacheFile = File.createTempFile("validators", ".properties");
+        File notADirectory = File.createTempFile("feeds", ".dir");
+        validatorCacheFile.delete();
+
+        String url = format("http://localhost:%d/conditional", server.getAddress().getPort());
+        FeedDefinition feed = getStubFeed("conditional", url, new File(notADirectory, "feed.atom").getPath());
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setValidatorCacheFile(validatorCacheFile);
+
+            try {
+                webPageToAtomFeed.generateFeeds(Collections.singletonList(feed));
+                fail("writing the feed should have failed");
+            }
+            catch (IOException e) {
+                assertFalse(validatorCacheFile.exists(), "validators of a failed feed were saved");
+            }
+        }
+        finally {
+            validatorCacheFile.delete();
+            notADirectory.delete();
+        }
+    }
+
+    public void testValidatorsKeptPerFeed() throws IOException {
+        File validatorCacheFile = File.createTempFile("validators", ".properties");
+        File feedFile = File.createTempFile("conditional", ".atom");
+        validatorCacheFile.delete();
+        feedFile.deleteOnExit();
+
+        String url = format("http://localhost:%d/conditional", server.getAddress().getPort());
+        FeedDefinition first = getStubFeed("first", url, feedFile.getPath());
+        FeedDefinition second = getStubFeed("second", url, feedFile.getPath());
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setValidatorCacheFile(validatorCacheFile);
+
+            assertEquals(webPageToAtomFeed.getWebPage(first), "unchanged");
+
+            webPageToAtomFeed.feedSucceeded(first);
+
+            assertEquals(webPageToAtomFeed.getWebPage(second), "unchanged");
+            assertEquals(webPageToAtomFeed.getWebPage(first), null);
+        }
+        finally {
+            validatorCacheFile.delete();
+        }
+    }
+
+    public void testLockedFeedFetchedAgain() throws Exception {
+        File validatorCacheFile = File.createTempFile("validators", ".properties");
+        File regionHashFile = File.createTempFile("regions", ".properties");
+        File lockedFile = File.createTempFile("locked", ".atom");
+        File otherFile = File.createTempFile("other", ".atom");
+        validatorCacheFile.delete();
+        regionHashFile.delete();
+        lockedFile.delete();
+        otherFile.delete();
+
+        String url = format("http://localhost:%d/versioned", server.getAddress().getPort());
+        List<FeedDefinition> feeds = Arrays.asList(getStubFeed("locked", url, lockedFile.getPath()),
+                getStubFeed("other", url, otherFile.getPath()));
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setValidatorCacheFile(validatorCacheFile);
+            webPageToAtomFeed.setRegionHashFile(regionHashFile);
+            versionedPageHandler.version = 1;
+            webPageToAtomFeed.generateFeeds(feeds);
+            versionedPageHandler.version = 2;
+
+            try (FeedFiles.Lock lock = FeedFiles.tryLock(lockedFile)) {
+                webPageToAtomFeed.generateFeeds(feeds);
+            }
+
+            assertFalse(readFile(lockedFile).contains("version 2"), "locked feed was written");
+            assertTrue(readFile(otherFile).contains("version 2"));
+
+            webPageToAtomFeed.generateFeeds(feeds);
+
+            assertTrue(readFile(lockedFile).contains("version 2"), "skipped page not fetched again");
+        }
+        finally {
+            validatorCacheFile.delete();
+            regionHashFile.delete();
+
+            for (File feedFile : Arrays.asList(lockedFile, otherFile)) {
+                for (String suffix : Arrays.asList("", ".entries", ".index", ".lock")) {
+                    new File(feedFile.getPath() + suffix).delete();
+                }
+            }
+        }
+    }
+
+    public void testCompressedPage() throws IOException {
+        String url = format("http://localhost:%d/compressed", server.getAddress().getPort());
+        FeedDefinition feed = getStubFeed("compressed", url, "compressed.atom");
+        String page = new String(Files.readAllBytes(new File("src/test/resources/pyrax.RELEASENOTES.html").toPath()),
+                "UTF-8");
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            assertEquals(webPageToAtomFeed.getWebPage(feed), page.replaceAll("\\r\\n|\\r|\\n", " "));
+
+            Metrics.FeedStats feedStats = webPageToAtomFeed.getMetrics().getFeedStats("compressed");
+
+            assertEquals(feedStats.getFetchDecodedBytes(), page.getBytes("UTF-8").length);
+            assertTrue(feedStats.getFetchBytes() * 3 < feedStats.getFetchDecodedBytes(),
+                    feedStats.getFetchBytes() + " bytes over the wire");
+
+            webPageToAtomFeed.setCompression(false);
+
+            assertEquals(webPageToAtomFeed.getWebPage(feed), page.replaceAll("\\r\\n|\\r|\\n", " "));
+        }
+    }
+
+    public void testHttpArchiveReplay() throws IOException {
+        File archiveFile = File.createTempFile("http", ".archive");
+        archiveFile.delete();
+        HttpServer recordedServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        recordedServer.createContext("/", new SlowPageHandler());
+        recordedServer.createContext("/compressed", new CompressedPageHandler());
+        recordedServer.start();
+
+        String baseUrl = format("http://127.0.0.1:%d/", recordedServer.getAddress().getPort());
+        List<FeedDefinition> feeds = new ArrayList<>();
+
+        for (int i = 0; i < FEED_COUNT; i++) feeds.add(getStubFeed("feed" + i, baseUrl + "feed" + i, "feed.atom"));
+
+        feeds.add(getStubFeed("compressed", baseUrl + "compressed", "compressed.atom"));
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            Map<String, String> recorded;
+
+            try {
+                webPageToAtomFeed.setHttpArchiveRecording(archiveFile);
+                recorded = webPageToAtomFeed.getWebPages(feeds);
+            }
+            finally {
+                recordedServer.stop(0);
+            }
+
+            webPageToAtomFeed.setHttpArchiveReplay(archiveFile, 0);
+            long start = System.currentTimeMillis();
+
+            assertEquals(webPageToAtomFeed.getWebPages(feeds), recorded);
+            assertTrue(System.currentTimeMillis() - start < LATENCY_MILLIS, "replay took too long");
+
+            webPageToAtomFeed.setHttpArchiveReplay(archiveFile, HttpArchive.RECORDED_LATENCY);
+            start = System.currentTimeMillis();
+
+            assertEquals(webPageToAtomFeed.getWebPages(feeds), recorded);
+            assertTrue(System.currentTimeMillis() - start >= LATENCY_MILLIS, "replay didn't wait the recorded time");
+        }
+        finally {
+            archiveFile.delete();
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "No response for .*")
+    public void testHttpArchiveMissingPage() throws IOException {
+        File archiveFile = File.createTempFile("http", ".archive");
+        archiveFile.delete();
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setHttpArchiveRecording(archiveFile);
+            webPageToAtomFeed.getWebPages(getStubFeeds("localhost", 1));
+
+            webPageToAtomFeed.setHttpArchiveReplay(archiveFile, 0);
+            webPageToAtomFeed.getWebPages(getStubFeeds("127.0.0.1", 1));
+        }
+        finally {
+            archiveFile.delete();
+        }
+    }
+
+    public void testHttpArchiveTruncated() throws IOException {
+        File archiveFile = File.createTempFile("http", ".archive");
+        archiveFile.delete();
+
+        try {
+            HttpArchive archive = HttpArchive.forRecording(archiveFile);
+            List<String[]> headers = Collections.singletonList(new String[]{"Content-Type", "text/html"});
+            archive.append(new HttpArchive.Response("http://example.com/1", 200, "HTTP/1.1 200 OK", headers,
+                    "<p>1</p>".getBytes("UTF-8"), 0));
+            long firstLength = archiveFile.length();
+            archive.append(new HttpArchive.Response("http://example.com/2", 200, "HTTP/1.1 200 OK", headers,
+                    "<p>2</p>".getBytes("UTF-8"), 0));
+            byte[] recorded = Files.readAllBytes(archiveFile.toPath());
+
+            for (int length = (int) firstLength + 1; length < recorded.length; length++) {
+                Files.write(archiveFile.toPath(), Arrays.copyOf(recorded, length));
+                HttpArchive replay = HttpArchive.forReplay(archiveFile, 0);
+
+                assertEquals(replay.replay("http://example.com/1").getBodyLength(), 8, "cut at " + length);
+
+                // a record cut after its compressed data has been read whole
+                if (replay.size() == 2) {
+                    assertTrue(length > recorded.length - 16, "cut at " + length);
+                    assertEquals(replay.replay("http://example.com/2").getBodyLength(), 8, "cut at " + length);
+                }
+            }
+        }
+        finally {
+            archiveFile.delete();
+        }
+    }
+
+    public void testVirtualThreadsFallBack() throws IOException {
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setVirtualThreads(true);
+
+            assertEquals(webPageToAtomFeed.isVirtualThreads(), VirtualThreads.isSupported());
+            assertEquals(webPageToAtomFeed.getWebPages(getStubFeeds("localhost", FEED_COUNT)).size(), FEED_COUNT);
+        }
+
+        if (VirtualThreads.isSupported()) return;
+
+        try {
+            VirtualThreads.newPerTaskExecutor();
+            fail("virtual thread executor created before Java 21");
+        }
+        catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    public void testVirtualThreadsScaleWithFeeds() throws Exception {
+        if (!VirtualThreads.isSupported()) throw new SkipException("Virtual threads need Java 21 or later");
+
+        HttpServer slowServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), VIRTUAL_FEED_COUNT);
+        slowServer.createContext("/", new SlowPageHandler());
+        ExecutorService slowServerExecutor = VirtualThreads.newPerTaskExecutor();
+        slowServer.setExecutor(slowServerExecutor);
+        slowServer.start();
+
+        try {
+            String urlPrefix = format("http://127.0.0.1:%d/feed", slowServer.getAddress().getPort());
+            long pooledMillis = timeGenerateFeeds(false, urlPrefix);
+            long virtualMillis = timeGenerateFeeds(true, urlPrefix);
+
+            assertTrue(pooledMillis >= VIRTUAL_FEED_COUNT / POOLED_FETCH_THREADS * LATENCY_MILLIS,
+                    "pooled threads took " + pooledMillis + "ms");
+            assertTrue(virtualMillis < pooledMillis / 2,
+                    "virtual threads took " + virtualMillis + "ms, pooled threads " + pooledMillis + "ms");
+        }
+        finally {
+            slowServer.stop(0);
+            slowServerExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Generate {@link #VIRTUAL_FEED_COUNT} feeds from the slow server into a new directory.
+     *
+     * @return How long it took, in milliseconds.
+     */
+    private long timeGenerateFeeds(boolean virtualThreads, String urlPrefix) throws Exception {
+        File dir = Files.createTempDirectory("feeds").toFile();
+        List<FeedDefinition> feeds = new ArrayList<>();
+
+        for (int i = 0; i < VIRTUAL_FEED_COUNT; i++) {
+            feeds.add(getStubFeed("feed" + i, urlPrefix + i, new File(dir, "feed" + i + ".atom").getPath()));
+        }
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setVirtualThreads(virtualThreads);
+            webPageToAtomFeed.setFetchThreads(POOLED_FETCH_THREADS);
+            webPageToAtomFeed.setFetchThreadsPerHost(VIRTUAL_FEED_COUNT);
+            webPageToAtomFeed.setHttpPoolSize(Integer.MAX_VALUE, VIRTUAL_FEED_COUNT);
+            webPageToAtomFeed.setPipelineThreads(FEED_COUNT, FEED_COUNT, VIRTUAL_FEED_COUNT);
+
+            long start = System.nanoTime();
+            webPageToAtomFeed.generateFeeds(feeds);
+            long millis = (System.nanoTime() - start) / 1000000;
+
+            for (FeedDefinition feed : feeds) assertTrue(new File(feed.getFile()).exists(), feed + " not written");
+
+            return millis;
+        }
+        finally {
+            for (File file : dir.listFiles()) file.delete();
+
+            dir.delete();
+        }
+    }
+
+    private long timeGetWebPages(int fetchThreads, int fetchThreadsPerHost, List<FeedDefinition> feeds)
+            throws IOException {
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setFetchThreads(fetchThreads);
+            webPageToAtomFeed.setFetchThreadsPerHost(fetchThreadsPerHost);
+            webPageToAtomFeed.setHttpPoolSize(fetchThreads, fetchThreadsPerHost);
+
+            long start = System.nanoTime();
+            webPageToAtomFeed.getWebPages(feeds);
+
+            return (System.nanoTime() - start) / 1000000;
+        }
+    }
+
+    private List<FeedDefinition> getStubFeeds(String host, int count) {
+        List<FeedDefinition> feeds = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            String title = host.equals("localhost") ? "feed" + i : host + "-feed" + i;
+            String url = format("http://%s:%d/feed%d", host, server.getAddress().getPort(), i);
+            feeds.add(getStubFeed(title, url, title + ".atom"));
+        }
+
+        return feeds;
+    }
+
+    public static FeedDefinition getStubFeed(String title, String url, String file) {
+        Map<FeedProperty, String> feedProp = new HashMap<>();
+        feedProp.put(FEED_TITLE, title);
+        feedProp.put(FEED_URL, url);
+        feedProp.put(FEED_FILE, file);
+        feedProp.put(PAGE_PATTERN, "<body>(.*?)</body>");
+        feedProp.put(ENTRY_MAX, "1");
+        feedProp.put(ENTRY_PATTERN, "(.+)");
+        feedProp.put(ENTRY_TITLE_GROUP, "1");
+
+        return FeedDefinition.parse(feedProp);
+    }
+
+    private static class ConditionalPageHandler implements HttpHandler {
+        private static final String ETAG = "\"v1\"";
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set("ETag", ETAG);
+
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            byte[] body = "unchanged".getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+
+    /**
+     * Serves a page whose ETag and body change with its version.
+     */
+    private static class VersionedPageHandler implements HttpHandler {
+        private volatile int version;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String eTag = "\"v" + version + "\"";
+            exchange.getResponseHeaders().set("ETag", eTag);
+
+            if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            byte[] body = ("<html><body>version " + version + "</body></html>").getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static class CompressedPageHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            byte[] body = Files.readAllBytes(new File("src/test/resources/pyrax.RELEASENOTES.html").toPath());
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+
+            if (acceptEncoding == null || !acceptEncoding.contains("gzip")) {
+                exchange.sendResponseHeaders(200, body.length);
+
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, 0);
+
+            try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static class SlowPageHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                Thread.sleep(LATENCY_MILLIS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            byte[] body = ("<html>\r\n<body>" + exchange.getRequestURI().getPath() + "</body>\n</html>").getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
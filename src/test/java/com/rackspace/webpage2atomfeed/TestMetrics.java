@@ -0,0 +1,91 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test(groups = "unit")
+public class TestMetrics {
+    public void testHistogramBuckets() {
+        Histogram histogram = new Histogram();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(500));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(7));
+        histogram.record(TimeUnit.MINUTES.toNanos(1));
+
+        long[] cumulativeCounts = histogram.getCumulativeCounts();
+
+        assertEquals(cumulativeCounts[0], 2);
+        assertEquals(cumulativeCounts[1], 2);
+        assertEquals(cumulativeCounts[2], 3);
+        assertEquals(cumulativeCounts[Histogram.BUCKETS.length - 1], 3);
+        assertEquals(cumulativeCounts[Histogram.BUCKETS.length], 4);
+        assertEquals(histogram.getCount(), 4);
+        assertEquals(histogram.getSumSeconds(), 60.0085, 0.0001);
+    }
+
+    public void testPrometheusFormat() throws IOException {
+        Metrics metrics = new Metrics(false);
+        metrics.getFeedStats("my \"feed\"").fetch.record(TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.getFeedStats("my \"feed\"").entriesAdded.addAndGet(3);
+        metrics.getHostStats("Example.com").errors.incrementAndGet();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        metrics.writePrometheus(out);
+        String text = out.toString("UTF-8");
+
+        assertTrue(text.contains("# TYPE webpage2atomfeed_feed_fetch_seconds histogram\n"));
+        assertTrue(text.contains("webpage2atomfeed_feed_fetch_seconds_bucket{feed=\"my \\\"feed\\\"\",le=\"0.01\"} 0\n"));
+        assertTrue(text.contains("webpage2atomfeed_feed_fetch_seconds_bucket{feed=\"my \\\"feed\\\"\",le=\"0.025\"} 1\n"));
+        assertTrue(text.contains("webpage2atomfeed_feed_fetch_seconds_bucket{feed=\"my \\\"feed\\\"\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("webpage2atomfeed_feed_fetch_seconds_count{feed=\"my \\\"feed\\\"\"} 1\n"));
+        assertTrue(text.contains("webpage2atomfeed_feed_entries_added_total{feed=\"my \\\"feed\\\"\"} 3\n"));
+        assertTrue(text.contains("webpage2atomfeed_host_request_errors_total{host=\"example.com\"} 1\n"));
+    }
+
+    public void testJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.rackspace.webpage2atomfeed:type=Feed,name=\"jmx feed\"");
+
+        try (Metrics metrics = new Metrics(true)) {
+            metrics.getFeedStats("jmx feed").entriesAdded.addAndGet(5);
+
+            assertEquals(server.getAttribute(name, "EntriesAdded"), 5L);
+        }
+
+        assertFalse(server.isRegistered(name));
+    }
+
+    public void testMetricsFileWritten() throws Exception {
+        File metricsFile = File.createTempFile("metrics", ".prom");
+        Map<String, String> titleToPage = TestGetFeeds.getTitleToPage("pyrax");
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setMetrics(false, metricsFile);
+            List<FeedDefinition> feeds = webPageToAtomFeed.getFeedDefinitions(TestGetFeedProps.getPyraxFeedProps());
+            webPageToAtomFeed.getFeed(feeds.get(0), titleToPage.get("pyrax"));
+            webPageToAtomFeed.generateFeeds(Collections.<FeedDefinition>emptyList());
+
+            String text = new String(Files.readAllBytes(metricsFile.toPath()), "UTF-8");
+
+            assertTrue(text.contains("webpage2atomfeed_feed_parse_seconds_count{feed=\"pyrax\"} 1\n"), text);
+        }
+        finally {
+            metricsFile.delete();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.testng.Assert.assertEquals;
+
+@Test(groups = "unit")
+public class TestPageReader {
+    public void testNewLines() throws IOException {
+        String page = read("a\r\nb\rc\nd\n\ne\r\r", null);
+
+        assertEquals(page, "a b c d  e  ");
+    }
+
+    public void testNewLineSplitAcrossBuffers() throws IOException {
+        StringBuilder page = new StringBuilder();
+
+        for (int i = 0; i < 8191; i++) page.append('x');
+
+        page.append("\r\ny");
+
+        assertEquals(read(page.toString(), null).substring(8190), "x y");
+    }
+
+    public void testCharsetFromContentType() throws IOException {
+        byte[] body = "caf\u00e9".getBytes("ISO-8859-1");
+
+        assertEquals(new PageReader(1024).read(new ByteArrayInputStream(body), "text/html; charset=ISO-8859-1", -1),
+                "caf\u00e9");
+    }
+
+    public void testCharsetFromMetaTag() throws IOException {
+        byte[] body = "<html><head><meta charset=\"ISO-8859-1\"></head><body>caf\u00e9</body></html>"
+                .getBytes("ISO-8859-1");
+
+        assertEquals(new PageReader(1024).read(new ByteArrayInputStream(body), "text/html", -1),
+                "<html><head><meta charset=\"ISO-8859-1\"></head><body>caf\u00e9</body></html>");
+    }
+
+    public void testDefaultCharset() throws IOException {
+        assertEquals(read("caf\u00e9", "text/html"), "caf\u00e9");
+    }
+
+    public void testSameAsReplaceAll() throws IOException {
+        String page = new String(Files.readAllBytes(new File("src/test/resources/pyrax.RELEASENOTES.html").toPath()),
+                "UTF-8");
+
+        assertEquals(read(page, "text/html; charset=utf-8"), page.replaceAll("\\r\\n|\\r|\\n", " "));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testMaxBodySize() throws IOException {
+        InputStream body = new ByteArrayInputStream(new byte[2048]);
+
+        new PageReader(1024).read(body, null, -1);
+    }
+
+    public void testGzip() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write("compressed\r\npage".getBytes("UTF-8"));
+        }
+
+        assertEquals(readEncoded(compressed.toByteArray(), "gzip", 1024), "compressed page");
+    }
+
+    public void testDeflate() throws IOException {
+        byte[] page = "deflated page".getBytes("UTF-8");
+
+        for (boolean raw : new boolean[]{false, true}) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+
+            try (OutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+                out.write(page);
+            }
+
+            assertEquals(readEncoded(compressed.toByteArray(), "Deflate", 1024), "deflated page");
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testCompressedMaxBodySize() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(new byte[1024 * 1024]);
+        }
+
+        readEncoded(compressed.toByteArray(), "gzip", 64 * 1024);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testUnsupportedEncoding() throws IOException {
+        readEncoded("page".getBytes("UTF-8"), "br", 1024);
+    }
+
+    private String readEncoded(byte[] body, String contentEncoding, long maxBodySize) throws IOException {
+        InputStream decoded = PageReader.decode(new ByteArrayInputStream(body), contentEncoding);
+
+        return new PageReader(maxBodySize).read(decoded, "text/html; charset=UTF-8", -1);
+    }
+
+    private String read(String page, String contentType) throws IOException {
+        return new PageReader(1024 * 1024).read(new ByteArrayInputStream(page.getBytes("UTF-8")), contentType, -1);
+    }
+}
@@ -0,0 +1,57 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.testng.annotations.Test;
+
+import java.util.Properties;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@Test(groups = "unit")
+public class TestPatternLinter {
+    public void testSamplePatternsPass() {
+        Properties props = new Properties();
+        props.putAll(TestGetFeedProps.getPyraxFeedProps());
+        props.putAll(TestGetFeedProps.getJcloudsFeedProps());
+
+        for (FeedDefinition feed : new WebPageToAtomFeed().getFeedDefinitions(props)) {
+            assertTrue(feed.getPatternWarnings().isEmpty(), feed.getPatternWarnings().toString());
+        }
+    }
+
+    public void testNestedQuantifier() {
+        assertEquals(PatternLinter.lint("<p>(a+)+b").size(), 1);
+        assertEquals(PatternLinter.lint("<p>(?:.*?,)*end").size(), 1);
+        assertEquals(PatternLinter.lint("<p>(a+){2,}b").size(), 1);
+    }
+
+    public void testAdjacentWildcards() {
+        assertEquals(PatternLinter.lint("<h3>.*?.*?</h3>").size(), 1);
+        assertEquals(PatternLinter.lint("<h3>.*?(.*?)</h3>").size(), 1);
+        assertEquals(PatternLinter.lint("<h3>.*?x.*?</h3>").size(), 0);
+    }
+
+    public void testLeadingWildcard() {
+        assertEquals(PatternLinter.lint(".*?foo").size(), 1);
+        assertEquals(PatternLinter.lint("^.*foo").size(), 0);
+    }
+
+    public void testNonBacktrackingConstructs() {
+        assertEquals(PatternLinter.lint("<p>(?>a+)+b").size(), 0);
+        assertEquals(PatternLinter.lint("<p>(a+)++b").size(), 0);
+        assertEquals(PatternLinter.lint("<p>([a+]x)+b").size(), 0);
+        assertEquals(PatternLinter.lint("<p>(\\Q.*\\E)+b").size(), 0);
+    }
+
+    public void testWarningsOnFeedDefinition() {
+        Properties props = new Properties();
+        props.putAll(TestGetFeedProps.getPyraxFeedProps());
+        props.put("feed.0.entry.pattern", "<h3>(.*?)+href=\"(.*?)\"</a>(.*?)</h3>");
+
+        FeedDefinition pyrax = new WebPageToAtomFeed().getFeedDefinitions(props).get(0);
+
+        assertEquals(pyrax.getPatternWarnings().size(), 1);
+        assertTrue(pyrax.getPatternWarnings().get(0).startsWith("entry.pattern: nested quantifier (.*?)+"),
+                pyrax.getPatternWarnings().get(0));
+    }
+}
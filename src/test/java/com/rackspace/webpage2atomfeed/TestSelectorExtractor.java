@@ -0,0 +1,135 @@
+package com.rackspace.webpage2atomfeed;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+@Test(groups = "unit")
+public class TestSelectorExtractor {
+    public void testPyraxSelectorsMatchPattern() throws IOException {
+        Properties props = getSelectorProps(TestGetFeedProps.getPyraxFeedProps(), "article", "article > h3", "", "a",
+                "+ ul");
+        List<FeedEntry> patternFeed = getFeed(TestGetFeedProps.getPyraxFeedProps());
+        List<FeedEntry> selectorFeed = getFeed(props);
+
+        assertEquals(selectorFeed.size(), 20);
+        assertSameEntries(selectorFeed, patternFeed);
+    }
+
+    public void testJcloudsSelectorsMatchPattern() throws IOException {
+        Properties props = new Properties();
+
+        for (String name : TestGetFeedProps.getJcloudsFeedProps().stringPropertyNames()) {
+            props.put(name.replace("feed.1.", "feed.0."), TestGetFeedProps.getJcloudsFeedProps().getProperty(name));
+        }
+
+        List<FeedEntry> patternFeed = getFeed(props);
+        List<FeedEntry> selectorFeed = getFeed(getSelectorProps(props, "#column2 > ul", "li", "a", "a[href]", ""));
+
+        assertEquals(selectorFeed.size(), 20);
+        assertSameEntries(selectorFeed, patternFeed);
+    }
+
+    public void testStopsAtEntryMax() {
+        List<SelectorExtractor.ExtractedEntry> entries = extract("<ul><li>one<li>two<li>three</ul>", "", "li", "", "",
+                "", 2);
+
+        assertEquals(entries.size(), 2);
+        assertEquals(entries.get(0).getTitle(), "one");
+        assertEquals(entries.get(1).getTitle(), "two");
+        assertNull(entries.get(1).getLink());
+        assertNull(entries.get(1).getContent());
+    }
+
+    public void testTitleTextDecoded() {
+        List<SelectorExtractor.ExtractedEntry> entries = extract(
+                "<div class='post news'><h2> Fish &amp;\n<em>Chips</em> </h2><a href='/a?x=1&amp;y=2'>more</a></div>" +
+                "<div class=post><script>var s = '<h2>not a title</h2>';</script><h2>Peas</h2></div>",
+                "", "div.post", "h2", "a", "", 20);
+
+        assertEquals(entries.size(), 1);
+        assertEquals(entries.get(0).getTitle(), "Fish & Chips");
+        assertEquals(entries.get(0).getLink(), "/a?x=1&y=2");
+    }
+
+    public void testBareAmpersandDecoded() {
+        assertEquals(HtmlTokenizer.decode("Tom & Jerry's &lt;b&gt;"), "Tom & Jerry's <b>");
+        assertEquals(HtmlTokenizer.decode("R&D &unknown; &#65;&#x42;"), "R&D &unknown; AB");
+    }
+
+    public void testContentIsElementHtml() {
+        List<SelectorExtractor.ExtractedEntry> entries = extract(
+                "<body><!-- <h3>comment</h3> --><h3>1.0</h3><p>First<h3>1.1</h3><p>Second</p></body>",
+                "body", "h3", "", "", "+ p", 20);
+
+        assertEquals(entries.size(), 2);
+        assertEquals(entries.get(0).getTitle(), "1.0");
+        assertEquals(entries.get(0).getContent(), "<p>First");
+        assertEquals(entries.get(1).getContent(), "<p>Second</p>");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPatternAndSelector() {
+        Properties props = new Properties();
+        props.putAll(TestGetFeedProps.getPyraxFeedProps());
+        props.put("feed.0.entry.selector", "h3");
+
+        new WebPageToAtomFeed().getFeedDefinitions(props);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBadSelector() {
+        new WebPageToAtomFeed().getFeedDefinitions(getSelectorProps(TestGetFeedProps.getPyraxFeedProps(), "article",
+                "h3 >", "", "", ""));
+    }
+
+    private List<FeedEntry> getFeed(Properties props) throws IOException {
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            FeedDefinition feedDefinition = webPageToAtomFeed.getFeedDefinitions(props).get(0);
+            String page = TestGetFeeds.getTitleToPage(feedDefinition.getTitle()).get(feedDefinition.getTitle());
+
+            return webPageToAtomFeed.getFeed(feedDefinition, page);
+        }
+    }
+
+    private void assertSameEntries(List<FeedEntry> actual, List<FeedEntry> expected) {
+        for (int i = 0; i < expected.size(); i++) {
+            FeedEntry actualEntry = actual.get(i);
+            FeedEntry expectedEntry = expected.get(i);
+
+            assertEquals(actualEntry.getTitle(), expectedEntry.getTitle());
+            assertEquals(actualEntry.getId(), expectedEntry.getId());
+            assertEquals(actualEntry.getSummary(), expectedEntry.getSummary());
+        }
+    }
+
+    private Properties getSelectorProps(Properties feedProps, String page, String entry, String title, String link,
+                                        String content) {
+        Properties props = new Properties();
+        props.putAll(feedProps);
+        props.remove("feed.0.page.pattern");
+        props.remove("feed.0.entry.pattern");
+        props.put("feed.0.page.selector", page);
+        props.put("feed.0.entry.selector", entry);
+        props.put("feed.0.entry.title.selector", title);
+        props.put("feed.0.entry.link.selector", link);
+        props.put("feed.0.entry.content.selector", content);
+
+        return props;
+    }
+
+    private List<SelectorExtractor.ExtractedEntry> extract(String page, String pageSelector, String entry, String title,
+                                                           String link, String content, int entryMax) {
+        Properties props = getSelectorProps(TestGetFeedProps.getPyraxFeedProps(), pageSelector, entry, title, link,
+                content);
+        props.put("feed.0.entry.max", String.valueOf(entryMax));
+        FeedDefinition feedDefinition = new WebPageToAtomFeed().getFeedDefinitions(props).get(0);
+
+        return new SelectorExtractor(feedDefinition).extract(page);
+    }
+}
@@ -1,18 +1,27 @@
 package com.rackspace.webpage2atomfeed;
 
+import org.apache.abdera.Abdera;
+import org.apache.abdera.model.Document;
 import org.apache.abdera.model.Feed;
+import org.apache.abdera.model.Link;
 import org.testng.annotations.Test;
 import org.xml.sax.SAXException;
 
+import javax.xml.namespace.QName;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
-import static com.rackspace.webpage2atomfeed.FeedProperty.FEED_FILE;
-import static com.rackspace.webpage2atomfeed.FeedProperty.FEED_TITLE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
 @Test(groups = "unit")
@@ -20,12 +29,12 @@ public class TestWriteFeeds {
     public void testWriteFeed() throws IOException, TransformerException, ClassNotFoundException,
             ParserConfigurationException, InstantiationException, SAXException, IllegalAccessException {
         WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed();
-        List<Map<FeedProperty, String>> pyraxProps = webPageToAtomFeed.getFeedProps(TestGetFeedProps.getPyraxFeedProps());
-        Map<String, String> titleToPage = TestGetFeeds.getTitleToPage(pyraxProps.get(0).get(FEED_TITLE));
-        Map<String, Feed> titleToFeed = webPageToAtomFeed.getFeeds(pyraxProps, titleToPage);
-        File atomFilename = new File(pyraxProps.get(0).get(FEED_FILE));
+        List<FeedDefinition> pyraxFeeds = webPageToAtomFeed.getFeedDefinitions(TestGetFeedProps.getPyraxFeedProps());
+        Map<String, String> titleToPage = TestGetFeeds.getTitleToPage(pyraxFeeds.get(0).getTitle());
+        Map<String, List<FeedEntry>> titleToFeed = webPageToAtomFeed.getFeeds(pyraxFeeds, titleToPage);
+        File atomFilename = new File(pyraxFeeds.get(0).getFile());
 
-        webPageToAtomFeed.writeFeeds(pyraxProps, titleToFeed);
+        webPageToAtomFeed.writeFeeds(pyraxFeeds, titleToFeed);
 
         assertTrue(atomFilename.exists());
     }
@@ -34,13 +43,188 @@ public class TestWriteFeeds {
             ParserConfigurationException, InstantiationException, SAXException, IllegalAccessException {
         WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed();
         webPageToAtomFeed.setDryRunMode(true);
-        List<Map<FeedProperty, String>> pyraxProps = webPageToAtomFeed.getFeedProps(TestGetFeedProps.getPyraxFeedProps());
-        Map<String, String> titleToPage = TestGetFeeds.getTitleToPage(pyraxProps.get(0).get(FEED_TITLE));
-        Map<String, Feed> titleToFeed = webPageToAtomFeed.getFeeds(pyraxProps, titleToPage);
-        File atomFilename = new File(pyraxProps.get(0).get(FEED_FILE));
+        List<FeedDefinition> pyraxFeeds = webPageToAtomFeed.getFeedDefinitions(TestGetFeedProps.getPyraxFeedProps());
+        Map<String, String> titleToPage = TestGetFeeds.getTitleToPage(pyraxFeeds.get(0).getTitle());
+        Map<String, List<FeedEntry>> titleToFeed = webPageToAtomFeed.getFeeds(pyraxFeeds, titleToPage);
+        File atomFilename = new File(pyraxFeeds.get(0).getFile());
 
-        webPageToAtomFeed.writeFeeds(pyraxProps, titleToFeed);
+        webPageToAtomFeed.writeFeeds(pyraxFeeds, titleToFeed);
 
         assertTrue(atomFilename.exists());
     }
+
+    public void testWrittenFeedParses() throws IOException {
+        WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed();
+        Properties props = TestGetFeedProps.getPyraxFeedProps();
+        File atomFile = File.createTempFile("pyrax", ".atom");
+        atomFile.delete();
+        props.put("feed.0.file", atomFile.getPath());
+
+        List<FeedDefinition> pyraxFeeds = webPageToAtomFeed.getFeedDefinitions(props);
+        Map<String, String> titleToPage = TestGetFeeds.getTitleToPage(pyraxFeeds.get(0).getTitle());
+
+        try {
+            webPageToAtomFeed.writeFeeds(pyraxFeeds, webPageToAtomFeed.getFeeds(pyraxFeeds, titleToPage));
+
+            try (InputStream in = new FileInputStream(atomFile)) {
+                Document<Feed> doc = new Abdera().getParser().parse(in);
+                Feed feed = doc.getRoot();
+
+                assertEquals(feed.getTitle(), "pyrax");
+                assertEquals(feed.getAuthor().getName(), "The Rackspace DRG");
+                assertEquals(feed.getEntries().size(), 20);
+                assertEquals(feed.getEntries().get(2).getTitle(), "2013.06.05 - Version 1.4.5");
+                assertEquals(feed.getEntries().get(2).getSummary(), "<ul> <li>Fixed a bug that prevented region from being properly set. Issue #86.</li> </ul>");
+                assertEquals(feed.getEntries().get(2).getLinks().get(0).getHref().toString(), "https://github.com/everett-toews/test/blob/master/README.md#20130605---version-145");
+            }
+        }
+        finally {
+            atomFile.delete();
+            new File(atomFile.getPath() + ".entries").delete();
+            new File(atomFile.getPath() + ".index").delete();
+        }
+    }
+
+    public void testRemovedTopEntryNotDuplicated() throws IOException {
+        WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed();
+        Properties props = TestGetFeedProps.getPyraxFeedProps();
+        File atomFile = File.createTempFile("pyrax", ".atom");
+        atomFile.delete();
+        props.put("feed.0.file", atomFile.getPath());
+
+        List<FeedDefinition> pyraxFeeds = webPageToAtomFeed.getFeedDefinitions(props);
+        Map<String, String> titleToPage = TestGetFeeds.getTitleToPage(pyraxFeeds.get(0).getTitle());
+
+        try {
+            webPageToAtomFeed.writeFeeds(pyraxFeeds, webPageToAtomFeed.getFeeds(pyraxFeeds, titleToPage));
+            long lastModified = atomFile.lastModified();
+
+            Map<String, List<FeedEntry>> titleToFeed = webPageToAtomFeed.getFeeds(pyraxFeeds, titleToPage);
+            titleToFeed.get("pyrax").remove(0);
+            webPageToAtomFeed.writeFeeds(pyraxFeeds, titleToFeed);
+
+            assertEquals(atomFile.lastModified(), lastModified);
+            assertEquals(new EntryStore(atomFile, 0, 0).size(), 20);
+        }
+        finally {
+            atomFile.delete();
+            new File(atomFile.getPath() + ".entries").delete();
+            new File(atomFile.getPath() + ".index").delete();
+        }
+    }
+
+    public void testArchivePages() throws IOException {
+        File atomFile = File.createTempFile("paged", ".atom");
+        atomFile.delete();
+        FeedDefinition feed = TestGetWebPages.getStubFeed("paged", "http://example.com/paged", atomFile.getPath());
+        FeedArchives archives = new FeedArchives(atomFile);
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setArchivePageSize(5);
+            webPageToAtomFeed.writeFeed(feed, getEntries(1, 12));
+
+            assertPage(atomFile, 12, 11, archives.getPageFile(2).getName(), false);
+            assertPage(archives.getPageFile(1), 5, 1, null, true);
+            assertPage(archives.getPageFile(2), 10, 6, archives.getPageFile(1).getName(), true);
+
+            byte[] firstArchive = Files.readAllBytes(archives.getPageFile(1).toPath());
+            byte[] secondArchive = Files.readAllBytes(archives.getPageFile(2).toPath());
+            webPageToAtomFeed.writeFeed(feed, getEntries(9, 16));
+
+            assertPage(atomFile, 16, 16, archives.getPageFile(3).getName(), false);
+            assertPage(archives.getPageFile(3), 15, 11, archives.getPageFile(2).getName(), true);
+            assertEquals(Files.readAllBytes(archives.getPageFile(1).toPath()), firstArchive);
+            assertEquals(Files.readAllBytes(archives.getPageFile(2).toPath()), secondArchive);
+            assertEquals(new FeedArchives(atomFile).getPageCount(), 3);
+        }
+        finally {
+            for (File pageFile : new FeedArchives(atomFile).getPageFiles()) pageFile.delete();
+
+            atomFile.delete();
+            new File(atomFile.getPath() + ".entries").delete();
+            new File(atomFile.getPath() + ".index").delete();
+            new File(atomFile.getPath() + ".archived").delete();
+        }
+    }
+
+    public void testUpdatedArchivedEntryReopened() throws IOException {
+        File atomFile = File.createTempFile("paged", ".atom");
+        atomFile.delete();
+        FeedDefinition feed = TestGetWebPages.getStubFeed("paged", "http://example.com/paged", atomFile.getPath());
+        FeedArchives archives = new FeedArchives(atomFile);
+
+        try (WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed()) {
+            webPageToAtomFeed.setArchivePageSize(5);
+            webPageToAtomFeed.writeFeed(feed, getEntries(1, 15));
+
+            assertPage(atomFile, 15, 11, archives.getPageFile(2).getName(), false);
+
+            List<FeedEntry> entries = getEntries(1, 15);
+            FeedEntry first = entries.remove(entries.size() - 1);
+            entries.add(new FeedEntry(first.getId(), first.getTitle(), first.getLink(), "<p>changed</p>",
+                    first.getUpdated()));
+            webPageToAtomFeed.writeFeed(feed, entries);
+
+            assertPage(atomFile, 1, 1, archives.getPageFile(3).getName(), false);
+            assertPage(archives.getPageFile(3), 15, 11, archives.getPageFile(2).getName(), true);
+            assertPage(archives.getPageFile(1), 5, 1, null, true);
+            assertFalse(new FeedArchives(atomFile).contains(first.getId()), "updated entry still archived");
+        }
+        finally {
+            for (File pageFile : new FeedArchives(atomFile).getPageFiles()) pageFile.delete();
+
+            atomFile.delete();
+            new File(atomFile.getPath() + ".entries").delete();
+            new File(atomFile.getPath() + ".index").delete();
+            new File(atomFile.getPath() + ".archived").delete();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testArchivePageSizeWithMaxAge() {
+        WebPageToAtomFeed webPageToAtomFeed = new WebPageToAtomFeed();
+        webPageToAtomFeed.setEntryRetention(1000, 30);
+        webPageToAtomFeed.setArchivePageSize(5);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testArchivePageSizeOverRetention() {
+        new WebPageToAtomFeed().setArchivePageSize(600);
+    }
+
+    /**
+     * @return Releases first to last, newest first as they appear on a page.
+     */
+    private static List<FeedEntry> getEntries(int first, int last) {
+        List<FeedEntry> entries = new ArrayList<>();
+
+        for (int i = last; i >= first; i--) {
+            String link = "http://example.com/paged#version-" + i;
+            entries.add(new FeedEntry(link, "Version " + i, link, null, i * 1000L));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Check a document holds releases newest down to oldest and links to the archive before it.
+     */
+    private static void assertPage(File file, int newest, int oldest, String prevArchive, boolean archive)
+            throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            Feed feed = new Abdera().getParser().<Feed>parse(in).getRoot();
+
+            assertEquals(feed.getEntries().size(), newest - oldest + 1);
+            assertEquals(feed.getEntries().get(0).getTitle(), "Version " + newest);
+            assertEquals(feed.getEntries().get(newest - oldest).getTitle(), "Version " + oldest);
+
+            Link prevArchiveLink = feed.getLink("prev-archive");
+            assertEquals(prevArchiveLink == null ? null : prevArchiveLink.getHref().toString(), prevArchive);
+
+            Link currentLink = feed.getLink("current");
+            assertEquals(currentLink != null, archive);
+            assertEquals(feed.getExtension(new QName("http://purl.org/syndication/history/1.0", "archive")) != null,
+                    archive);
+        }
+    }
 }